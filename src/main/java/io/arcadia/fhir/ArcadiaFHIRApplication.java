@@ -7,16 +7,23 @@ import java.util.stream.Collectors;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 
-import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.spring.boot.autoconfigure.FhirRestfulServerCustomizer;
+import io.arcadia.fhir.cache.CachedBodyInterceptor;
+import io.arcadia.fhir.cache.ETagInterceptor;
+import io.arcadia.fhir.metrics.PipelineMetricsInterceptor;
+import io.arcadia.fhir.metrics.RequestTraceInterceptor;
+import io.arcadia.fhir.providers.BatchProvider;
+import io.arcadia.fhir.providers.BulkExportProvider;
 import io.arcadia.fhir.providers.CapabilityStatementResourceProvider;
 
 @SpringBootApplication
@@ -26,6 +33,27 @@ public class ArcadiaFHIRApplication extends SpringBootServletInitializer
 
 	private static final Logger logger = LoggerFactory.getLogger(ArcadiaFHIRApplication.class);
 
+	@Autowired
+	PipelineMetricsInterceptor pipelineMetricsInterceptor;
+
+	@Autowired
+	RequestTraceInterceptor requestTraceInterceptor;
+
+	@Autowired
+	ETagInterceptor eTagInterceptor;
+
+	@Autowired
+	CachedBodyInterceptor cachedBodyInterceptor;
+
+	@Autowired
+	BulkExportProvider bulkExportProvider;
+
+	@Autowired
+	BatchProvider batchProvider;
+
+	@Autowired
+	IPagingProvider pagingProvider;
+
 	public static void main(String[] args) {
 		SpringApplication.run(ArcadiaFHIRApplication.class, args);
 	}
@@ -33,11 +61,18 @@ public class ArcadiaFHIRApplication extends SpringBootServletInitializer
 	@Override
 	public void customize(RestfulServer server) {
 		try {
-			FhirContext.forR4();
 			Collection<IResourceProvider> c = server.getResourceProviders();
 			List<IResourceProvider> l = c.stream().filter(p -> p != this).collect(Collectors.toList());
 			server.setServerConformanceProvider(new CapabilityStatementResourceProvider());
 			server.setResourceProviders(l);
+			server.registerInterceptor(pipelineMetricsInterceptor);
+			server.registerInterceptor(requestTraceInterceptor);
+			server.registerInterceptor(eTagInterceptor);
+			// last, it writes cached responses itself
+			server.registerInterceptor(cachedBodyInterceptor);
+			server.registerProvider(bulkExportProvider);
+			server.registerProvider(batchProvider);
+			server.setPagingProvider(pagingProvider);
 		} finally {
 			logger.info("In Finally Block");
 		}
@@ -1,20 +1,42 @@
 package io.arcadia.fhir;
 
+import java.time.Duration;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.interceptor.LoggingInterceptor;
+import io.arcadia.fhir.bulk.BulkExportController;
+import io.arcadia.fhir.client.ExchangeLog;
+import io.arcadia.fhir.compression.CompressionFilter;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolverDemoMode;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolverLiveMode;
+import io.arcadia.fhir.dynamicapi.resolver.EndPointResolverReplayMode;
+import io.arcadia.fhir.limit.ConcurrencyLimitFilter;
+import io.arcadia.fhir.limit.GradientLimiter;
+import io.arcadia.fhir.metrics.RequestTraceFilter;
+import io.arcadia.fhir.metrics.RequestTraceInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 /**
  * FHIR API microservice Spring boot configuration
@@ -27,22 +49,57 @@ public class ArcadiaFHIRConfiguration {
 	
 	private static final Logger logger = LoggerFactory.getLogger(ArcadiaFHIRConfiguration.class);
 
+	/*
+	 * Order of the filters, right after the character encoding filter of Spring
+	 * Boot: CORS first, so preflight requests are answered before the limiter and
+	 * rejections carry the CORS headers, the trace has to cover rejected requests,
+	 * and rejected requests should not pay for setting up compression.
+	 */
+	private static final int CORS_FILTER_ORDER = Ordered.HIGHEST_PRECEDENCE + 9;
+
+	private static final int REQUEST_TRACE_FILTER_ORDER = CORS_FILTER_ORDER + 1;
+
+	private static final int CONCURRENCY_LIMIT_FILTER_ORDER = REQUEST_TRACE_FILTER_ORDER + 1;
+
+	private static final int COMPRESSION_FILTER_ORDER = CONCURRENCY_LIMIT_FILTER_ORDER + 1;
+
 	/**
-	 * Injects {@link LoggingInterceptor} bean
+	 * Injects {@link LoggingInterceptor} bean. It writes one access log line per
+	 * request on the calling thread and is therefore only enabled on demand with
+	 * {@code fhir.logging.accessLog=true}.
 	 * @return {@link LoggingInterceptor} bean
 	 */
 	@Bean
+	@ConditionalOnProperty(
+		    value="fhir.logging.accessLog", 
+		    havingValue = "true", 
+		    matchIfMissing = false)
 	public LoggingInterceptor loggingInterceptor() {
 		return new LoggingInterceptor();
 	}
 
 	/**
-	 * Injects {@link WebClient} bean used to call other microservices or external APIs
+	 * Injects {@link WebClient} bean used to call other microservices or external
+	 * APIs. The connection pool publishes its gauges to Micrometer under
+	 * {@code reactor.netty.connection.provider.*}.
+	 * 
+	 * @param builder                 Spring Boot configured builder which records
+	 *                                {@code http.client.requests} metrics
+	 * @param maxConnections          Maximum pooled connections per downstream
+	 * @param pendingAcquireTimeoutMs Maximum time a call waits for a connection
 	 * @return {@link WebClient} bean
 	 */
 	@Bean
-	public WebClient webClient() {
-		return WebClient.create();
+	public WebClient webClient(WebClient.Builder builder,
+			@Value("${client.pool.maxConnections:500}") int maxConnections,
+			@Value("${client.pool.pendingAcquireTimeoutMs:45000}") long pendingAcquireTimeoutMs) {
+		ConnectionProvider connectionProvider = ConnectionProvider.builder("downstream")
+				.maxConnections(maxConnections)
+				.pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+				.metrics(true)
+				.build();
+		return builder.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+				.build();
 	}
 
 	/**
@@ -55,10 +112,33 @@ public class ArcadiaFHIRConfiguration {
 	}
 
 	/**
-	 * @return {@link CorsFilter} bean.
+	 * Injects the {@link IPagingProvider} bean. It keeps the results of paged
+	 * searches in memory, the oldest are dropped first, so the {@code next}
+	 * links of the latest {@code maxSearches} searches can be followed.
+	 * 
+	 * @param maxSearches     Searches kept for paging
+	 * @param defaultPageSize Page size without {@code _count}
+	 * @param maxPageSize     Largest accepted {@code _count}
+	 * @return {@link FifoMemoryPagingProvider} bean
 	 */
 	@Bean
-	public CorsFilter corsFilter() {
+	public IPagingProvider pagingProvider(@Value("${paging.maxSearches:100}") int maxSearches,
+			@Value("${paging.defaultPageSize:20}") int defaultPageSize,
+			@Value("${paging.maxPageSize:200}") int maxPageSize) {
+		FifoMemoryPagingProvider pagingProvider = new FifoMemoryPagingProvider(maxSearches);
+		pagingProvider.setDefaultPageSize(defaultPageSize);
+		pagingProvider.setMaximumPageSize(maxPageSize);
+		return pagingProvider;
+	}
+
+	/**
+	 * Registers the {@link CorsFilter} for all endpoints, ahead of the FHIR
+	 * filters.
+	 * 
+	 * @return {@link FilterRegistrationBean} of the {@link CorsFilter}
+	 */
+	@Bean
+	public FilterRegistrationBean<CorsFilter> corsFilter() {
 
 		UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
 		CorsConfiguration config = new CorsConfiguration();
@@ -74,25 +154,131 @@ public class ArcadiaFHIRConfiguration {
 		config.addAllowedMethod("POST");
 		config.addAllowedMethod("DELETE");
 		config.addAllowedMethod("PATCH");
+		config.addExposedHeader(RequestTraceInterceptor.SERVER_TIMING_HEADER);
+		config.addExposedHeader(HttpHeaders.RETRY_AFTER);
+		config.addExposedHeader(HttpHeaders.ETAG);
+		config.addExposedHeader(HttpHeaders.CONTENT_LOCATION);
+		config.addExposedHeader(BulkExportController.PROGRESS_HEADER);
 		source.registerCorsConfiguration("/**", config);
-		return new CorsFilter(source);
+		FilterRegistrationBean<CorsFilter> registration = new FilterRegistrationBean<>(new CorsFilter(source));
+		registration.setOrder(CORS_FILTER_ORDER);
+		return registration;
 
 	}
 	
+	/**
+	 * Registers {@link RequestTraceFilter} for the FHIR endpoints so every FHIR
+	 * request collects its own stage timings.
+	 * 
+	 * @return {@link FilterRegistrationBean} of the {@link RequestTraceFilter}
+	 */
+	@Bean
+	public FilterRegistrationBean<RequestTraceFilter> requestTraceFilter() {
+		FilterRegistrationBean<RequestTraceFilter> registration = new FilterRegistrationBean<>(
+				new RequestTraceFilter());
+		registration.addUrlPatterns("/fhir/*");
+		registration.setOrder(REQUEST_TRACE_FILTER_ORDER);
+		return registration;
+	}
+
+	/**
+	 * Creates the {@link ConcurrencyLimitFilter} with one adaptive limiter for the
+	 * {@code metadata} endpoint and one for all resource endpoints. It is a bean
+	 * of its own, as the entries of a batch Bundle have to be admitted by it too.
+	 * 
+	 * @param fhirContext   Used to encode the OperationOutcome of rejections
+	 * @param meterRegistry Registry of the limiter meters
+	 * @param environment   Source of the {@code limit.*} properties
+	 * @return ConcurrencyLimitFilter bean
+	 */
+	@Bean
+	@ConditionalOnProperty(
+		    value="limit.enabled", 
+		    havingValue = "true", 
+		    matchIfMissing = true)
+	public ConcurrencyLimitFilter concurrencyLimitFilter(FhirContext fhirContext, MeterRegistry meterRegistry,
+			Environment environment) {
+		return new ConcurrencyLimitFilter(limiter("metadata", environment), limiter("resource", environment),
+				fhirContext, meterRegistry, environment.getProperty("limit.rejectStatus", Integer.class, 429),
+				environment.getProperty("limit.retryAfterSeconds", Integer.class, 1));
+	}
+
+	/**
+	 * Registers {@link ConcurrencyLimitFilter} for the FHIR endpoints.
+	 * 
+	 * @param filter ConcurrencyLimitFilter bean
+	 * @return {@link FilterRegistrationBean} of the {@link ConcurrencyLimitFilter}
+	 */
+	@Bean
+	@ConditionalOnProperty(
+		    value="limit.enabled", 
+		    havingValue = "true", 
+		    matchIfMissing = true)
+	public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilterRegistration(
+			ConcurrencyLimitFilter filter) {
+		FilterRegistrationBean<ConcurrencyLimitFilter> registration = new FilterRegistrationBean<>(filter);
+		registration.addUrlPatterns("/fhir/*");
+		registration.setOrder(CONCURRENCY_LIMIT_FILTER_ORDER);
+		return registration;
+	}
+
+	/**
+	 * Registers {@link CompressionFilter} for the FHIR endpoints.
+	 * 
+	 * @param meterRegistry Registry of the response size meters
+	 * @param minBytes      Smallest response which is compressed
+	 * @return {@link FilterRegistrationBean} of the {@link CompressionFilter}
+	 */
+	@Bean
+	@ConditionalOnProperty(
+		    value="compression.enabled", 
+		    havingValue = "true", 
+		    matchIfMissing = true)
+	public FilterRegistrationBean<CompressionFilter> compressionFilter(MeterRegistry meterRegistry,
+			@Value("${compression.minBytes:1024}") int minBytes) {
+		FilterRegistrationBean<CompressionFilter> registration = new FilterRegistrationBean<>(
+				new CompressionFilter(meterRegistry, minBytes));
+		registration.addUrlPatterns("/fhir/*");
+		registration.setOrder(COMPRESSION_FILTER_ORDER);
+		return registration;
+	}
+
+	private GradientLimiter limiter(String name, Environment environment) {
+		String prefix = "limit." + name + ".";
+		return new GradientLimiter(name, environment.getProperty(prefix + "initialLimit", Integer.class, 20),
+				environment.getProperty(prefix + "minLimit", Integer.class, 5),
+				environment.getProperty(prefix + "maxLimit", Integer.class, 200));
+	}
+
 	/**
 	 * Injects {@link EndPointResolver} bean. This bean will inject only if the
-	 * {@code app.mode} is set to {@code live} in application.properties.
+	 * {@code app.mode} is set to {@code live} or {@code record} in
+	 * application.properties. In {@code record} mode the clients additionally
+	 * write every downstream exchange to the {@link ExchangeLog}.
 	 * 
 	 * @return EndPointResolverLiveMode bean.
 	 */
 	@Bean
+	@ConditionalOnExpression("'${app.mode:demo}' == 'live' or '${app.mode:demo}' == 'record'")
+	public EndPointResolver liveMode(@Value("${app.mode:demo}") String mode) {
+		logger.info("Application running in {} mode", "live".equals(mode) ? "Live" : "Record");
+		return new EndPointResolverLiveMode();
+	}
+
+	/**
+	 * Injects {@link EndPointResolver} bean. This bean will inject only if the
+	 * {@code app.mode} is set to {@code replay} in application.properties.
+	 * 
+	 * @return EndPointResolverReplayMode bean.
+	 */
+	@Bean
 	@ConditionalOnProperty(
 		    value="app.mode", 
-		    havingValue = "live", 
+		    havingValue = "replay", 
 		    matchIfMissing = false)
-	public EndPointResolver liveMode() {
-		logger.info("Application running in Live mode");
-		return new EndPointResolverLiveMode();
+	public EndPointResolver replayMode() {
+		logger.info("Application running in Replay mode");
+		return new EndPointResolverReplayMode();
 	}
 	
 	/**
@@ -0,0 +1,223 @@
+package io.arcadia.fhir.batch;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+
+/**
+ * <p>
+ * {@code GET} request for one entry of a {@code batch} Bundle, dispatched to
+ * the {@code RestfulServer} on behalf of the request that posted the Bundle.
+ * </p>
+ *
+ * <p>
+ * Method, path and parameters are taken from {@code entry.request.url}. The
+ * response is always requested uncompressed as FHIR JSON and conditional
+ * headers of the batch request do not apply to the entries. Attributes are
+ * kept per entry since entries are served concurrently.
+ * </p>
+ */
+public class BatchEntryRequest extends HttpServletRequestWrapper {
+
+	private static final Set<String> HIDDEN_HEADERS = new LinkedHashSet<>(Arrays.asList(
+			Constants.HEADER_ACCEPT_ENCODING, Constants.HEADER_IF_NONE_MATCH, Constants.HEADER_IF_MODIFIED_SINCE,
+			Constants.HEADER_PREFER, Constants.HEADER_CONTENT_TYPE, Constants.HEADER_CONTENT_LENGTH).stream()
+			.map(name -> name.toLowerCase(Locale.ROOT)).collect(Collectors.toList()));
+
+	private static final String ACCEPT_LC = Constants.HEADER_ACCEPT.toLowerCase(Locale.ROOT);
+
+	private final String path;
+	private final String queryString;
+	private final Map<String, String[]> parameters;
+	private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param request Request that posted the Bundle
+	 * @param url     {@code entry.request.url}, relative to the FHIR base
+	 */
+	public BatchEntryRequest(HttpServletRequest request, String url) {
+		super(request);
+		int query = url.indexOf('?');
+		String entryPath = query < 0 ? url : url.substring(0, query);
+		while (entryPath.startsWith("/"))
+			entryPath = entryPath.substring(1);
+		this.path = entryPath;
+		this.queryString = query < 0 || query == url.length() - 1 ? null : url.substring(query + 1);
+		this.parameters = parseQuery(queryString);
+	}
+
+	/**
+	 * @param queryString Query string, may be null
+	 * @return decoded parameters in order of appearance
+	 */
+	public static Map<String, String[]> parseQuery(String queryString) {
+		Map<String, List<String>> values = new LinkedHashMap<>();
+		if (queryString != null) {
+			for (String pair : queryString.split("&")) {
+				if (pair.isEmpty())
+					continue;
+				int equals = pair.indexOf('=');
+				String name = decode(equals < 0 ? pair : pair.substring(0, equals));
+				String value = equals < 0 ? "" : decode(pair.substring(equals + 1));
+				values.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+			}
+		}
+		Map<String, String[]> parameters = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> value : values.entrySet()) {
+			parameters.put(value.getKey(), value.getValue().toArray(new String[0]));
+		}
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			return value;
+		}
+	}
+
+	@Override
+	public String getMethod() {
+		return RequestTypeEnum.GET.name();
+	}
+
+	@Override
+	public String getPathInfo() {
+		return "/" + path;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return getContextPath() + getServletPath() + getPathInfo();
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		String outerUrl = super.getRequestURL().toString();
+		String outerUri = super.getRequestURI();
+		String origin = outerUrl.endsWith(outerUri) ? outerUrl.substring(0, outerUrl.length() - outerUri.length())
+				: outerUrl;
+		return new StringBuffer(origin).append(getRequestURI());
+	}
+
+	@Override
+	public String getQueryString() {
+		return queryString;
+	}
+
+	@Override
+	public String getParameter(String name) {
+		String[] values = parameters.get(name);
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return parameters;
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	@Override
+	public String[] getParameterValues(String name) {
+		return parameters.get(name);
+	}
+
+	@Override
+	public String getHeader(String name) {
+		String lowerCase = name.toLowerCase(Locale.ROOT);
+		if (ACCEPT_LC.equals(lowerCase))
+			return Constants.CT_FHIR_JSON_NEW;
+		return HIDDEN_HEADERS.contains(lowerCase) ? null : super.getHeader(name);
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String name) {
+		String lowerCase = name.toLowerCase(Locale.ROOT);
+		if (ACCEPT_LC.equals(lowerCase))
+			return Collections.enumeration(Collections.singletonList(Constants.CT_FHIR_JSON_NEW));
+		return HIDDEN_HEADERS.contains(lowerCase) ? Collections.emptyEnumeration() : super.getHeaders(name);
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		Set<String> names = new LinkedHashSet<>();
+		for (Enumeration<String> outer = super.getHeaderNames(); outer != null && outer.hasMoreElements();) {
+			String name = outer.nextElement();
+			if (!HIDDEN_HEADERS.contains(name.toLowerCase(Locale.ROOT)))
+				names.add(name);
+		}
+		names.add(Constants.HEADER_ACCEPT);
+		return Collections.enumeration(names);
+	}
+
+	@Override
+	public long getDateHeader(String name) {
+		return HIDDEN_HEADERS.contains(name.toLowerCase(Locale.ROOT)) ? -1 : super.getDateHeader(name);
+	}
+
+	@Override
+	public int getIntHeader(String name) {
+		return HIDDEN_HEADERS.contains(name.toLowerCase(Locale.ROOT)) ? -1 : super.getIntHeader(name);
+	}
+
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	@Override
+	public int getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		return -1;
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+		if (value == null)
+			attributes.remove(name);
+		else
+			attributes.put(name, value);
+	}
+
+	@Override
+	public void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+}
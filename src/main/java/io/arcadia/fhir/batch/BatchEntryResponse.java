@@ -0,0 +1,245 @@
+package io.arcadia.fhir.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * <p>
+ * Captures the response to one entry of a {@code batch} Bundle in memory. No
+ * status, header or byte reaches the response of the batch request.
+ * </p>
+ */
+public class BatchEntryResponse extends HttpServletResponseWrapper {
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private final Map<String, List<String>> headers = new LinkedHashMap<>();
+	private int status = SC_OK;
+	private String contentType;
+	private String characterEncoding = StandardCharsets.UTF_8.name();
+	private ServletOutputStream outputStream;
+	private PrintWriter writer;
+
+	/**
+	 * @param response Response of the batch request, never written to
+	 */
+	public BatchEntryResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 * @return bytes written so far
+	 */
+	public byte[] getBody() {
+		if (writer != null)
+			writer.flush();
+		return body.toByteArray();
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public void setStatus(int sc) {
+		status = sc;
+	}
+
+	@Override
+	public void sendError(int sc) {
+		status = sc;
+	}
+
+	@Override
+	public void sendError(int sc, String msg) {
+		status = sc;
+	}
+
+	@Override
+	public void sendRedirect(String location) {
+		status = SC_FOUND;
+		setHeader("Location", location);
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public void setContentType(String type) {
+		contentType = type;
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset) {
+		characterEncoding = charset;
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		// the length of the captured body is known
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		// the length of the captured body is known
+	}
+
+	@Override
+	public void setLocale(Locale loc) {
+		// entries are rendered as FHIR JSON only
+	}
+
+	@Override
+	public void addCookie(Cookie cookie) {
+		// cookies do not apply to batch entries
+	}
+
+	@Override
+	public boolean containsHeader(String name) {
+		return headers.containsKey(name.toLowerCase(Locale.ROOT));
+	}
+
+	@Override
+	public String getHeader(String name) {
+		List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+		return values != null && !values.isEmpty() ? values.get(0) : null;
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name) {
+		List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+		return values != null ? Collections.unmodifiableList(values) : Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getHeaderNames() {
+		return Collections.unmodifiableSet(headers.keySet());
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		List<String> values = new ArrayList<>();
+		values.add(value);
+		headers.put(name.toLowerCase(Locale.ROOT), values);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		headers.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(value);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		setHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		addHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		setHeader(name, String.valueOf(date));
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		addHeader(name, String.valueOf(date));
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		if (outputStream == null) {
+			outputStream = new ServletOutputStream() {
+
+				@Override
+				public void write(int b) {
+					body.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					body.write(b, off, len);
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+					throw new UnsupportedOperationException("Batch entries are written synchronously");
+				}
+			};
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() {
+		if (writer == null)
+			writer = new PrintWriter(new OutputStreamWriter(body, Charset.forName(characterEncoding)));
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if (writer != null)
+			writer.flush();
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+		resetBuffer();
+		headers.clear();
+		status = SC_OK;
+	}
+
+	@Override
+	public void resetBuffer() {
+		if (writer != null)
+			writer.flush();
+		body.reset();
+	}
+
+	@Override
+	public void setBufferSize(int size) {
+		// the whole body is buffered
+	}
+
+	@Override
+	public int getBufferSize() {
+		return body.size();
+	}
+}
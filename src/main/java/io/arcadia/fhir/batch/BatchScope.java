@@ -0,0 +1,130 @@
+package io.arcadia.fhir.batch;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import org.hl7.fhir.r4.model.ResourceType;
+
+import io.arcadia.fhir.util.JSONUtil;
+
+/**
+ * <p>
+ * State shared by the entries of one {@code batch} Bundle, so entries that
+ * need the same Arcadia data cost one fetch.
+ * </p>
+ *
+ * <p>
+ * Before the entries run, the resource types searched per patient are planned
+ * with {@link #plan(String, ResourceType)}. The resolver then fetches the
+ * entities of all planned types of a patient with one GraphQL query and
+ * coalesces identical queries with {@link #coalesce(String, Supplier)}: the
+ * first entry executes it, concurrent entries wait for its result. Every
+ * caller gets its own copy of the response since transformation modifies the
+ * entities.
+ * </p>
+ *
+ * <p>
+ * Like {@code RequestTrace}, the scope is bound to a thread and has to be
+ * handed to the worker threads with {@link #wrap(Callable)}.
+ * </p>
+ */
+public class BatchScope {
+
+	private static final ThreadLocal<BatchScope> CURRENT = new ThreadLocal<>();
+
+	private final Map<String, Set<ResourceType>> plannedTypes = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<Map>> responses = new ConcurrentHashMap<>();
+
+	/**
+	 * @return scope of the current thread or null outside of a batch
+	 */
+	public static BatchScope current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Binds this scope to the thread executing the task.
+	 *
+	 * @param task Task to be executed on another thread
+	 * @return task running within this scope
+	 */
+	public <T> Callable<T> wrap(final Callable<T> task) {
+		return () -> {
+			BatchScope previous = CURRENT.get();
+			CURRENT.set(this);
+			try {
+				return task.call();
+			} finally {
+				if (previous != null)
+					CURRENT.set(previous);
+				else
+					CURRENT.remove();
+			}
+		};
+	}
+
+	/**
+	 * Records that an entry of the batch searches the given type for a patient.
+	 *
+	 * @param personId Arcadia person id
+	 * @param type     FHIR {@link ResourceType}
+	 */
+	public void plan(String personId, ResourceType type) {
+		plannedTypes.computeIfAbsent(personId, k -> Collections.synchronizedSet(EnumSet.noneOf(ResourceType.class)))
+				.add(type);
+	}
+
+	/**
+	 * @param personId Arcadia person id
+	 * @return resource types searched for the patient by the batch
+	 */
+	public Set<ResourceType> plannedTypes(String personId) {
+		Set<ResourceType> types = plannedTypes.get(personId);
+		if (types == null)
+			return Collections.emptySet();
+		Set<ResourceType> copy = EnumSet.noneOf(ResourceType.class);
+		synchronized (types) {
+			copy.addAll(types);
+		}
+		return copy;
+	}
+
+	/**
+	 * Executes a query once per batch.
+	 *
+	 * @param query Query, used as key
+	 * @param fetch Executes the query
+	 * @return copy of the response
+	 */
+	public Map coalesce(String query, Supplier<Map> fetch) {
+		CompletableFuture<Map> response = new CompletableFuture<>();
+		CompletableFuture<Map> existing = responses.putIfAbsent(query, response);
+		if (existing == null) {
+			try {
+				response.complete(fetch.get());
+			} catch (RuntimeException e) {
+				response.completeExceptionally(e);
+				throw e;
+			}
+			return (Map) JSONUtil.deepCopy(response.join());
+		}
+
+		try {
+			return (Map) JSONUtil.deepCopy(existing.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
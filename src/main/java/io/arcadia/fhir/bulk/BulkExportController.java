@@ -0,0 +1,136 @@
+package io.arcadia.fhir.bulk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import ca.uhn.fhir.context.FhirContext;
+import io.arcadia.fhir.bulk.BulkExportJob.Output;
+import io.arcadia.fhir.bulk.BulkExportJob.Status;
+import io.arcadia.fhir.service.BulkExportService;
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Status and file endpoints of the Bulk Data export. They live outside of the
+ * FHIR servlet because the status response is a plain JSON manifest and the
+ * files are NDJSON, neither of which is a FHIR resource.
+ * </p>
+ * 
+ * <ul>
+ * <li>{@code GET /bulk/status/{jobId}} answers {@code 202} with
+ * {@code X-Progress} while the job runs, the manifest once it completed and an
+ * {@link OperationOutcome} if it failed.</li>
+ * <li>{@code DELETE /bulk/status/{jobId}} cancels the job and deletes its
+ * files.</li>
+ * <li>{@code GET /bulk/files/{jobId}/{file}} streams one NDJSON file.</li>
+ * </ul>
+ */
+@RestController
+@RequestMapping("/bulk")
+public class BulkExportController {
+
+	public static final String PROGRESS_HEADER = "X-Progress";
+
+	private static final String FILES_PATH = "/bulk/files/";
+
+	@Autowired
+	BulkExportService bulkExportService;
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Value("${bulk.export.retryAfterSeconds:5}")
+	private int retryAfterSeconds;
+
+	@GetMapping("/status/{jobId}")
+	public ResponseEntity<?> status(HttpServletRequest request, @PathVariable String jobId) {
+		BulkExportJob job = bulkExportService.getJob(jobId);
+		if (job == null || job.getStatus() == Status.CANCELLED)
+			return outcome(HttpStatus.NOT_FOUND, IssueType.NOTFOUND, "Unknown bulk export " + jobId);
+
+		switch (job.getStatus()) {
+		case IN_PROGRESS:
+			return ResponseEntity.status(HttpStatus.ACCEPTED)
+					.header(PROGRESS_HEADER, job.getProcessedPatients()
+							+ (job.getTotalPatients() != null ? " of " + job.getTotalPatients() : "")
+							+ " patients exported")
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build();
+		case FAILED:
+			return outcome(HttpStatus.INTERNAL_SERVER_ERROR, IssueType.EXCEPTION,
+					"Bulk export failed: " + job.getFailure());
+		default:
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(manifest(request, job));
+		}
+	}
+
+	@DeleteMapping("/status/{jobId}")
+	public ResponseEntity<?> cancel(@PathVariable String jobId) {
+		if (!bulkExportService.cancel(jobId))
+			return outcome(HttpStatus.NOT_FOUND, IssueType.NOTFOUND, "Unknown bulk export " + jobId);
+		return ResponseEntity.accepted().build();
+	}
+
+	@GetMapping("/files/{jobId}/{fileName:.+}")
+	public ResponseEntity<?> file(@PathVariable String jobId, @PathVariable String fileName) {
+		BulkExportJob job = bulkExportService.getJob(jobId);
+		Output output = job != null && job.getStatus() == Status.COMPLETED ? job.getOutput(fileName) : null;
+		if (output == null)
+			return outcome(HttpStatus.NOT_FOUND, IssueType.NOTFOUND, "Unknown bulk export file " + fileName);
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(AppConstants.APPLICATION_FHIR_NDJSON_TYPE))
+				.body(new FileSystemResource(output.getFile()));
+	}
+
+	private Map<String, Object> manifest(HttpServletRequest request, BulkExportJob job) {
+		List<Map<String, Object>> outputs = new ArrayList<>();
+		List<Map<String, Object>> errors = new ArrayList<>();
+		for (Output output : job.getOutputs()) {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("type", output.getType());
+			entry.put("url", ServletUriComponentsBuilder.fromContextPath(request).path(FILES_PATH).path(job.getId())
+					.path("/").path(output.getFile().getFileName().toString()).toUriString());
+			entry.put("count", output.getCount());
+			if (ResourceType.OperationOutcome.name().equals(output.getType()))
+				errors.add(entry);
+			else
+				outputs.add(entry);
+		}
+
+		Map<String, Object> manifest = new LinkedHashMap<>();
+		manifest.put("transactionTime", new InstantType(job.getTransactionTime()).getValueAsString());
+		manifest.put("request", job.getRequest());
+		manifest.put("requiresAccessToken", false);
+		manifest.put("output", outputs);
+		manifest.put("error", errors);
+		return manifest;
+	}
+
+	private ResponseEntity<String> outcome(HttpStatus status, IssueType code, String diagnostics) {
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(code).setDiagnostics(diagnostics);
+		return ResponseEntity.status(status).contentType(MediaType.parseMediaType("application/fhir+json"))
+				.body(fhirContext.newJsonParser().encodeResourceToString(outcome));
+	}
+}
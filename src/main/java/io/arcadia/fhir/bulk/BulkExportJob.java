@@ -0,0 +1,266 @@
+package io.arcadia.fhir.bulk;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hl7.fhir.r4.model.ResourceType;
+
+/**
+ * <p>
+ * State of one Bulk Data {@code $export} request.
+ * </p>
+ * 
+ * <p>
+ * Resources are appended to one NDJSON file per resource type in the job
+ * directory as soon as they are transformed, so memory use does not grow with
+ * the size of the export. Files are opened lazily; types without resources
+ * have no file and are not listed in the manifest. Once the job is closed
+ * nothing more can be appended.
+ * </p>
+ */
+public class BulkExportJob {
+
+	public enum Status {
+		IN_PROGRESS, COMPLETED, FAILED, CANCELLED
+	}
+
+	private final String id;
+	private final String request;
+	private final Date transactionTime = new Date();
+	private final Path directory;
+	private final Set<ResourceType> types;
+	private final String watermarkScope;
+	private final Date since;
+	private volatile Integer totalPatients;
+	private final AtomicInteger processedPatients = new AtomicInteger();
+	private final Map<String, Output> outputs = new LinkedHashMap<>();
+	private final AtomicReference<Status> status = new AtomicReference<>(Status.IN_PROGRESS);
+	private boolean closed;
+	private volatile String failure;
+	private volatile Future<?> future;
+
+	public BulkExportJob(String id, String request, Path directory, Set<ResourceType> types, String watermarkScope,
+			Date since, Integer totalPatients) {
+		this.id = id;
+		this.request = request;
+		this.directory = directory;
+		this.types = types;
+		this.watermarkScope = watermarkScope;
+		this.since = since;
+		this.totalPatients = totalPatients;
+	}
+
+	/**
+	 * Appends one line to the NDJSON file of the type, creating it on first use.
+	 * 
+	 * @param type Resource type, which is also the file name
+	 * @param json Resource encoded as single line JSON
+	 * @throws IOException if the file cannot be written or the job is closed
+	 */
+	public void append(String type, String json) throws IOException {
+		Output output;
+		synchronized (outputs) {
+			if (closed)
+				throw new IOException("Bulk export " + id + " is closed");
+			output = outputs.get(type);
+			if (output == null) {
+				output = new Output(type, directory.resolve(type + ".ndjson"));
+				outputs.put(type, output);
+			}
+		}
+		output.write(json);
+	}
+
+	/**
+	 * Closes all files. Called once no more resources are appended.
+	 */
+	public void close() {
+		synchronized (outputs) {
+			closed = true;
+			for (Output output : outputs.values()) {
+				output.close();
+			}
+		}
+	}
+
+	/**
+	 * @return outputs in creation order, the error file included
+	 */
+	public List<Output> getOutputs() {
+		synchronized (outputs) {
+			return Collections.unmodifiableList(new ArrayList<>(outputs.values()));
+		}
+	}
+
+	/**
+	 * @param fileName Name of an output file
+	 * @return the output or null if the job has no such file
+	 */
+	public Output getOutput(String fileName) {
+		for (Output output : getOutputs()) {
+			if (output.getFile().getFileName().toString().equals(fileName))
+				return output;
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether anything was written to the error file
+	 */
+	public boolean hasErrors() {
+		synchronized (outputs) {
+			return outputs.containsKey(ResourceType.OperationOutcome.name());
+		}
+	}
+
+	public int patientProcessed() {
+		return processedPatients.incrementAndGet();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getRequest() {
+		return request;
+	}
+
+	public Date getTransactionTime() {
+		return transactionTime;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public Set<ResourceType> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return scope and types of the export, key of its watermark
+	 */
+	public String getWatermarkScope() {
+		return watermarkScope;
+	}
+
+	/**
+	 * @return lower bound of the changes exported, null for a full export
+	 */
+	public Date getSince() {
+		return since;
+	}
+
+	/**
+	 * @return number of patients of the export, null while they are still
+	 *         being enumerated and the search did not report a total
+	 */
+	public Integer getTotalPatients() {
+		return totalPatients;
+	}
+
+	public void setTotalPatients(Integer totalPatients) {
+		this.totalPatients = totalPatients;
+	}
+
+	public int getProcessedPatients() {
+		return processedPatients.get();
+	}
+
+	public Status getStatus() {
+		return status.get();
+	}
+
+	public void setStatus(Status status) {
+		this.status.set(status);
+	}
+
+	/**
+	 * Changes the status unless another thread changed it first, so a job
+	 * which is cancelled while it completes ends up in exactly one state.
+	 * 
+	 * @return whether the job had the expected status
+	 */
+	public boolean changeStatus(Status expected, Status status) {
+		return this.status.compareAndSet(expected, status);
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public void setFailure(String failure) {
+		this.failure = failure;
+	}
+
+	public Future<?> getFuture() {
+		return future;
+	}
+
+	public void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	/**
+	 * One NDJSON file of the export.
+	 */
+	public static class Output {
+
+		private final String type;
+		private final Path file;
+		private final Writer writer;
+		private int count;
+		private boolean closed;
+
+		Output(String type, Path file) throws IOException {
+			this.type = type;
+			this.file = file;
+			this.writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 64 * 1024);
+		}
+
+		synchronized void write(String json) throws IOException {
+			if (closed)
+				throw new IOException(file.getFileName() + " is closed");
+			writer.write(json);
+			writer.write('\n');
+			count++;
+		}
+
+		synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				writer.close();
+			} catch (IOException e) {
+				// the file is incomplete, which the count in the manifest reveals
+			}
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		public synchronized int getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package io.arcadia.fhir.bulk;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.StringType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import io.arcadia.fhir.service.BulkExportService;
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Validates a Bulk Data kick-off request and answers it with
+ * {@code 202 Accepted} and the status URL in {@code Content-Location}, as
+ * required by the asynchronous request pattern. Shared by the system, Patient
+ * and Group level {@code $export} operations.
+ * </p>
+ * 
+ * @see BulkExportController
+ */
+@Component
+public class BulkExportKickOff {
+
+	public static final String STATUS_PATH = "/bulk/status/";
+
+	private static final String RESPOND_ASYNC = "respond-async";
+
+	private static final List<String> OUTPUT_FORMATS = Arrays.asList(AppConstants.APPLICATION_FHIR_NDJSON_TYPE,
+			"application/ndjson", "ndjson");
+
+	@Autowired
+	BulkExportService bulkExportService;
+
+	/**
+	 * @param request      Kick-off request
+	 * @param response     Response to write the {@code 202} to
+	 * @param scope        Level of the export, e.g. {@code Patient}
+	 * @param patientIds   Patients to export, null for all patients
+	 * @param outputFormat Value of {@code _outputFormat}, may be null
+	 * @param type         Value of {@code _type}, may be null
+	 * @param since        Value of {@code _since}, may be null
+	 * @param incremental  Value of {@code _incremental}, may be null
+	 */
+	public void kickOff(HttpServletRequest request, HttpServletResponse response, String scope,
+			Collection<String> patientIds, StringType outputFormat, StringType type, InstantType since,
+			BooleanType incremental) {
+		String prefer = request.getHeader(Constants.HEADER_PREFER);
+		if (prefer == null || !prefer.contains(RESPOND_ASYNC))
+			throw new InvalidRequestException("$export requires the header Prefer: " + RESPOND_ASYNC);
+		if (outputFormat != null && !outputFormat.isEmpty() && !OUTPUT_FORMATS.contains(outputFormat.getValue()))
+			throw new InvalidRequestException("Unsupported _outputFormat: " + outputFormat.getValue());
+
+		StringBuffer requestUrl = request.getRequestURL();
+		if (request.getQueryString() != null)
+			requestUrl.append('?').append(request.getQueryString());
+
+		BulkExportJob job = bulkExportService.kickOff(requestUrl.toString(), scope, patientIds, parseTypes(type),
+				since != null ? since.getValue() : null, incremental != null && incremental.booleanValue());
+
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.setHeader(Constants.HEADER_CONTENT_LOCATION,
+				ServletUriComponentsBuilder.fromContextPath(request).path(STATUS_PATH).path(job.getId()).toUriString());
+	}
+
+	private Set<ResourceType> parseTypes(StringType type) {
+		Set<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+		if (type == null || type.isEmpty())
+			return types;
+		Set<ResourceType> supported = bulkExportService.getSupportedTypes();
+		for (String code : type.getValue().split(",")) {
+			ResourceType resourceType;
+			try {
+				resourceType = ResourceType.fromCode(code.trim());
+			} catch (Exception e) {
+				throw new InvalidRequestException("Unknown resource type in _type: " + code);
+			}
+			if (!supported.contains(resourceType))
+				throw new InvalidRequestException("Resource type " + code + " can not be exported");
+			types.add(resourceType);
+		}
+		return types;
+	}
+}
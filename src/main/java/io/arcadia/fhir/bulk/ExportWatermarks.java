@@ -0,0 +1,76 @@
+package io.arcadia.fhir.bulk;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hl7.fhir.r4.model.InstantType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.arcadia.fhir.util.JSONUtil;
+
+/**
+ * <p>
+ * Transaction times of the last completed export per export scope, e.g.
+ * {@code Group/demo-panel|Condition,Observation}. An {@code _incremental=true}
+ * kick-off uses the watermark of its scope as {@code _since}, so a scheduled
+ * export only transforms what changed since the previous run.
+ * </p>
+ * 
+ * <p>
+ * Watermarks are kept in a small JSON file which is replaced atomically on
+ * every update, so they survive restarts.
+ * </p>
+ */
+@Component
+public class ExportWatermarks {
+
+	private static final Logger logger = LoggerFactory.getLogger(ExportWatermarks.class);
+
+	private final Path file;
+	private final Map<String, Object> watermarks = new TreeMap<>();
+
+	public ExportWatermarks(
+			@Value("${bulk.export.watermarkFile:${java.io.tmpdir}/arcadia-bulk-export/watermarks.json}") String file) {
+		this.file = Paths.get(file);
+		if (Files.isRegularFile(this.file))
+			watermarks.putAll(JSONUtil.jsonToMap(JSONUtil.readJsonFromFile(file)));
+	}
+
+	/**
+	 * @param scope Export scope
+	 * @return transaction time of the last completed export or null
+	 */
+	public synchronized Date get(String scope) {
+		Object watermark = watermarks.get(scope);
+		return watermark != null ? new InstantType(watermark.toString()).getValue() : null;
+	}
+
+	/**
+	 * Records the transaction time of a completed export, unless a later export
+	 * of the same scope already completed.
+	 */
+	public synchronized void put(String scope, Date transactionTime) {
+		Date current = get(scope);
+		if (current != null && current.after(transactionTime))
+			return;
+		watermarks.put(scope, new InstantType(transactionTime).getValueAsString());
+		try {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(temp, JSONUtil.mapToJson(watermarks).getBytes(StandardCharsets.UTF_8));
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Could not persist bulk export watermarks to {}: {}", file, e.getMessage());
+		}
+	}
+}
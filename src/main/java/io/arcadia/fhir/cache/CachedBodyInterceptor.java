@@ -0,0 +1,68 @@
+package io.arcadia.fhir.cache;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import ca.uhn.fhir.rest.server.RestfulServerUtils.ResponseEncoding;
+import io.arcadia.fhir.metrics.RequestTrace;
+
+/**
+ * <p>
+ * HAPI interceptor writing the JSON cached by {@link RenderedBundleCache} as
+ * the response body, without parsing it into a Bundle and encoding it again.
+ * </p>
+ *
+ * <p>
+ * The JSON is only written as is for plain JSON responses. When the client
+ * asked for XML, {@code _pretty}, {@code _summary} or {@code _elements} it is
+ * parsed and HAPI encodes the Bundle as usual. It has to be registered after
+ * the interceptors setting response headers, as it ends the response.
+ * </p>
+ */
+@Component
+@Interceptor
+public class CachedBodyInterceptor {
+
+	@Autowired
+	RenderedBundleCache renderedBundleCache;
+
+	@Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+	public boolean outgoingResponse(RequestDetails theRequestDetails, ResponseDetails theResponseDetails,
+			HttpServletResponse theServletResponse) throws IOException {
+		RequestTrace trace = RequestTrace.current();
+		IBaseResource resource = theResponseDetails.getResponseResource();
+		byte[] body = trace != null ? trace.getCachedBody(resource) : null;
+		if (body == null)
+			return true;
+
+		ResponseEncoding encoding = RestfulServerUtils.determineResponseEncodingNoDefault(theRequestDetails, null);
+		EncodingEnum encodingEnum = encoding != null ? encoding.getEncoding()
+				: theRequestDetails.getServer().getDefaultResponseEncoding();
+		if (encodingEnum != EncodingEnum.JSON || theResponseDetails.getResponseCode() != Constants.STATUS_HTTP_200_OK
+				|| RestfulServerUtils.prettyPrintResponse(theRequestDetails.getServer(), theRequestDetails)
+				|| theRequestDetails.getParameters().containsKey(Constants.PARAM_SUMMARY)
+				|| theRequestDetails.getParameters().containsKey(Constants.PARAM_ELEMENTS)) {
+			theResponseDetails.setResponseResource(renderedBundleCache.parse(body));
+			return true;
+		}
+
+		String contentType = encoding != null ? encoding.getResourceContentType() : Constants.CT_FHIR_JSON_NEW;
+		theServletResponse.setStatus(Constants.STATUS_HTTP_200_OK);
+		theServletResponse.setContentType(contentType + Constants.CHARSET_UTF8_CTSUFFIX);
+		theServletResponse.getOutputStream().write(body);
+		return false;
+	}
+}
@@ -0,0 +1,40 @@
+package io.arcadia.fhir.cache;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import io.arcadia.fhir.metrics.RequestTrace;
+
+/**
+ * HAPI interceptor setting the weak {@code ETag} header of search responses
+ * from the fingerprint computed by {@link RenderedBundleCache}, including
+ * {@code 304 Not Modified} responses.
+ */
+@Component
+@Interceptor
+public class ETagInterceptor {
+
+	@Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+	public boolean outgoingResponse(HttpServletResponse theServletResponse) {
+		setETag(theServletResponse);
+		return true;
+	}
+
+	@Hook(Pointcut.SERVER_HANDLE_EXCEPTION)
+	public boolean handleException(HttpServletResponse theServletResponse) {
+		setETag(theServletResponse);
+		return true;
+	}
+
+	private void setETag(HttpServletResponse theServletResponse) {
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null && trace.getEtag() != null && !trace.isExplain()) {
+			theServletResponse.setHeader(HttpHeaders.ETAG, "W/\"" + trace.getEtag() + "\"");
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package io.arcadia.fhir.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Small thread-safe LRU cache whose entries also expire a fixed time after they
+ * were written.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ExpiringLruCache<K, V> {
+
+	private final long ttlNanos;
+	private final LinkedHashMap<K, Entry<V>> entries;
+
+	/**
+	 * @param maxEntries Number of entries kept, the least recently used is evicted
+	 * @param ttlMillis  Time an entry is valid after it was written
+	 */
+	public ExpiringLruCache(final int maxEntries, long ttlMillis) {
+		this.ttlNanos = ttlMillis * 1_000_000;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return the value or null if it is absent or expired
+	 */
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (System.nanoTime() - entry.writtenNanos > ttlNanos) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		entries.put(key, new Entry<>(value));
+	}
+
+	public synchronized void remove(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes the entries matching the filter, visiting every entry.
+	 *
+	 * @return number of removed entries
+	 */
+	public synchronized int removeIf(BiPredicate<? super K, ? super V> filter) {
+		int removed = 0;
+		for (Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<K, Entry<V>> entry = it.next();
+			if (filter.test(entry.getKey(), entry.getValue().value)) {
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+		private final long writtenNanos = System.nanoTime();
+
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+}
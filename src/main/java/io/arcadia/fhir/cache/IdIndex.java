@@ -0,0 +1,89 @@
+package io.arcadia.fhir.cache;
+
+import javax.annotation.PostConstruct;
+
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Maps the logical id of every FHIR resource rendered by a search to the
+ * Arcadia entity it was transformed from, so a later read of the same id can
+ * fetch exactly that entity instead of the whole compartment of the patient.
+ * </p>
+ * 
+ * <p>
+ * The index is filled as a side effect of transformation and is bounded by
+ * {@code index.id.maxEntries}. A missing entry only costs a less targeted
+ * lookup, so entries simply expire after {@code index.id.ttlSeconds}.
+ * </p>
+ */
+@Component
+public class IdIndex {
+
+	@Value("${index.id.maxEntries:100000}")
+	private int maxEntries;
+
+	@Value("${index.id.ttlSeconds:3600}")
+	private long ttlSeconds;
+
+	private ExpiringLruCache<String, Entry> index;
+
+	@PostConstruct
+	void init() {
+		index = new ExpiringLruCache<>(maxEntries, ttlSeconds * 1000);
+	}
+
+	public void put(ResourceType type, String id, Entry entry) {
+		index.put(type.name() + "/" + id, entry);
+	}
+
+	/**
+	 * @return the entity the resource was rendered from or null if unknown
+	 */
+	public Entry get(ResourceType type, String id) {
+		return index.get(type.name() + "/" + id);
+	}
+
+	public void remove(ResourceType type, String id) {
+		index.remove(type.name() + "/" + id);
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Location of one Arcadia entity.
+	 */
+	public static class Entry {
+
+		private final String personId;
+		private final String arcadiaResourceName;
+		private final String entityKey;
+
+		/**
+		 * @param personId            Arcadia person id with prefix, may be null
+		 * @param arcadiaResourceName Arcadia entity type, e.g. {@code problem}
+		 * @param entityKey           Key of the entity within its type
+		 */
+		public Entry(String personId, String arcadiaResourceName, String entityKey) {
+			this.personId = personId;
+			this.arcadiaResourceName = arcadiaResourceName;
+			this.entityKey = entityKey;
+		}
+
+		public String getPersonId() {
+			return personId;
+		}
+
+		public String getArcadiaResourceName() {
+			return arcadiaResourceName;
+		}
+
+		public String getEntityKey() {
+			return entityKey;
+		}
+	}
+}
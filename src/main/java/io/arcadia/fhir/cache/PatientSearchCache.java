@@ -0,0 +1,176 @@
+package io.arcadia.fhir.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.PostConstruct;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Resource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.valueset.BundleEntrySearchModeEnum;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.arcadia.fhir.metrics.RequestTrace;
+import io.arcadia.fhir.query.ArcadiaSearchQuery;
+import io.arcadia.fhir.query.PagedSearchResults.Page;
+import io.arcadia.fhir.query.SearchParameterMap;
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Cache of transformed Patient search pages. Lookups by MRN, Medicare id, name
+ * and birth date repeat within minutes, each one would otherwise call the
+ * Arcadia search and transform and validate every record again.
+ * </p>
+ *
+ * <p>
+ * The key is the normalized Arcadia query, see
+ * {@link ArcadiaSearchQuery#toNormalizedString()}, so parameter order and the
+ * case of names do not matter, plus the {@code _include} and
+ * {@code _revinclude} values which change the rendered page. Entries expire
+ * after {@code cache.patientSearch.ttlSeconds}. {@link #invalidate(String)}
+ * drops every page listing a patient, {@link #invalidateAll()} all pages, both
+ * are exposed by {@link PatientSearchCacheEndpoint}.
+ * </p>
+ *
+ * <p>
+ * Resources are copied on the way in and out, as HAPI and the interceptors
+ * may modify the returned instances.
+ * </p>
+ */
+@Component
+public class PatientSearchCache {
+
+	public static final String CACHE_NAME = "patientSearch";
+
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Value("${cache.patientSearch.enabled:true}")
+	private boolean enabled;
+
+	@Value("${cache.patientSearch.maxEntries:1000}")
+	private int maxEntries;
+
+	@Value("${cache.patientSearch.ttlSeconds:60}")
+	private long ttlSeconds;
+
+	private ExpiringLruCache<String, Cached> cache;
+
+	@PostConstruct
+	void init() {
+		cache = new ExpiringLruCache<>(maxEntries, ttlSeconds * 1000);
+	}
+
+	/**
+	 * @param searchQuery Arcadia query of the page
+	 * @param paramMap    Search parameters
+	 * @return the cache key
+	 */
+	public String key(ArcadiaSearchQuery searchQuery, SearchParameterMap paramMap) {
+		StringBuilder key = new StringBuilder(searchQuery.toNormalizedString());
+		append(key, "_include", paramMap.getIncludes());
+		append(key, "_revinclude", paramMap.getRevIncludes());
+		return key.toString();
+	}
+
+	/**
+	 * @return a copy of the cached page or null
+	 */
+	public Page get(String key) {
+		if (!isActive())
+			return null;
+		Cached cached = cache.get(key);
+		pipelineMetrics.cacheLookup(CACHE_NAME, cached != null, cached != null ? "cached" : "not cached");
+		return cached != null ? copy(cached.page) : null;
+	}
+
+	/**
+	 * @param key        Cache key
+	 * @param page       Transformed page
+	 * @param patientIds Ids of the patients on the page, with or without
+	 *                   {@link AppConstants#PERSON_ID_PREFIX}
+	 */
+	public void put(String key, Page page, Collection<String> patientIds) {
+		if (!isActive())
+			return;
+		Set<String> ids = new HashSet<>();
+		for (String patientId : patientIds) {
+			ids.add(stripPrefix(patientId));
+		}
+		cache.put(key, new Cached(copy(page), ids));
+	}
+
+	/**
+	 * Drops every cached page listing the patient.
+	 *
+	 * @param patientId Patient id with or without
+	 *                  {@link AppConstants#PERSON_ID_PREFIX}
+	 * @return number of dropped pages
+	 */
+	public int invalidate(String patientId) {
+		String id = stripPrefix(patientId);
+		return cache.removeIf((key, cached) -> cached.patientIds.contains(id));
+	}
+
+	public void invalidateAll() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	private boolean isActive() {
+		RequestTrace trace = RequestTrace.current();
+		return enabled && (trace == null || !trace.isExplain());
+	}
+
+	private static void append(StringBuilder key, String name, Set<Include> includes) {
+		if (includes == null || includes.isEmpty())
+			return;
+		Set<String> values = new TreeSet<>();
+		for (Include include : includes) {
+			values.add(include.getValue());
+		}
+		key.append('|').append(name).append('=').append(String.join(",", values));
+	}
+
+	static String stripPrefix(String patientId) {
+		return patientId.startsWith(AppConstants.PERSON_ID_PREFIX)
+				? patientId.substring(AppConstants.PERSON_ID_PREFIX.length())
+				: patientId;
+	}
+
+	private static Page copy(Page page) {
+		List<IBaseResource> resources = new ArrayList<>();
+		for (IBaseResource resource : page.getResources()) {
+			Resource copy = ((Resource) resource).copy();
+			BundleEntrySearchModeEnum mode = ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.get(resource);
+			if (mode != null)
+				ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.put(copy, mode);
+			resources.add(copy);
+		}
+		return new Page(resources, page.getMatches(), page.getTotal());
+	}
+
+	private static class Cached {
+
+		private final Page page;
+		private final Set<String> patientIds;
+
+		Cached(Page page, Set<String> patientIds) {
+			this.page = page;
+			this.patientIds = patientIds;
+		}
+	}
+}
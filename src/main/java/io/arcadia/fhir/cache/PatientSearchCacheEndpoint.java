@@ -0,0 +1,62 @@
+package io.arcadia.fhir.cache;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Actuator endpoint {@code /actuator/patientsearchcache} to invalidate the
+ * {@link PatientSearchCache}, e.g. after a patient was merged or corrected in
+ * Arcadia:
+ * </p>
+ * 
+ * <pre>
+ * DELETE /actuator/patientsearchcache/123
+ * DELETE /actuator/patientsearchcache
+ * </pre>
+ *
+ * <p>
+ * Invalidating a patient also drops its rendered Patient from the
+ * {@link RenderedResourceCache} and its {@link IdIndex} entry, so the next read
+ * fetches the corrected person.
+ * </p>
+ */
+@Component
+@Endpoint(id = "patientsearchcache")
+public class PatientSearchCacheEndpoint {
+
+	@Autowired
+	PatientSearchCache patientSearchCache;
+
+	@Autowired
+	RenderedResourceCache renderedResourceCache;
+
+	@Autowired
+	IdIndex idIndex;
+
+	@ReadOperation
+	public Map<String, Integer> size() {
+		return Collections.singletonMap("entries", patientSearchCache.size());
+	}
+
+	@DeleteOperation
+	public Map<String, Integer> invalidate(@Selector String patientId) {
+		String id = PatientSearchCache.stripPrefix(patientId);
+		renderedResourceCache.remove(ResourceType.Patient, id);
+		idIndex.remove(ResourceType.Patient, id);
+		return Collections.singletonMap("invalidated", patientSearchCache.invalidate(id));
+	}
+
+	@DeleteOperation
+	public void invalidateAll() {
+		patientSearchCache.invalidateAll();
+	}
+}
@@ -0,0 +1,223 @@
+package io.arcadia.fhir.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.arcadia.fhir.metrics.RequestTrace;
+import io.arcadia.fhir.query.SearchParameterMap;
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <p>
+ * Serves searches whose Arcadia data did not change without transforming and
+ * validating it again.
+ * </p>
+ * 
+ * <p>
+ * The fingerprint of a search is a SHA-256 hash of the mapping version, the
+ * resource type, the normalized search parameters and the Arcadia response.
+ * The mapping version covers the JSON configuration files, the build and
+ * {@code cache.mappingVersion}, which has to be changed when the StructureMaps
+ * of the transformation service change. It is used as the
+ * {@code ETag} of the response, so:
+ * <ul>
+ * <li>a search with a matching {@code If-None-Match} is answered with
+ * {@code 304 Not Modified} before any transformation,</li>
+ * <li>otherwise a Bundle rendered earlier for the same search and fingerprint
+ * is served from the cache,</li>
+ * <li>otherwise the Bundle is rendered and cached.</li>
+ * </ul>
+ * </p>
+ * 
+ * <p>
+ * Bundles are cached as their JSON in a {@link TieredCache}, so a large number
+ * of them fits compressed outside of the heap. On a hit the JSON is not parsed
+ * again: an empty placeholder Bundle is returned and registered with the
+ * {@link RequestTrace}, and {@link CachedBodyInterceptor} writes the cached
+ * JSON as the response body. The placeholder has to be returned to HAPI
+ * unchanged.
+ * </p>
+ * 
+ * @see ETagInterceptor
+ */
+@Component
+public class RenderedBundleCache {
+
+	public static final String CACHE_NAME = "renderedBundle";
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Value("${cache.bundle.enabled:true}")
+	private boolean enabled;
+
+	@Value("${cache.bundle.heapBytes:16777216}")
+	private long heapBytes;
+
+	@Value("${cache.bundle.offHeapBytes:268435456}")
+	private long offHeapBytes;
+
+	@Value("${cache.bundle.segmentBytes:8388608}")
+	private int segmentBytes;
+
+	@Value("${cache.bundle.ttlSeconds:300}")
+	private long ttlSeconds;
+
+	@Value("${cache.mappingVersion:}")
+	private String configuredMappingVersion;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private TieredCache cache;
+
+	private byte[] mappingVersion;
+
+	@PostConstruct
+	void init() {
+		cache = new TieredCache(CACHE_NAME, heapBytes, offHeapBytes, segmentBytes, ttlSeconds * 1000, meterRegistry);
+		mappingVersion = mappingVersion();
+	}
+
+	/**
+	 * @param type        FHIR {@link ResourceType} of the search
+	 * @param arcadiaData Arcadia response the Bundle is rendered from
+	 * @param params      Search parameters
+	 * @param renderer    Transforms the Arcadia data into the Bundle
+	 * @return the Bundle, or a placeholder for the cached JSON
+	 * @throws NotModifiedException if the client already has this version
+	 */
+	public Bundle render(ResourceType type, Object arcadiaData, SearchParameterMap params,
+			Supplier<Bundle> renderer) {
+		RequestTrace trace = RequestTrace.current();
+		if (!enabled || trace == null || trace.isExplain())
+			return renderer.get();
+
+		String key = type + "?" + params.toNormalizedQueryString(fhirContext);
+		String fingerprint = fingerprint(key, arcadiaData);
+		trace.setEtag(fingerprint);
+
+		if (matches(trace.getIfNoneMatch(), fingerprint)) {
+			pipelineMetrics.cacheLookup(CACHE_NAME, true, "If-None-Match matches, not modified");
+			throw new NotModifiedException("Not Modified");
+		}
+
+		// the fingerprint is part of the key, earlier renderings of the search age out
+		byte[] json = cache.get(key + "#" + fingerprint);
+		if (json != null) {
+			pipelineMetrics.cacheLookup(CACHE_NAME, true, "Arcadia data unchanged");
+			Bundle placeholder = new Bundle();
+			trace.setCachedBody(placeholder, json);
+			return placeholder;
+		}
+		pipelineMetrics.cacheLookup(CACHE_NAME, false, "not cached for this Arcadia data");
+
+		Bundle bundle = renderer.get();
+		cache.put(key + "#" + fingerprint,
+				fhirContext.newJsonParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8));
+		return bundle;
+	}
+
+	/**
+	 * @param json Cached JSON of a Bundle
+	 * @return the parsed Bundle, for responses which cannot use the JSON as is
+	 */
+	public Bundle parse(byte[] json) {
+		return fhirContext.newJsonParser().parseResource(Bundle.class,
+				new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+	}
+
+	private String fingerprint(String key, Object arcadiaData) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(mappingVersion);
+			digest.update(key.getBytes(StandardCharsets.UTF_8));
+			try (OutputStream out = new DigestOutputStream(NullOutputStream.INSTANCE, digest)) {
+				mapper.writeValue(out, arcadiaData);
+			}
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 18));
+		} catch (NoSuchAlgorithmException | IOException e) {
+			throw new InternalErrorException("Could not fingerprint Arcadia response: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return hash of everything besides the Arcadia data the rendering depends
+	 *         on, so a deploy with another mapping invalidates cached Bundles
+	 *         and entity tags
+	 */
+	private byte[] mappingVersion() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(String.valueOf(getClass().getPackage().getImplementationVersion())
+					.getBytes(StandardCharsets.UTF_8));
+			digest.update(configuredMappingVersion.getBytes(StandardCharsets.UTF_8));
+			digest.update(mapper.writeValueAsBytes(ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE)));
+			digest.update(mapper.writeValueAsBytes(ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE)));
+			return digest.digest();
+		} catch (NoSuchAlgorithmException | IOException e) {
+			throw new IllegalStateException("Could not compute mapping version: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param ifNoneMatch Value of {@code If-None-Match}, a list of weak or strong
+	 *                    entity tags
+	 */
+	private static boolean matches(String ifNoneMatch, String fingerprint) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			String value = tag.trim();
+			if (value.startsWith("W/"))
+				value = value.substring(2);
+			value = value.replace("\"", "");
+			if (value.equals(fingerprint) || value.equals("*"))
+				return true;
+		}
+		return false;
+	}
+
+	private static class NullOutputStream extends OutputStream {
+
+		static final NullOutputStream INSTANCE = new NullOutputStream();
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package io.arcadia.fhir.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.PostConstruct;
+
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.context.FhirContext;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <p>
+ * Read-through cache of single resources rendered for {@code @Read} requests,
+ * keyed by {@code <type>/<id>}. Clients resolving references read the same
+ * Practitioners, Organizations and Locations over and over.
+ * </p>
+ *
+ * <p>
+ * Resources are cached as their JSON in a {@link TieredCache} and parsed on
+ * every hit, so each caller gets its own instance which HAPI and the
+ * interceptors may modify.
+ * </p>
+ */
+@Component
+public class RenderedResourceCache {
+
+	public static final String CACHE_NAME = "renderedResource";
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Value("${cache.resource.enabled:true}")
+	private boolean enabled;
+
+	@Value("${cache.resource.heapBytes:8388608}")
+	private long heapBytes;
+
+	@Value("${cache.resource.offHeapBytes:134217728}")
+	private long offHeapBytes;
+
+	@Value("${cache.resource.segmentBytes:4194304}")
+	private int segmentBytes;
+
+	@Value("${cache.resource.ttlSeconds:120}")
+	private long ttlSeconds;
+
+	private TieredCache cache;
+
+	@PostConstruct
+	void init() {
+		cache = new TieredCache(CACHE_NAME, heapBytes, offHeapBytes, segmentBytes, ttlSeconds * 1000, meterRegistry);
+	}
+
+	/**
+	 * @return a copy of the cached resource or null
+	 */
+	public Resource get(ResourceType type, String id) {
+		if (!enabled)
+			return null;
+		byte[] json = cache.get(type.name() + "/" + id);
+		pipelineMetrics.cacheLookup(CACHE_NAME, json != null, type.name() + "/" + id);
+		if (json == null)
+			return null;
+		return (Resource) fhirContext.newJsonParser()
+				.parseResource(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+	}
+
+	public void put(ResourceType type, String id, Resource resource) {
+		if (enabled)
+			cache.put(type.name() + "/" + id,
+					fhirContext.newJsonParser().encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8));
+	}
+
+	public void remove(ResourceType type, String id) {
+		cache.remove(type.name() + "/" + id);
+	}
+}
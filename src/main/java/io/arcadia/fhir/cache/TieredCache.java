@@ -0,0 +1,382 @@
+package io.arcadia.fhir.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <p>
+ * Thread-safe two-tier cache of serialized resources, e.g. the JSON of
+ * rendered Bundles. Values are stored deflate-compressed in both tiers:
+ * <ul>
+ * <li>{@value #HEAP} is a small LRU on the heap, bounded by the compressed
+ * bytes it holds,</li>
+ * <li>{@value #OFF_HEAP} is a large log in direct memory, split into
+ * segments. Entries evicted from the heap tier are appended to it. Once the
+ * log is full its oldest segment is reused, dropping the entries written to
+ * it. Its content neither counts against the heap nor is it scanned by the
+ * garbage collector.</li>
+ * </ul>
+ * A hit in the off-heap tier promotes the entry back to the heap tier. Entries
+ * expire a fixed time after they were put, in both tiers. A value larger than
+ * a tier is not kept in it.
+ * </p>
+ *
+ * <p>
+ * Per tier the bytes and entries held, the lookups by result, the hit ratio
+ * and the evictions are published as Micrometer meters tagged with the cache
+ * name. Segments are allocated as the log first fills, up to the off-heap
+ * budget; {@code -XX:MaxDirectMemorySize} has to leave room for it next to the
+ * buffers of the web server.
+ * </p>
+ */
+public class TieredCache {
+
+	public static final String BYTES_GAUGE = "fhir.cache.tier.bytes";
+
+	public static final String ENTRIES_GAUGE = "fhir.cache.tier.entries";
+
+	public static final String HIT_RATIO_GAUGE = "fhir.cache.tier.hit.ratio";
+
+	public static final String LOOKUP_COUNTER = "fhir.cache.tier.lookups";
+
+	public static final String EVICTION_COUNTER = "fhir.cache.tier.evictions";
+
+	public static final String HEAP = "heap";
+
+	public static final String OFF_HEAP = "offHeap";
+
+	private final long ttlNanos;
+
+	private final long heapMaxBytes;
+	private final LinkedHashMap<String, HeapEntry> heap = new LinkedHashMap<>(16, 0.75f, true);
+	private long heapBytes;
+
+	private final int segmentBytes;
+	private final ByteBuffer[] segments;
+	private final List<List<String>> segmentKeys = new ArrayList<>();
+	private final Map<String, OffHeapEntry> offHeap = new HashMap<>();
+	private long offHeapBytes;
+	private int segment;
+	private int position;
+
+	private final Counter heapHits;
+	private final Counter heapMisses;
+	private final Counter heapEvictions;
+	private final Counter offHeapHits;
+	private final Counter offHeapMisses;
+	private final Counter offHeapEvictions;
+
+	/**
+	 * @param name          Cache name, the {@code cache} tag of the meters
+	 * @param heapMaxBytes  Compressed bytes kept on the heap
+	 * @param offHeapBytes  Compressed bytes kept in direct memory, 0 disables the
+	 *                      off-heap tier
+	 * @param segmentBytes  Size of one off-heap segment, the largest value the
+	 *                      off-heap tier keeps
+	 * @param ttlMillis     Time an entry is valid after it was put
+	 * @param meterRegistry Registry of the meters
+	 */
+	public TieredCache(String name, long heapMaxBytes, long offHeapBytes, int segmentBytes, long ttlMillis,
+			MeterRegistry meterRegistry) {
+		this.ttlNanos = ttlMillis * 1_000_000;
+		this.heapMaxBytes = heapMaxBytes;
+		this.segmentBytes = segmentBytes;
+		this.segments = new ByteBuffer[(int) (offHeapBytes / segmentBytes)];
+		for (int i = 0; i < segments.length; i++) {
+			segmentKeys.add(new ArrayList<>());
+		}
+
+		heapHits = lookupCounter(meterRegistry, name, HEAP, "hit");
+		heapMisses = lookupCounter(meterRegistry, name, HEAP, "miss");
+		offHeapHits = lookupCounter(meterRegistry, name, OFF_HEAP, "hit");
+		offHeapMisses = lookupCounter(meterRegistry, name, OFF_HEAP, "miss");
+		heapEvictions = evictionCounter(meterRegistry, name, HEAP);
+		offHeapEvictions = evictionCounter(meterRegistry, name, OFF_HEAP);
+
+		registerGauges(meterRegistry, name, HEAP, TieredCache::heapBytes, TieredCache::heapEntries, heapHits,
+				heapMisses);
+		registerGauges(meterRegistry, name, OFF_HEAP, TieredCache::offHeapBytes, TieredCache::offHeapEntries,
+				offHeapHits, offHeapMisses);
+	}
+
+	/**
+	 * @return the uncompressed value or null if it is absent or expired
+	 */
+	public byte[] get(String key) {
+		byte[] compressed;
+		synchronized (this) {
+			compressed = getCompressed(key);
+		}
+		return compressed != null ? inflate(compressed) : null;
+	}
+
+	public void put(String key, byte[] value) {
+		byte[] compressed = deflate(value);
+		synchronized (this) {
+			removeOffHeap(key);
+			putHeap(key, new HeapEntry(compressed, System.nanoTime()));
+		}
+	}
+
+	public synchronized void remove(String key) {
+		removeHeap(key);
+		removeOffHeap(key);
+	}
+
+	public synchronized void clear() {
+		heap.clear();
+		heapBytes = 0;
+		offHeap.clear();
+		offHeapBytes = 0;
+		for (List<String> keys : segmentKeys) {
+			keys.clear();
+		}
+		segment = 0;
+		position = 0;
+	}
+
+	public synchronized long heapBytes() {
+		return heapBytes;
+	}
+
+	public synchronized int heapEntries() {
+		return heap.size();
+	}
+
+	public synchronized long offHeapBytes() {
+		return offHeapBytes;
+	}
+
+	public synchronized int offHeapEntries() {
+		return offHeap.size();
+	}
+
+	private byte[] getCompressed(String key) {
+		long now = System.nanoTime();
+		HeapEntry heapEntry = heap.get(key);
+		if (heapEntry != null) {
+			if (now - heapEntry.writtenNanos <= ttlNanos) {
+				heapHits.increment();
+				return heapEntry.data;
+			}
+			removeHeap(key);
+		}
+		heapMisses.increment();
+
+		OffHeapEntry offHeapEntry = offHeap.get(key);
+		if (offHeapEntry == null || now - offHeapEntry.writtenNanos > ttlNanos) {
+			if (offHeapEntry != null)
+				removeOffHeap(key);
+			offHeapMisses.increment();
+			return null;
+		}
+		offHeapHits.increment();
+		byte[] data = new byte[offHeapEntry.length];
+		ByteBuffer view = segments[offHeapEntry.segment].duplicate();
+		view.position(offHeapEntry.offset);
+		view.get(data);
+		putHeap(key, new HeapEntry(data, offHeapEntry.writtenNanos));
+		return data;
+	}
+
+	/**
+	 * Puts the entry on the heap and demotes the least recently used entries
+	 * until the heap tier is within its budget.
+	 */
+	private void putHeap(String key, HeapEntry entry) {
+		if (entry.data.length > heapMaxBytes) {
+			removeHeap(key);
+			demote(key, entry);
+			return;
+		}
+		HeapEntry previous = heap.put(key, entry);
+		if (previous != null)
+			heapBytes -= previous.data.length;
+		heapBytes += entry.data.length;
+
+		Iterator<Map.Entry<String, HeapEntry>> eldest = heap.entrySet().iterator();
+		while (heapBytes > heapMaxBytes) {
+			Map.Entry<String, HeapEntry> evicted = eldest.next();
+			eldest.remove();
+			heapBytes -= evicted.getValue().data.length;
+			heapEvictions.increment();
+			demote(evicted.getKey(), evicted.getValue());
+		}
+	}
+
+	private void removeHeap(String key) {
+		HeapEntry removed = heap.remove(key);
+		if (removed != null)
+			heapBytes -= removed.data.length;
+	}
+
+	/**
+	 * Appends the entry to the off-heap log unless it is expired or the log
+	 * already holds it, as it does for promoted entries.
+	 */
+	private void demote(String key, HeapEntry entry) {
+		if (segments.length == 0 || entry.data.length > segmentBytes
+				|| System.nanoTime() - entry.writtenNanos > ttlNanos)
+			return;
+		OffHeapEntry existing = offHeap.get(key);
+		if (existing != null && existing.writtenNanos == entry.writtenNanos)
+			return;
+
+		if (position + entry.data.length > segmentBytes)
+			nextSegment();
+		if (segments[segment] == null)
+			segments[segment] = ByteBuffer.allocateDirect(segmentBytes);
+		ByteBuffer view = segments[segment].duplicate();
+		view.position(position);
+		view.put(entry.data);
+
+		removeOffHeap(key);
+		offHeap.put(key, new OffHeapEntry(segment, position, entry.data.length, entry.writtenNanos));
+		segmentKeys.get(segment).add(key);
+		offHeapBytes += entry.data.length;
+		position += entry.data.length;
+	}
+
+	/**
+	 * Moves on to the oldest segment and drops the entries still stored in it.
+	 */
+	private void nextSegment() {
+		segment = (segment + 1) % segments.length;
+		position = 0;
+		List<String> keys = segmentKeys.get(segment);
+		for (String key : keys) {
+			OffHeapEntry entry = offHeap.get(key);
+			if (entry != null && entry.segment == segment) {
+				offHeap.remove(key);
+				offHeapBytes -= entry.length;
+				offHeapEvictions.increment();
+			}
+		}
+		keys.clear();
+	}
+
+	private void removeOffHeap(String key) {
+		OffHeapEntry removed = offHeap.remove(key);
+		if (removed != null)
+			offHeapBytes -= removed.length;
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+			try (DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater)) {
+				deflating.write(data);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data) {
+		Inflater inflater = new Inflater();
+		try (InflaterInputStream inflating = new InflaterInputStream(new ByteArrayInputStream(data), inflater)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = inflating.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static Counter lookupCounter(MeterRegistry meterRegistry, String name, String tier, String result) {
+		return Counter.builder(LOOKUP_COUNTER)
+				.description("Lookups per cache tier")
+				.tag("cache", name)
+				.tag("tier", tier)
+				.tag("result", result)
+				.register(meterRegistry);
+	}
+
+	private static Counter evictionCounter(MeterRegistry meterRegistry, String name, String tier) {
+		return Counter.builder(EVICTION_COUNTER)
+				.description("Entries evicted per cache tier, heap evictions move to the off-heap tier")
+				.tag("cache", name)
+				.tag("tier", tier)
+				.register(meterRegistry);
+	}
+
+	private void registerGauges(MeterRegistry meterRegistry, String name, String tier,
+			ToDoubleFunction<TieredCache> bytes,
+			ToDoubleFunction<TieredCache> entries, Counter hits, Counter misses) {
+		Gauge.builder(BYTES_GAUGE, this, bytes)
+				.description("Compressed bytes held per cache tier")
+				.tag("cache", name)
+				.tag("tier", tier)
+				.register(meterRegistry);
+		Gauge.builder(ENTRIES_GAUGE, this, entries)
+				.description("Entries held per cache tier")
+				.tag("cache", name)
+				.tag("tier", tier)
+				.register(meterRegistry);
+		Gauge.builder(HIT_RATIO_GAUGE, this, cache -> {
+			double lookups = hits.count() + misses.count();
+			return lookups > 0 ? hits.count() / lookups : 0;
+		})
+				.description("Share of lookups per cache tier which were hits, since start")
+				.tag("cache", name)
+				.tag("tier", tier)
+				.register(meterRegistry);
+	}
+
+	private static class HeapEntry {
+
+		private final byte[] data;
+		private final long writtenNanos;
+
+		HeapEntry(byte[] data, long writtenNanos) {
+			this.data = data;
+			this.writtenNanos = writtenNanos;
+		}
+	}
+
+	/**
+	 * Location of an entry in the off-heap log.
+	 */
+	private static class OffHeapEntry {
+
+		private final int segment;
+		private final int offset;
+		private final int length;
+		private final long writtenNanos;
+
+		OffHeapEntry(int segment, int offset, int length, long writtenNanos) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.writtenNanos = writtenNanos;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package io.arcadia.fhir.client;
 
+import java.net.URI;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,7 +11,11 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import io.arcadia.fhir.query.ArcadiaSearchQuery;
+import io.arcadia.fhir.resilience.Downstream;
+import io.arcadia.fhir.resilience.DownstreamGuard;
 import io.arcadia.fhir.util.AppConstants;
 import reactor.core.publisher.Mono;
 
@@ -27,6 +33,15 @@ public class ArcadiaClient {
 	@Autowired
 	WebClient webClient;
 
+	@Autowired
+	DownstreamGuard downstreamGuard;
+
+	@Autowired
+	ArcadiaTokenManager tokenManager;
+
+	@Autowired
+	ExchangeLog exchangeLog;
+
 	@Value("${client.arcadia.baseUrl}")
 	private String clientUrl;
 
@@ -36,9 +51,6 @@ public class ArcadiaClient {
 	@Value("${client.arcadia.crudServicePort}")
 	private String crudPort;
 
-	@Value("${client.arcadia.auth.token}")
-	private String authToken;
-
 	/**
 	 * Responsible for executing GraphQl API.
 	 * 
@@ -47,13 +59,14 @@ public class ArcadiaClient {
 	 */
 	public Map executeGraphQlApi(Map graphQlQuery) {
 		try {
-			Map response = webClient.post()
+			Map response = exchangeLog.exchange(Downstream.ARCADIA_CRUD, graphQlQuery, Map.class,
+					() -> authorized(token -> downstreamGuard.callIdempotent(Downstream.ARCADIA_CRUD,
+					() -> webClient.post()
 					.uri(clientUrl + ":" + crudPort + "/graphql")
-					.header(HttpHeaders.AUTHORIZATION, getAuthToken())
+					.header(HttpHeaders.AUTHORIZATION, AppConstants.TOKEN_PREFIX + token)
 					.body(Mono.just(graphQlQuery), Map.class)
 					.retrieve()
-					.bodyToMono(Map.class)
-					.block();
+					.bodyToMono(Map.class))));
 			return response;
 		} catch (Exception e) {
 			logger.error("Exception occured while executing GraphQl API: "+e.getMessage());
@@ -69,12 +82,38 @@ public class ArcadiaClient {
 	 */
 	public Map executeSerchQuery(String searchQuery) {
 		try {
-			Map response = webClient.get()
+			Map response = exchangeLog.exchange(Downstream.ARCADIA_SEARCH, "/search/person?" + searchQuery,
+					Map.class,
+					() -> authorized(token -> downstreamGuard.callIdempotent(Downstream.ARCADIA_SEARCH,
+					() -> webClient.get()
 					.uri(clientUrl + ":" + searchPort + "/search/person?" + searchQuery)
-					.header(HttpHeaders.AUTHORIZATION, getAuthToken())
+					.header(HttpHeaders.AUTHORIZATION, AppConstants.TOKEN_PREFIX + token)
 					.retrieve()
-					.bodyToMono(Map.class)
-					.block();
+					.bodyToMono(Map.class))));
+			return response;
+		} catch (Exception e) {
+			logger.error("Exception occured while executing Search API: "+e.getMessage());
+			throw e;
+		}
+	}
+
+	/**
+	 * Executes one page of a typed Search Person query. The query string is
+	 * already encoded and sent as is.
+	 * 
+	 * @param searchQuery Search Query for the search person API
+	 * @return Person data of the page
+	 */
+	public Map executeSerchQuery(ArcadiaSearchQuery searchQuery) {
+		String path = "/search/person?" + searchQuery.toQueryString();
+		try {
+			Map response = exchangeLog.exchange(Downstream.ARCADIA_SEARCH, path, Map.class,
+					() -> authorized(token -> downstreamGuard.callIdempotent(Downstream.ARCADIA_SEARCH,
+					() -> webClient.get()
+					.uri(URI.create(clientUrl + ":" + searchPort + path))
+					.header(HttpHeaders.AUTHORIZATION, AppConstants.TOKEN_PREFIX + token)
+					.retrieve()
+					.bodyToMono(Map.class))));
 			return response;
 		} catch (Exception e) {
 			logger.error("Exception occured while executing Search API: "+e.getMessage());
@@ -90,12 +129,14 @@ public class ArcadiaClient {
 	 */
 	public Map getResource(String url) {
 		try {
-			Map response = webClient.get()
+			// recorded without scheme, host and port so a log can be replayed against other hosts
+			Map response = exchangeLog.exchange(Downstream.ARCADIA_CRUD, url.replaceFirst("^\\w+://[^/]+", ""),
+					Map.class, () -> authorized(token -> downstreamGuard.callIdempotent(Downstream.ARCADIA_CRUD,
+					() -> webClient.get()
 					.uri(url)
-					.header(HttpHeaders.AUTHORIZATION, getAuthToken())
+					.header(HttpHeaders.AUTHORIZATION, AppConstants.TOKEN_PREFIX + token)
 					.retrieve()
-					.bodyToMono(Map.class)
-					.block();
+					.bodyToMono(Map.class))));
 			return response;
 		} catch (Exception e) {
 			logger.error("Exception occured while executing Get API: "+e.getMessage());
@@ -103,8 +144,28 @@ public class ArcadiaClient {
 		}
 	}
 
-	// Need to implement logic to get auth token in real time
-	private String getAuthToken() {
-		return AppConstants.TOKEN_PREFIX + authToken;
+	/**
+	 * Fetches an object from the Arcadia CRUD service
+	 * 
+	 * @param path Path relative to the CRUD service, e.g.
+	 *             {@code objects/problem/42}
+	 * @return the object
+	 */
+	public Map getObject(String path) {
+		return getResource(clientUrl + ":" + crudPort + "/" + path);
+	}
+
+	/**
+	 * Executes a call with the current access token. If Arcadia rejects the token
+	 * the call is repeated once with a refreshed token.
+	 */
+	private <T> T authorized(Function<String, T> call) {
+		String token = tokenManager.getToken();
+		try {
+			return call.apply(token);
+		} catch (WebClientResponseException.Unauthorized e) {
+			logger.warn("Arcadia rejected the access token, retrying with a refreshed token");
+			return call.apply(tokenManager.refreshAfterRejection(token));
+		}
 	}
 }
@@ -0,0 +1,238 @@
+package io.arcadia.fhir.client;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.arcadia.fhir.exception.DownstreamUnavailableException;
+
+/**
+ * <p>
+ * Provides the access token used to call Arcadia APIs.
+ * </p>
+ * 
+ * <p>
+ * When {@code client.arcadia.auth.tokenUrl} is configured, tokens are obtained
+ * from that endpoint with the OAuth client credentials grant. The token is
+ * cached and refreshed on a background thread {@code refreshBeforeExpirySeconds}
+ * before it expires, or halfway through shorter lifetimes, so requests never
+ * wait for a token. Concurrent refreshes
+ * are single-flighted: callers which need a token while a refresh is running
+ * wait for that refresh instead of starting another one. Without a token
+ * endpoint the static {@code client.arcadia.auth.token} is used.
+ * </p>
+ */
+@Component
+public class ArcadiaTokenManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArcadiaTokenManager.class);
+
+	@Autowired
+	WebClient webClient;
+
+	@Autowired
+	ExchangeLog exchangeLog;
+
+	@Value("${client.arcadia.auth.token:}")
+	private String staticToken;
+
+	@Value("${client.arcadia.auth.tokenUrl:}")
+	private String tokenUrl;
+
+	@Value("${client.arcadia.auth.clientId:}")
+	private String clientId;
+
+	@Value("${client.arcadia.auth.clientSecret:}")
+	private String clientSecret;
+
+	@Value("${client.arcadia.auth.audience:}")
+	private String audience;
+
+	@Value("${client.arcadia.auth.scope:}")
+	private String scope;
+
+	@Value("${client.arcadia.auth.refreshBeforeExpirySeconds:60}")
+	private long refreshBeforeExpirySeconds;
+
+	@Value("${client.arcadia.auth.retryIntervalSeconds:5}")
+	private long retryIntervalSeconds;
+
+	@Value("${client.arcadia.auth.timeoutMs:10000}")
+	private long timeoutMs;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "arcadia-token-refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile Token current;
+	private CompletableFuture<Token> inFlight;
+	private ScheduledFuture<?> nextRefresh;
+
+	@PostConstruct
+	void init() {
+		// replayed Arcadia calls do not need a token
+		if (!isOAuthEnabled() || exchangeLog.isReplaying())
+			return;
+		try {
+			refresh().join();
+		} catch (Exception e) {
+			logger.error("Could not obtain initial Arcadia access token: {}", e.getMessage());
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * @return a valid access token, without the {@code Bearer} prefix
+	 */
+	public String getToken() {
+		if (!isOAuthEnabled())
+			return staticToken;
+		Token token = current;
+		if (token != null && !token.isExpired())
+			return token.value;
+		return await(refresh());
+	}
+
+	/**
+	 * Called when Arcadia rejected a token. Refreshes the token unless another
+	 * caller already did.
+	 * 
+	 * @param rejectedToken Token which was rejected
+	 * @return a new access token
+	 */
+	public String refreshAfterRejection(String rejectedToken) {
+		if (!isOAuthEnabled())
+			return staticToken;
+		Token token = current;
+		if (token != null && !token.value.equals(rejectedToken) && !token.isExpired())
+			return token.value;
+		return await(refresh());
+	}
+
+	private boolean isOAuthEnabled() {
+		return tokenUrl != null && !tokenUrl.isEmpty();
+	}
+
+	private String await(CompletableFuture<Token> refresh) {
+		try {
+			return refresh.get(timeoutMs, TimeUnit.MILLISECONDS).value;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DownstreamUnavailableException("Interrupted while obtaining Arcadia access token", e);
+		} catch (Exception e) {
+			throw new DownstreamUnavailableException("Could not obtain Arcadia access token: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the running refresh or a new one
+	 */
+	private synchronized CompletableFuture<Token> refresh() {
+		if (inFlight != null)
+			return inFlight;
+		final CompletableFuture<Token> refresh = new CompletableFuture<>();
+		inFlight = refresh;
+		scheduler.execute(() -> {
+			try {
+				Token token = requestToken();
+				current = token;
+				refresh.complete(token);
+				long delay = refreshDelaySeconds(token.expiresInSeconds);
+				scheduleRefresh(delay);
+				logger.debug("Obtained Arcadia access token, next refresh in {}s", delay);
+			} catch (Exception e) {
+				logger.error("Arcadia token refresh failed, retrying in {}s: {}", retryIntervalSeconds,
+						e.getMessage());
+				refresh.completeExceptionally(e);
+				scheduleRefresh(retryIntervalSeconds);
+			} finally {
+				synchronized (this) {
+					inFlight = null;
+				}
+			}
+		});
+		return refresh;
+	}
+
+	/**
+	 * @return seconds until the token is refreshed, at the latest halfway
+	 *         through its lifetime
+	 */
+	long refreshDelaySeconds(long expiresInSeconds) {
+		return Math.max(1, expiresInSeconds - Math.min(refreshBeforeExpirySeconds, expiresInSeconds / 2));
+	}
+
+	private synchronized void scheduleRefresh(long delaySeconds) {
+		if (nextRefresh != null)
+			nextRefresh.cancel(false);
+		nextRefresh = scheduler.schedule(() -> {
+			refresh();
+		}, delaySeconds, TimeUnit.SECONDS);
+	}
+
+	private Token requestToken() {
+		MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+		form.add("grant_type", "client_credentials");
+		form.add("client_id", clientId);
+		form.add("client_secret", clientSecret);
+		if (!audience.isEmpty())
+			form.add("audience", audience);
+		if (!scope.isEmpty())
+			form.add("scope", scope);
+
+		Map response = webClient.post()
+				.uri(tokenUrl)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.body(BodyInserters.fromFormData(form))
+				.retrieve()
+				.bodyToMono(Map.class)
+				.block(Duration.ofMillis(timeoutMs));
+		if (response == null || response.get("access_token") == null)
+			throw new IllegalStateException("Token endpoint returned no access_token");
+		Object expiresIn = response.get("expires_in");
+		long seconds = expiresIn instanceof Number ? ((Number) expiresIn).longValue()
+				: expiresIn != null ? Long.parseLong(expiresIn.toString()) : 3600;
+		return new Token((String) response.get("access_token"), seconds);
+	}
+
+	private static class Token {
+
+		private final String value;
+		private final long expiresInSeconds;
+		private final long expiresAtMillis;
+
+		Token(String value, long expiresInSeconds) {
+			this.value = value;
+			this.expiresInSeconds = expiresInSeconds;
+			this.expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresInSeconds);
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expiresAtMillis;
+		}
+	}
+}
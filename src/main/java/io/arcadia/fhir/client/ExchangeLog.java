@@ -0,0 +1,289 @@
+package io.arcadia.fhir.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.arcadia.fhir.exception.DownstreamUnavailableException;
+import io.arcadia.fhir.resilience.Downstream;
+
+/**
+ * <p>
+ * Records the exchanges with the downstream services in {@code app.mode=record}
+ * and answers them from the recording in {@code app.mode=replay}. In other
+ * modes calls pass through untouched.
+ * </p>
+ *
+ * <p>
+ * The log is gzipped NDJSON, one exchange per line with the downstream, a
+ * SHA-256 key of the canonical request, the status, the response body as
+ * received and the latency. Only a short prefix of the request is kept for
+ * troubleshooting. Lines are flushed as they are written, so the log of a
+ * killed process can be read up to its last exchange.
+ * </p>
+ *
+ * <p>
+ * On replay, exchanges with the same key are answered in recorded order, the
+ * last one is repeated once they are used up. Error responses are thrown as
+ * the {@link WebClientResponseException} the client saw while recording, and
+ * with {@code exchange.replay.latency=true} every answer is delayed by the
+ * recorded latency. A request that was never recorded fails with
+ * {@link DownstreamUnavailableException}.
+ * </p>
+ */
+@Component
+public class ExchangeLog {
+
+	private static final Logger logger = LoggerFactory.getLogger(ExchangeLog.class);
+
+	public static final String MODE_RECORD = "record";
+	public static final String MODE_REPLAY = "replay";
+
+	private static final int SUMMARY_LENGTH = 200;
+
+	@Value("${app.mode:demo}")
+	private String mode;
+
+	@Value("${exchange.log.file:arcadia-exchanges.ndjson.gz}")
+	private String file;
+
+	@Value("${exchange.replay.latency:false}")
+	private boolean replayLatency;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ObjectMapper canonicalMapper = new ObjectMapper()
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+	private final Map<String, Deque<Exchange>> recorded = new ConcurrentHashMap<>();
+	private Writer writer;
+
+	@PostConstruct
+	void init() throws IOException {
+		Path path = Paths.get(file);
+		if (isRecording()) {
+			if (path.getParent() != null)
+				Files.createDirectories(path.getParent());
+			writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(path), true),
+					StandardCharsets.UTF_8));
+			logger.info("Recording downstream exchanges to {}", path.toAbsolutePath());
+		} else if (isReplaying()) {
+			load(path);
+		}
+	}
+
+	@PreDestroy
+	synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	public boolean isRecording() {
+		return MODE_RECORD.equals(mode);
+	}
+
+	public boolean isReplaying() {
+		return MODE_REPLAY.equals(mode);
+	}
+
+	/**
+	 * @return number of distinct requests available for replay
+	 */
+	public int size() {
+		return recorded.size();
+	}
+
+	/**
+	 * Executes, records or replays one call to a downstream service.
+	 *
+	 * @param downstream   Called service
+	 * @param request      Everything that identifies the request, e.g. URL and
+	 *                     body
+	 * @param responseType {@code Map} or {@code String}
+	 * @param call         Performs the call
+	 * @return the response
+	 */
+	public <T> T exchange(Downstream downstream, Object request, Class<T> responseType, Supplier<T> call) {
+		if (!isRecording() && !isReplaying())
+			return call.get();
+
+		String requestString = canonical(request);
+		String key = downstream.id() + ":" + hash(requestString);
+		if (isReplaying())
+			return replay(downstream, key, requestString, responseType);
+
+		long start = System.nanoTime();
+		try {
+			T response = call.get();
+			append(downstream, key, requestString, HttpStatus.OK.value(),
+					response instanceof String ? (String) response : serialize(response), System.nanoTime() - start);
+			return response;
+		} catch (WebClientResponseException e) {
+			append(downstream, key, requestString, e.getRawStatusCode(), e.getResponseBodyAsString(),
+					System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	private <T> T replay(Downstream downstream, String key, String request, Class<T> responseType) {
+		Deque<Exchange> exchanges = recorded.get(key);
+		Exchange exchange;
+		if (exchanges == null) {
+			exchange = null;
+		} else {
+			synchronized (exchanges) {
+				exchange = exchanges.size() > 1 ? exchanges.poll() : exchanges.peek();
+			}
+		}
+		if (exchange == null)
+			throw new DownstreamUnavailableException(
+					"No recorded " + downstream.id() + " exchange for request: " + summary(request), null);
+
+		if (replayLatency && exchange.nanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(exchange.nanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (exchange.status >= 400) {
+			HttpStatus status = HttpStatus.resolve(exchange.status);
+			throw WebClientResponseException.create(exchange.status,
+					status != null ? status.getReasonPhrase() : "", HttpHeaders.EMPTY,
+					exchange.body != null ? exchange.body.getBytes(StandardCharsets.UTF_8) : new byte[0],
+					StandardCharsets.UTF_8);
+		}
+		if (responseType == String.class || exchange.body == null)
+			return responseType.cast(exchange.body);
+		try {
+			return mapper.readValue(exchange.body, responseType);
+		} catch (IOException e) {
+			throw new DownstreamUnavailableException("Recorded " + downstream.id() + " response is corrupt", e);
+		}
+	}
+
+	private synchronized void append(Downstream downstream, String key, String request, int status, String body,
+			long nanos) {
+		if (writer == null)
+			return;
+		Map<String, Object> line = new LinkedHashMap<>();
+		line.put("downstream", downstream.id());
+		line.put("key", key);
+		line.put("request", summary(request));
+		line.put("status", status);
+		line.put("nanos", nanos);
+		line.put("body", body);
+		try {
+			writer.write(mapper.writeValueAsString(line));
+			writer.write('\n');
+			writer.flush();
+		} catch (IOException e) {
+			logger.error("Could not record " + downstream.id() + " exchange", e);
+		}
+	}
+
+	private void load(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			logger.warn("Exchange log {} does not exist, every downstream call will fail", path.toAbsolutePath());
+			return;
+		}
+		int exchanges = 0;
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(Files.newInputStream(path)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				Map<?, ?> values = mapper.readValue(line, Map.class);
+				Exchange exchange = new Exchange(((Number) values.get("status")).intValue(),
+						((Number) values.get("nanos")).longValue(), (String) values.get("body"));
+				recorded.computeIfAbsent((String) values.get("key"), k -> new ArrayDeque<>()).add(exchange);
+				exchanges++;
+			}
+		} catch (EOFException e) {
+			logger.warn("Exchange log {} is truncated, replaying the {} complete exchanges", path, exchanges);
+		}
+		logger.info("Replaying {} exchanges for {} distinct requests from {}", exchanges, recorded.size(),
+				path.toAbsolutePath());
+	}
+
+	private String canonical(Object value) {
+		if (value instanceof String)
+			return (String) value;
+		try {
+			return canonicalMapper.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Could not serialize downstream exchange", e);
+		}
+	}
+
+	private String serialize(Object response) {
+		try {
+			return mapper.writeValueAsString(response);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Could not serialize downstream exchange", e);
+		}
+	}
+
+	private static String hash(String request) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return Base64.getUrlEncoder().withoutPadding()
+					.encodeToString(digest.digest(request.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String summary(String request) {
+		return request.length() <= SUMMARY_LENGTH ? request : request.substring(0, SUMMARY_LENGTH) + "...";
+	}
+
+	private static class Exchange {
+		private final int status;
+		private final long nanos;
+		private final String body;
+
+		Exchange(int status, long nanos, String body) {
+			this.status = status;
+			this.nanos = nanos;
+			this.body = body;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package io.arcadia.fhir.client;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -10,6 +11,8 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.arcadia.fhir.resilience.Downstream;
+import io.arcadia.fhir.resilience.DownstreamGuard;
 import io.arcadia.fhir.util.AppConstants;
 import reactor.core.publisher.Mono;
 
@@ -27,6 +30,12 @@ public class TransformClient {
 	
 	@Autowired
 	WebClient webClient;
+
+	@Autowired
+	DownstreamGuard downstreamGuard;
+
+	@Autowired
+	ExchangeLog exchangeLog;
 	
 	@Value("${service.trasformation.url}")
 	private String url;
@@ -40,14 +49,15 @@ public class TransformClient {
 	 */
 	public String getFhirResource(String structureMap, Map arcadiaInput) {
 		try {
-			String response = webClient.post()
+			String response = exchangeLog.exchange(Downstream.TRANSFORMATION,
+					Arrays.asList(structureMap, arcadiaInput), String.class,
+					() -> downstreamGuard.callIdempotent(Downstream.TRANSFORMATION, () -> webClient.post()
 					.uri(url + structureMap)
 					.header(HttpHeaders.CONTENT_TYPE, AppConstants.APPLICATION_FHIR_JSON_TYPE)
 					.header(HttpHeaders.ACCEPT, AppConstants.APPLICATION_FHIR_JSON_TYPE)
 			        .body(Mono.just(arcadiaInput), Map.class)
 					.retrieve()
-					.bodyToMono(String.class)
-					.block();
+					.bodyToMono(String.class)));
 					
 			return response;
 		}catch(Exception e) {
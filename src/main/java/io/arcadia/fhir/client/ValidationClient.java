@@ -3,6 +3,8 @@
  */
 package io.arcadia.fhir.client;
 
+import java.util.Arrays;
+
 import org.hl7.fhir.r4.model.OperationOutcome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +14,8 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.arcadia.fhir.resilience.Downstream;
+import io.arcadia.fhir.resilience.DownstreamGuard;
 import io.arcadia.fhir.util.AppConstants;
 import reactor.core.publisher.Mono;
 
@@ -29,6 +33,12 @@ public class ValidationClient {
 
 	@Autowired
 	WebClient webClient;
+
+	@Autowired
+	DownstreamGuard downstreamGuard;
+
+	@Autowired
+	ExchangeLog exchangeLog;
 	
 	@Value("${service.validation.url}")
 	private String url;
@@ -44,14 +54,15 @@ public class ValidationClient {
 	public String validateFhirResource(String resourceProfileUrl, String fhirResourceString) {
 		
 		try {
-			String response = webClient.post()
+			String response = exchangeLog.exchange(Downstream.VALIDATION,
+					Arrays.asList(resourceProfileUrl, fhirResourceString), String.class,
+					() -> downstreamGuard.callIdempotent(Downstream.VALIDATION, () -> webClient.post()
 					.uri(url + resourceProfileUrl)
 					.header(HttpHeaders.CONTENT_TYPE, AppConstants.APPLICATION_FHIR_JSON_TYPE)
 					.header(HttpHeaders.ACCEPT, AppConstants.APPLICATION_FHIR_JSON_TYPE)
 			        .body(Mono.just(fhirResourceString), String.class)
 					.retrieve()
-					.bodyToMono(String.class)
-					.block();
+					.bodyToMono(String.class)));
 					
 			return response;
 		}catch(Exception e) {
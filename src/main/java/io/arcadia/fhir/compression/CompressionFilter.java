@@ -0,0 +1,189 @@
+package io.arcadia.fhir.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <p>
+ * Compresses FHIR responses with gzip or deflate, negotiated by the
+ * {@code Accept-Encoding} request header. Responses smaller than the threshold
+ * are sent uncompressed, as compressing them costs more CPU than it saves.
+ * </p>
+ * 
+ * <p>
+ * The {@code Accept-Encoding} header is hidden from HAPI so the threshold and
+ * the metrics apply to every response. Uncompressed and sent bytes are recorded
+ * as {@code fhir.response.uncompressed.bytes} and
+ * {@code fhir.response.compressed.bytes}, both tagged with the
+ * {@code encoding}.
+ * </p>
+ */
+public class CompressionFilter extends OncePerRequestFilter {
+
+	public static final String UNCOMPRESSED_SUMMARY = "fhir.response.uncompressed.bytes";
+
+	public static final String COMPRESSED_SUMMARY = "fhir.response.compressed.bytes";
+
+	static final String GZIP = "gzip";
+
+	static final String DEFLATE = "deflate";
+
+	static final String IDENTITY = "identity";
+
+	private final MeterRegistry meterRegistry;
+	private final int minBytes;
+
+	/**
+	 * @param meterRegistry Registry of the response size meters
+	 * @param minBytes      Smallest response which is compressed
+	 */
+	public CompressionFilter(MeterRegistry meterRegistry, int minBytes) {
+		this.meterRegistry = meterRegistry;
+		this.minBytes = minBytes;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		String encoding = negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+		ContentCachingResponseWrapper buffered = new ContentCachingResponseWrapper(response);
+		chain.doFilter(new AcceptEncodingHidingRequest(request), buffered);
+
+		response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		byte[] body = buffered.getContentAsByteArray();
+		if (IDENTITY.equals(encoding) || body.length < minBytes
+				|| buffered.getHeader(HttpHeaders.CONTENT_ENCODING) != null) {
+			record(IDENTITY, body.length, body.length);
+			buffered.copyBodyToResponse();
+			return;
+		}
+
+		byte[] compressed = compress(body, encoding);
+		record(encoding, body.length, compressed.length);
+		// Discard the buffered body, headers and status are kept
+		buffered.resetBuffer();
+		response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+		response.setContentLength(compressed.length);
+		response.getOutputStream().write(compressed);
+	}
+
+	/**
+	 * The encoding with the highest {@code q} value wins, gzip on a tie. An
+	 * explicit {@code gzip} or {@code deflate} overrides {@code *}.
+	 *
+	 * @return the preferred encoding the client accepts: gzip, deflate or identity
+	 */
+	static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return IDENTITY;
+		double gzip = -1;
+		double deflate = -1;
+		double any = 0;
+		for (String part : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+			String[] tokens = part.trim().split(";");
+			String coding = tokens[0].trim();
+			if (GZIP.equals(coding))
+				gzip = quality(tokens);
+			else if (DEFLATE.equals(coding))
+				deflate = quality(tokens);
+			else if ("*".equals(coding))
+				any = quality(tokens);
+		}
+		if (gzip < 0)
+			gzip = any;
+		if (deflate < 0)
+			deflate = any;
+		if (gzip <= 0 && deflate <= 0)
+			return IDENTITY;
+		return gzip >= deflate ? GZIP : DEFLATE;
+	}
+
+	/**
+	 * @return the {@code q} value, 1 if missing and 0 if malformed
+	 */
+	private static double quality(String[] tokens) {
+		for (int i = 1; i < tokens.length; i++) {
+			String parameter = tokens[i].trim();
+			if (parameter.startsWith("q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2));
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	private static byte[] compress(byte[] body, String encoding) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+		try (OutputStream out = GZIP.equals(encoding) ? new GZIPOutputStream(bytes, 8192)
+				: new DeflaterOutputStream(bytes)) {
+			out.write(body);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void record(String encoding, int uncompressed, int compressed) {
+		DistributionSummary.builder(UNCOMPRESSED_SUMMARY)
+				.description("Size of FHIR responses before compression")
+				.baseUnit("bytes")
+				.tag("encoding", encoding)
+				.register(meterRegistry)
+				.record(uncompressed);
+		DistributionSummary.builder(COMPRESSED_SUMMARY)
+				.description("Size of FHIR responses as sent")
+				.baseUnit("bytes")
+				.tag("encoding", encoding)
+				.register(meterRegistry)
+				.record(compressed);
+	}
+
+	/**
+	 * Hides {@code Accept-Encoding} so HAPI always writes an uncompressed body.
+	 */
+	private static class AcceptEncodingHidingRequest extends HttpServletRequestWrapper {
+
+		AcceptEncodingHidingRequest(HttpServletRequest request) {
+			super(request);
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(name) ? null : super.getHeader(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			return HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(name) ? Collections.emptyEnumeration()
+					: super.getHeaders(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaderNames() {
+			List<String> names = Collections.list(super.getHeaderNames());
+			names.removeIf(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase);
+			return Collections.enumeration(names);
+		}
+	}
+}
@@ -27,4 +27,18 @@ public interface EndPointResolver {
 	 */
 	Map getArcadiaResources(ResourceType type, SearchParameterMap inputParams);
 
+	/**
+	 * Fetches a single Arcadia entity, used to serve reads by id.
+	 * 
+	 * @param type                FHIR {@link ResourceType} the entity is read for
+	 * @param arcadiaResourceName Arcadia entity type
+	 * @param idField             Field holding the key of the entity
+	 * @param entityKey           Key of the entity
+	 * @param personId            Arcadia person the entity belongs to, with or
+	 *                            without prefix, null if unknown
+	 * @return the entity or null if it does not exist
+	 */
+	Map getArcadiaEntity(ResourceType type, String arcadiaResourceName, String idField, String entityKey,
+			String personId);
+
 }
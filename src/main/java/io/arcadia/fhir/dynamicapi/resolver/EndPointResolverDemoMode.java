@@ -1,14 +1,26 @@
 package io.arcadia.fhir.dynamicapi.resolver;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.hl7.fhir.r4.model.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.param.ReferenceParam;
 import io.arcadia.fhir.query.SearchParameterMap;
-import io.arcadia.fhir.util.JSONUtil;
+import io.arcadia.fhir.util.AppConstants;
 
 /**
  * <p>
@@ -22,6 +34,12 @@ import io.arcadia.fhir.util.JSONUtil;
  * which can be used for demo purposes
  * </p>
  * 
+ * <p>
+ * The fixtures are loaded once into a {@link FixtureStore} indexed by resource
+ * type and person id, so searches are served from memory and only return the
+ * entities of the requested patients.
+ * </p>
+ * 
  * @author Pradeep Kumara K
  * 
  * @see EndPointResolver
@@ -33,17 +51,84 @@ public class EndPointResolverDemoMode implements EndPointResolver {
 	@Value("${arcadia.resourceFolderPath}")
 	private String resourcePath;
 
+	@Value("${arcadia.demo.watch:true}")
+	private boolean watch;
+
+	@Value("${arcadia.demo.mmapThresholdBytes:8388608}")
+	private long mmapThresholdBytes;
+
+	@Value("${arcadia.demo.personIdField:personId}")
+	private String personIdField;
+
+	private FixtureStore fixtureStore;
+
 	private static final Logger logger = LoggerFactory.getLogger(EndPointResolverDemoMode.class);
 
+	@PostConstruct
+	void init() {
+		fixtureStore = new FixtureStore(Paths.get(resourcePath), mmapThresholdBytes, personIdField);
+		fixtureStore.start(watch);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		fixtureStore.stop();
+	}
+
 	@Override
 	public Map getArcadiaResources(ResourceType type, SearchParameterMap inputParams) {
 
-		logger.info(
-				"Inside getArcadiaResources for ResourceType " + type.toString() + " and inputParams: " + inputParams);
+		logger.debug("Inside getArcadiaResources for ResourceType {} and inputParams: {}", type,
+				inputParams.keySet());
 
-		String inputJSON = JSONUtil.readJsonFromFile(resourcePath + "/" + type.getPath() + ".json");
-		Map arcadiaData = JSONUtil.jsonToMap(inputJSON);
+		return fixtureStore.get(type.getPath(), getPatientIds(inputParams.get(AppConstants.PATIENT)));
+	}
+
+	/**
+	 * Looks the entity up in the fixture of its person only. All persons are
+	 * scanned if the person is unknown.
+	 */
+	@Override
+	public Map getArcadiaEntity(ResourceType type, String arcadiaResourceName, String idField, String entityKey,
+			String personId) {
+
+		logger.debug("Inside getArcadiaEntity for ResourceType {}, {} and key {}", type, arcadiaResourceName,
+				entityKey);
+
+		Collection<String> patientIds = Collections.emptySet();
+		if (personId != null)
+			patientIds = Collections.singleton(personId.startsWith(AppConstants.PERSON_ID_PREFIX)
+					? personId.substring(AppConstants.PERSON_ID_PREFIX.length())
+					: personId);
+		Map arcadiaData = fixtureStore.get(type.getPath(), patientIds);
+		List<Map> entities = new ArrayList<>();
+		Object resourceObj = arcadiaData.get(arcadiaResourceName);
+		if (resourceObj instanceof Map)
+			entities.add((Map) resourceObj);
+		else if (resourceObj instanceof List)
+			entities.addAll((List<Map>) resourceObj);
+
+		for (Map entity : entities) {
+			if (entity.get(idField) != null && entityKey.equals(String.valueOf(entity.get(idField))))
+				return entity;
+		}
+		return null;
+	}
 
-		return arcadiaData;
+	/**
+	 * @return ids of all patients of the {@code patient} parameter, empty if it
+	 *         is missing
+	 */
+	private static Set<String> getPatientIds(List<List<? extends IQueryParameterType>> list) {
+		Set<String> patientIds = new LinkedHashSet<>();
+		if (list != null) {
+			for (List<? extends IQueryParameterType> values : list) {
+				for (IQueryParameterType param : values) {
+					if (param instanceof ReferenceParam && ((ReferenceParam) param).getIdPart() != null)
+						patientIds.add(((ReferenceParam) param).getIdPart());
+				}
+			}
+		}
+		return patientIds;
 	}
 }
@@ -2,9 +2,14 @@ package io.arcadia.fhir.dynamicapi.resolver;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
@@ -13,17 +18,27 @@ import org.hl7.fhir.r4.model.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import io.arcadia.fhir.batch.BatchScope;
 import io.arcadia.fhir.client.ArcadiaClient;
+import io.arcadia.fhir.exception.DownstreamUnavailableException;
 import io.arcadia.fhir.exception.EndPointFailureException;
+import io.arcadia.fhir.logging.PayloadLogger;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.arcadia.fhir.metrics.PipelineStage;
+import io.arcadia.fhir.metrics.RequestTrace;
+import io.arcadia.fhir.query.ArcadiaSearchQuery;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.util.AppConstants;
 import io.arcadia.fhir.util.ConfigUtils;
+import io.arcadia.fhir.util.TransformerUtils;
 
 /**
  * <p>
@@ -55,9 +70,20 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 
 	private static final Logger logger = LoggerFactory.getLogger(EndPointResolverLiveMode.class);
 
+	private static final String PERSON_ALIAS = "p";
+
 	@Autowired
 	ArcadiaClient arcadiaClient;
 
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Autowired
+	PayloadLogger payloadLogger;
+
+	@Value("${arcadia.graphql.batchSize:10}")
+	private int batchSize;
+
 	/**
 	 * This method figure out the target Arcadia API/APIs based on input parameters
 	 * and FHIR {@link ResourceType}, executes the APIs and return the response.
@@ -68,14 +94,16 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 	 */
 	@Override
 	public Map getArcadiaResources(ResourceType type, SearchParameterMap inputParams) {
-		logger.info(
-				"Inside getArcadiaResources for ResourceType " + type.toString() + " and inputParams: " + inputParams);
+		logger.debug("Inside getArcadiaResources for ResourceType {} and inputParams: {}", type,
+				inputParams.keySet());
 
-		String personId = null;
 		if (inputParams.containsKey(AppConstants.PATIENT)) {
-			String pateintId = getPatientId(inputParams.get(AppConstants.PATIENT));
-			personId = AppConstants.PERSON_ID_PREFIX + pateintId;
-			return getOneToManyMappingResources(type, personId);
+			List<String> patientIds = getPatientIds(inputParams.get(AppConstants.PATIENT));
+			Date since = inputParams.getLastUpdated() != null ? inputParams.getLastUpdated().getLowerBoundAsInstant()
+					: null;
+			if (patientIds.size() == 1)
+				return getOneToManyMappingResources(type, AppConstants.PERSON_ID_PREFIX + patientIds.get(0), since);
+			return getMultiPatientResources(type, patientIds, since);
 		} else {
 			throw new InvalidRequestException("Patient ID should be present in incoming API");
 		}
@@ -90,7 +118,7 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 	 * @return Person Data for the requested resource type
 	 */
 	public List<Map> getArcadiaResources(ResourceType type, String personId) {
-		logger.info("Inside getArcadiaResources for ResourceType " + type.toString() + " and personId: " + personId);
+		logger.debug("Inside getArcadiaResources for ResourceType {} and personId: {}", type, personId);
 
 		List<Map> arcadiaResources = new ArrayList<>();
 
@@ -116,7 +144,7 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 				.replace(AppConstants.ARCADIA_RESOURCE_PLACEHOLDER, resourceName);
 		graphQLQuery.put(AppConstants.QUERY, query);
 
-		Map arcadiaResponse = executeAPIandHandleErrors(graphQLQuery);
+		Map arcadiaResponse = executeAPIandHandleErrors(type, graphQLQuery);
 		
 		Object resourceObj = (arcadiaResponse.get(AppConstants.DATA) != null
 				&& ((Map) arcadiaResponse.get(AppConstants.DATA)).get(AppConstants.PERSON) != null)
@@ -129,7 +157,7 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 		} else if (resourceObj != null && resourceObj instanceof List) {
 			arcadiaResources.addAll((List<Map>) resourceObj);
 		}
-		logger.info("Returning Arcadia entities: " + arcadiaResources);
+		logger.debug("Returning {} Arcadia entities for ResourceType {}", arcadiaResources.size(), type);
 		return arcadiaResources;
 	}
 	
@@ -142,7 +170,24 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 	 * @return Person Data for the requested resource type
 	 */
 	public Map getOneToManyMappingResources(ResourceType type, String personId) {
-		logger.info("Inside getArcadiaResources for ResourceType " + type.toString() + " and personId: " + personId);
+		return getOneToManyMappingResources(type, personId, null);
+	}
+
+	/**
+	 * Variant of {@link #getOneToManyMappingResources(ResourceType, String)} for
+	 * incremental requests. If {@code apiInfo} has a {@code sinceQuerySyntax}, the
+	 * watermark is pushed into the GraphQL query as {@code <since>} so Arcadia
+	 * only returns changed entities. Otherwise the full query is sent and the
+	 * entities are filtered before transformation.
+	 * 
+	 * @param type     FHIR {@link ResourceType}
+	 * @param personId personId
+	 * @param since    Only entities changed after this instant are needed, may be
+	 *                 null
+	 * @return Person Data for the requested resource type
+	 */
+	public Map getOneToManyMappingResources(ResourceType type, String personId, Date since) {
+		logger.debug("Inside getArcadiaResources for ResourceType {} and personId: {}", type, personId);
 
 		Map arcadiaData = null;
 
@@ -159,39 +204,217 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 				.get(type.toString());
 
 		// Reading API related info
-		String querySyntax = (String) apiInfo.get(AppConstants.GRAPH_QUERY_SYNTAX);
+		String querySyntax = getQuerySyntax(apiInfo, since);
 
 		// Reading resource related info
 		String resourceNameString = (String) resourceInfo.get(AppConstants.ARCADIA_RESOURCE_NAME);
 
-		Map graphQLQuery = new HashMap<>();
+		// Within a batch, fetch the entities of all types searched for the patient at once
+		BatchScope batchScope = BatchScope.current();
+		String queriedNames = batchScope != null && since == null
+				? getPlannedResourceNames(resourceMapping, batchScope.plannedTypes(personId), type, resourceNameString)
+				: resourceNameString;
+
+		final Map graphQLQuery = new HashMap<>();
 		String query = querySyntax.replace(AppConstants.PERSON_ID_PLACEHOLDER, personId)
-				.replace(AppConstants.ARCADIA_RESOURCE_PLACEHOLDER, resourceNameString);
+				.replace(AppConstants.ARCADIA_RESOURCE_PLACEHOLDER, queriedNames);
 		graphQLQuery.put(AppConstants.QUERY, query);
 
-		Map arcadiaResponse = executeAPIandHandleErrors(graphQLQuery);
+		Map arcadiaResponse = batchScope != null
+				? batchScope.coalesce(query, () -> executeAPIandHandleErrors(type, graphQLQuery))
+				: executeAPIandHandleErrors(type, graphQLQuery);
 		
 		arcadiaData = (arcadiaResponse.get(AppConstants.DATA) != null
 				&& ((Map) arcadiaResponse.get(AppConstants.DATA)).get(AppConstants.PERSON) != null)
 						? (Map) ((Map) arcadiaResponse.get(AppConstants.DATA)).get(AppConstants.PERSON)
 						: (Map) new UnclassifiedServerFailureException(500, "Invalid Arcadia Response");
 
-		logger.info("Returning Arcadia entities: " + arcadiaData);
+		if (!queriedNames.equals(resourceNameString))
+			arcadiaData.keySet().retainAll(Arrays.asList(resourceNameString.trim().split("\\s+")));
+
+		logger.debug("Returning Arcadia entities for ResourceType {}", type);
 		return arcadiaData;
 	}
 
-	private Map executeAPIandHandleErrors(Map graphQLQuery) {
+	/**
+	 * Fetches the entities of several patients with one GraphQL request per
+	 * {@code arcadia.graphql.batchSize} patients. Each patient is one aliased
+	 * selection of the {@code querySyntax}, e.g.
+	 * {@code {p0: person(id: "...") {vitals} p1: person(id: "...") {vitals}}}.
+	 * The entities of all patients are merged per Arcadia entity type.
+	 * 
+	 * @param type       FHIR {@link ResourceType}
+	 * @param patientIds Patient ids without prefix
+	 * @param since      Only entities changed after this instant are needed, may
+	 *                   be null
+	 * @return Data of all patients for the requested resource type
+	 */
+	public Map getMultiPatientResources(ResourceType type, List<String> patientIds, Date since) {
+		logger.debug("Inside getMultiPatientResources for ResourceType {} and {} patients", type, patientIds.size());
+
+		Map<?, ?> resourceMapping = null;
+		try {
+			resourceMapping = ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE);
+		} catch (IOException e) {
+			logger.error("Exception happend while reading config file: " + AppConstants.RESOURCE_MAPPING_FILE);
+			throw new UnclassifiedServerFailureException(Constants.STATUS_HTTP_404_NOT_FOUND, e.getMessage());
+		}
+
+		Map<?, ?> apiInfo = ConfigUtils.valueMap(resourceMapping, AppConstants.API_INFO);
+		Map<?, ?> resourceInfo = ConfigUtils.valueMap(ConfigUtils.valueMap(resourceMapping, AppConstants.RESOURCES),
+				type.toString());
+		String resourceNameString = ConfigUtils.valueString(resourceInfo, AppConstants.ARCADIA_RESOURCE_NAME);
+
+		String querySyntax = getQuerySyntax(apiInfo, since).trim();
+		if (!querySyntax.startsWith("{") || !querySyntax.endsWith("}"))
+			throw new UnclassifiedServerFailureException(Constants.STATUS_HTTP_500_INTERNAL_ERROR,
+					"querySyntax can not be used for multiple patients: " + querySyntax);
+		String selection = querySyntax.substring(1, querySyntax.length() - 1).trim()
+				.replace(AppConstants.ARCADIA_RESOURCE_PLACEHOLDER, resourceNameString);
+
+		Map<String, List<Map>> arcadiaData = new LinkedHashMap<>();
+		for (int from = 0; from < patientIds.size(); from += batchSize) {
+			List<String> batch = patientIds.subList(from, Math.min(from + batchSize, patientIds.size()));
+			StringBuilder query = new StringBuilder("{");
+			for (int i = 0; i < batch.size(); i++) {
+				query.append(' ').append(PERSON_ALIAS).append(i).append(": ").append(selection
+						.replace(AppConstants.PERSON_ID_PLACEHOLDER, AppConstants.PERSON_ID_PREFIX + batch.get(i)));
+			}
+			query.append(" }");
+
+			Map graphQLQuery = new HashMap<>();
+			graphQLQuery.put(AppConstants.QUERY, query.toString());
+			Map arcadiaResponse = executeAPIandHandleErrors(type, graphQLQuery);
+			if (!(arcadiaResponse.get(AppConstants.DATA) instanceof Map))
+				throw new UnclassifiedServerFailureException(500, "Invalid Arcadia Response");
+
+			Map data = (Map) arcadiaResponse.get(AppConstants.DATA);
+			for (int i = 0; i < batch.size(); i++) {
+				Object person = data.get(PERSON_ALIAS + i);
+				if (person instanceof Map)
+					merge(arcadiaData, (Map<?, ?>) person);
+			}
+		}
+		logger.debug("Returning Arcadia entities of {} patients for ResourceType {}", patientIds.size(), type);
+		return arcadiaData;
+	}
+
+	private static void merge(Map<String, List<Map>> arcadiaData, Map<?, ?> person) {
+		for (Map.Entry<?, ?> entities : person.entrySet()) {
+			List<Map> merged = arcadiaData.computeIfAbsent(String.valueOf(entities.getKey()), k -> new ArrayList<>());
+			if (entities.getValue() instanceof Map)
+				merged.add((Map) entities.getValue());
+			else if (entities.getValue() instanceof List)
+				merged.addAll((List<Map>) entities.getValue());
+		}
+	}
+
+	/**
+	 * @return Arcadia entity names of all types planned for the patient within a
+	 *         batch, in a stable order so all entries send the same query, or
+	 *         {@code resourceNameString} if the type was not planned
+	 */
+	private static String getPlannedResourceNames(Map<?, ?> resourceMapping, Set<ResourceType> plannedTypes,
+			ResourceType type, String resourceNameString) {
+		if (!plannedTypes.contains(type))
+			return resourceNameString;
+
+		Map<?, ?> resources = ConfigUtils.valueMap(resourceMapping, AppConstants.RESOURCES);
+		Set<String> names = new LinkedHashSet<>();
+		for (ResourceType plannedType : plannedTypes) {
+			Map<?, ?> resourceInfo = (Map<?, ?>) resources.get(plannedType.toString());
+			String plannedNames = resourceInfo != null ? (String) resourceInfo.get(AppConstants.ARCADIA_RESOURCE_NAME)
+					: null;
+			if (plannedNames != null)
+				names.addAll(Arrays.asList(plannedNames.trim().split("\\s+")));
+		}
+		return String.join(" ", names);
+	}
+
+	/**
+	 * @return {@code sinceQuerySyntax} with the watermark filled in for
+	 *         incremental requests if configured, otherwise {@code querySyntax}
+	 */
+	private String getQuerySyntax(Map<?, ?> apiInfo, Date since) {
+		if (since != null && apiInfo.get(AppConstants.SINCE_QUERY_SYNTAX) != null) {
+			return ((String) apiInfo.get(AppConstants.SINCE_QUERY_SYNTAX)).replace(AppConstants.SINCE_PLACEHOLDER,
+					TransformerUtils.formatArcadiaDate(since));
+		}
+		return (String) apiInfo.get(AppConstants.GRAPH_QUERY_SYNTAX);
+	}
+
+	/**
+	 * Fetches one entity through {@code apiInfo.resourceUrl}, or through the
+	 * search API for the {@code patient} entity which only exists there.
+	 */
+	@Override
+	public Map getArcadiaEntity(ResourceType type, String arcadiaResourceName, String idField, String entityKey,
+			String personId) {
+		logger.debug("Inside getArcadiaEntity for ResourceType {}, {} and key {}", type, arcadiaResourceName,
+				entityKey);
+
+		if (AppConstants.PATIENT.equals(arcadiaResourceName)) {
+			long start = System.nanoTime();
+			Map searchResponse;
+			try {
+				searchResponse = arcadiaClient.executeSerchQuery(new ArcadiaSearchQuery().personId(entityKey));
+			} finally {
+				pipelineMetrics.record(PipelineStage.ARCADIA_SEARCH, type, null, System.nanoTime() - start);
+			}
+			Object records = searchResponse != null ? searchResponse.get(AppConstants.RECORDS) : null;
+			return records instanceof List && !((List) records).isEmpty() ? (Map) ((List) records).get(0) : null;
+		}
+
+		Map<?, ?> resourceMapping;
+		try {
+			resourceMapping = ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE);
+		} catch (IOException e) {
+			logger.error("Exception happend while reading config file: " + AppConstants.RESOURCE_MAPPING_FILE);
+			throw new UnclassifiedServerFailureException(Constants.STATUS_HTTP_404_NOT_FOUND, e.getMessage());
+		}
+		String resourceUrl = ConfigUtils.valueString(ConfigUtils.valueMap(resourceMapping, AppConstants.API_INFO),
+				AppConstants.ARCADIA_RESOURCE_URL);
+		String path = resourceUrl.replace(AppConstants.ARCADIA_RESOURCE_PLACEHOLDER, arcadiaResourceName)
+				.replace(AppConstants.ARCADIA_ID_PLACEHOLDER, entityKey);
+
+		long start = System.nanoTime();
+		try {
+			Map response = arcadiaClient.getObject(path);
+			if (response != null && response.get(AppConstants.DATA) instanceof Map)
+				return (Map) response.get(AppConstants.DATA);
+			return response;
+		} catch (WebClientResponseException.NotFound e) {
+			return null;
+		} catch (DownstreamUnavailableException e) {
+			throw e;
+		} catch (Exception e) {
+			logger.error("Exception happend while calling Arcadia APIs: " + e.getMessage());
+			throw new UnclassifiedServerFailureException(Constants.STATUS_HTTP_500_INTERNAL_ERROR, e.getMessage());
+		} finally {
+			pipelineMetrics.record(PipelineStage.OBJECT_FETCH, type, null, System.nanoTime() - start);
+		}
+	}
+
+	private Map executeAPIandHandleErrors(ResourceType type, Map graphQLQuery) {
 		Map arcadiaResponse = null;
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null)
+			trace.graphQlQuery(String.valueOf(graphQLQuery.get(AppConstants.QUERY)));
+		long start = System.nanoTime();
 		try {
 			logger.debug("Calling GraphQl API with graphQLQuery: {}", graphQLQuery);
 			arcadiaResponse = arcadiaClient.executeGraphQlApi(graphQLQuery);
 			if (arcadiaResponse.containsKey(AppConstants.ERRORS)) {
-				logger.info("GraphQl API for query:" + graphQLQuery
-						+ " resulted in error. Convering errors to OperationOutcome");
+				logger.info("GraphQl API for ResourceType {} resulted in error. Convering errors to OperationOutcome",
+						type);
+				payloadLogger.log(PayloadLogger.GRAPHQL, "GraphQl errors for", type,
+						arcadiaResponse.get(AppConstants.ERRORS));
 				OperationOutcome outcome = convertToOperationOutcome(arcadiaResponse);
 				throw new EndPointFailureException("Error from Arcadia server", outcome);
 			}
 
+		} catch (DownstreamUnavailableException e) {
+			throw e;
 		} catch (EndPointFailureException e) {
 			logger.error("Exception happend while calling Arcadia APIs: " + e.getMessage());
 			throw new UnclassifiedServerFailureException(Constants.STATUS_HTTP_500_INTERNAL_ERROR, e.getMessage(),
@@ -199,8 +422,11 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 		} catch (Exception e) {
 			logger.error("Exception happend while calling Arcadia APIs: " + e.getMessage());
 			throw new UnclassifiedServerFailureException(Constants.STATUS_HTTP_500_INTERNAL_ERROR, e.getMessage());
+		} finally {
+			pipelineMetrics.record(PipelineStage.GRAPHQL_FETCH, type, null, System.nanoTime() - start);
 		}
-		logger.info("GraphQl API call is successfull. Returned {}", arcadiaResponse);
+		logger.debug("GraphQl API call for ResourceType {} is successfull", type);
+		payloadLogger.log(PayloadLogger.GRAPHQL, "GraphQl response for", type, arcadiaResponse);
 		return arcadiaResponse;
 	}
 
@@ -214,20 +440,33 @@ public class EndPointResolverLiveMode implements EndPointResolver{
 		return outcome;
 	}
 
-	private String getPatientId(List<List<? extends IQueryParameterType>> list) {
-		StringBuilder value = new StringBuilder();
+	/**
+	 * Values within one {@code patient} parameter are ORed, repeated parameters
+	 * are ANDed, so {@code patient=a,b&patient=b,c} is patient {@code b}.
+	 * 
+	 * @return distinct patient ids without prefix
+	 */
+	private List<String> getPatientIds(List<List<? extends IQueryParameterType>> list) {
+		Set<String> patientIds = null;
 		if (list != null) {
 			for (List<? extends IQueryParameterType> values : list) {
+				Set<String> orValues = new LinkedHashSet<>();
 				for (IQueryParameterType params : values) {
 					if (params instanceof ReferenceParam) {
 						ReferenceParam id = (ReferenceParam) params;
-						if (id.getValue() != null) {
-							value.append(id.getValue());
+						if (id.getIdPart() != null) {
+							orValues.add(id.getIdPart());
 						}
 					}
 				}
+				if (patientIds == null)
+					patientIds = orValues;
+				else
+					patientIds.retainAll(orValues);
 			}
 		}
-		return value.toString();
+		if (patientIds == null || patientIds.isEmpty())
+			throw new InvalidRequestException("Patient ID should be present in incoming API");
+		return new ArrayList<>(patientIds);
 	}
 }
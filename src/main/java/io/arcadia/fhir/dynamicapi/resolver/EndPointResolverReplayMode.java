@@ -0,0 +1,41 @@
+package io.arcadia.fhir.dynamicapi.resolver;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import io.arcadia.fhir.client.ExchangeLog;
+
+/**
+ * <p>
+ * This is one of the implementation of {@link EndPointResolver}. This class
+ * will be injected if the {@code app.mode} is set to {@code replay} in
+ * {@code application.properties} file.
+ * </p>
+ * 
+ * <p>
+ * It resolves the Arcadia APIs exactly like {@link EndPointResolverLiveMode},
+ * so the same requests are built as in the recorded session, but the clients
+ * answer them from the {@link ExchangeLog} written in {@code record} mode
+ * instead of calling Arcadia, the transformation and the validation service.
+ * This makes performance runs reproducible without any outside service.
+ * </p>
+ * 
+ * @see ExchangeLog
+ * @see EndPointResolverLiveMode
+ */
+public class EndPointResolverReplayMode extends EndPointResolverLiveMode {
+
+	private static final Logger logger = LoggerFactory.getLogger(EndPointResolverReplayMode.class);
+
+	@Autowired
+	ExchangeLog exchangeLog;
+
+	@PostConstruct
+	void init() {
+		if (exchangeLog.size() == 0)
+			logger.warn("Exchange log is empty, every downstream call will fail. Record one with app.mode=record");
+	}
+}
@@ -0,0 +1,403 @@
+package io.arcadia.fhir.dynamicapi.resolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.JSONUtil;
+
+/**
+ * <p>
+ * In-memory store of the demo mode fixtures, one {@code <type>.json} file per
+ * FHIR resource type in {@code arcadia.resourceFolderPath}.
+ * </p>
+ *
+ * <p>
+ * A fixture is either one person object, e.g.
+ * {@code {"vitals": [...], "result": [...]}}, served for every patient, or an
+ * array of such objects with the person id in {@code personIdField}, indexed
+ * by person id. Files up to {@code mmapThresholdBytes} are parsed at startup.
+ * Larger ones are memory-mapped and scanned once on first use, which only
+ * records the byte range of every person; the range of a requested person is
+ * parsed from the mapped file on each use, so the heap never holds more than
+ * the persons being served.
+ * </p>
+ *
+ * <p>
+ * The folder is watched, changed files are loaded again and deleted ones
+ * dropped. Callers always get copies since transformation modifies the
+ * entities.
+ * </p>
+ */
+public class FixtureStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(FixtureStore.class);
+
+	private static final String FIXTURE_SUFFIX = ".json";
+
+	/** Files are mapped in segments, a single mapping is limited to 2 GB. */
+	private static final long SEGMENT_BYTES = 1L << 30;
+
+	private final Path folder;
+	private final long mmapThresholdBytes;
+	private final String personIdField;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Map<String, Fixture> fixtures = new ConcurrentHashMap<>();
+	private WatchService watchService;
+
+	/**
+	 * @param folder             Folder of the fixture files
+	 * @param mmapThresholdBytes Files larger than this are loaded lazily from a
+	 *                           memory-mapped file
+	 * @param personIdField      Field holding the person id in array fixtures
+	 */
+	public FixtureStore(Path folder, long mmapThresholdBytes, String personIdField) {
+		this.folder = folder;
+		this.mmapThresholdBytes = mmapThresholdBytes;
+		this.personIdField = personIdField;
+	}
+
+	/**
+	 * Loads all fixture files and optionally starts watching the folder.
+	 *
+	 * @param watch Whether to pick up changes of the folder
+	 */
+	public void start(boolean watch) {
+		if (!Files.isDirectory(folder)) {
+			logger.warn("Fixture folder {} does not exist, demo mode will return no entities", folder);
+			return;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + FIXTURE_SUFFIX)) {
+			for (Path file : files) {
+				register(file);
+			}
+		} catch (IOException e) {
+			logger.error("Could not list fixture folder " + folder, e);
+		}
+		logger.info("Registered {} fixture files of {}", fixtures.size(), folder);
+
+		if (watch)
+			watch();
+	}
+
+	public void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.warn("Could not close watch service of {}", folder);
+			}
+		}
+	}
+
+	/**
+	 * @param name       Fixture name, i.e. file name without {@code .json}
+	 * @param patientIds Patient ids without prefix, empty for all persons
+	 * @return copy of the persons' data, entities of several persons are merged
+	 *         per Arcadia entity type
+	 */
+	public Map get(String name, Collection<String> patientIds) {
+		Fixture fixture = fixtures.get(name);
+		if (fixture == null)
+			return new LinkedHashMap<>();
+
+		Loaded loaded = fixture.load();
+		if (loaded.shared != null)
+			return (Map) JSONUtil.deepCopy(loaded.shared);
+
+		Collection<Map> persons = new ArrayList<>();
+		for (String patientId : patientIds.isEmpty() ? loaded.personIds() : patientIds) {
+			Map person = loaded.person(patientId);
+			if (person != null)
+				persons.add(person);
+		}
+		if (persons.size() == 1)
+			return loaded.copy(persons.iterator().next());
+
+		Map<String, List<Object>> merged = new LinkedHashMap<>();
+		for (Map<?, ?> person : persons) {
+			for (Map.Entry<?, ?> entities : person.entrySet()) {
+				if (personIdField.equals(entities.getKey()))
+					continue;
+				List<Object> values = merged.computeIfAbsent(String.valueOf(entities.getKey()),
+						k -> new ArrayList<>());
+				if (entities.getValue() instanceof List)
+					values.addAll((List<?>) entities.getValue());
+				else if (entities.getValue() != null)
+					values.add(entities.getValue());
+			}
+		}
+		return loaded.copy(merged);
+	}
+
+	private void register(Path file) {
+		String fileName = file.getFileName().toString();
+		String name = fileName.substring(0, fileName.length() - FIXTURE_SUFFIX.length());
+		try {
+			Fixture fixture = new Fixture(file, Files.size(file) > mmapThresholdBytes);
+			if (!fixture.lazy)
+				fixture.load();
+			fixtures.put(name, fixture);
+		} catch (IOException | RuntimeException e) {
+			// keep serving the previous version, the file may still be written
+			logger.warn("Could not load fixture {}: {}", file, e.getMessage());
+		}
+	}
+
+	private void watch() {
+		try {
+			watchService = folder.getFileSystem().newWatchService();
+			folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			logger.error("Could not watch fixture folder " + folder, e);
+			return;
+		}
+
+		Thread watcher = new Thread(() -> {
+			try {
+				while (true) {
+					WatchKey key = watchService.take();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (!(event.context() instanceof Path))
+							continue;
+						Path file = folder.resolve((Path) event.context());
+						String fileName = file.getFileName().toString();
+						if (!fileName.endsWith(FIXTURE_SUFFIX))
+							continue;
+						if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+							fixtures.remove(fileName.substring(0, fileName.length() - FIXTURE_SUFFIX.length()));
+							logger.info("Fixture {} removed", file);
+						} else {
+							register(file);
+							logger.info("Fixture {} reloaded", file);
+						}
+					}
+					key.reset();
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				// store stopped
+			}
+		}, "fixture-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private Loaded parse(Object fixture, Path file) {
+		Loaded loaded = new Loaded();
+		if (fixture instanceof Map) {
+			loaded.shared = (Map) fixture;
+		} else if (fixture instanceof List) {
+			for (Object person : (List<?>) fixture) {
+				if (!(person instanceof Map) || ((Map) person).get(personIdField) == null) {
+					logger.warn("Skipping person without {} in fixture {}", personIdField, file);
+					continue;
+				}
+				loaded.byPerson.put(personId(((Map) person).get(personIdField)), (Map) person);
+			}
+		} else {
+			throw new IllegalStateException("Fixture " + file + " is neither an object nor an array");
+		}
+		return loaded;
+	}
+
+	/**
+	 * Scans a mapped fixture without building its objects: an array fixture is
+	 * indexed by the byte offset of every person, an object fixture is parsed
+	 * as it is shared by all persons anyway.
+	 */
+	private Loaded index(MappedFile mapped, Path file) throws IOException {
+		Loaded loaded = new Loaded();
+		try (JsonParser parser = mapper.getFactory().createParser(mapped.stream())) {
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_OBJECT) {
+				loaded.shared = mapper.readValue(parser, Map.class);
+				return loaded;
+			}
+			if (token != JsonToken.START_ARRAY)
+				throw new IllegalStateException("Fixture " + file + " is neither an object nor an array");
+
+			loaded.mapped = mapped;
+			String personId = null;
+			long start = -1;
+			for (token = parser.nextToken(); token != null; token = parser.nextToken()) {
+				// a person ends where the next one or the array starts
+				long offset = parser.getTokenLocation().getByteOffset();
+				if (personId != null)
+					loaded.ranges.put(personId, new long[] { start, offset });
+				personId = null;
+				if (token == JsonToken.END_ARRAY)
+					break;
+				if (token != JsonToken.START_OBJECT) {
+					logger.warn("Skipping person without {} in fixture {}", personIdField, file);
+					parser.skipChildren();
+					continue;
+				}
+				start = offset;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					if (parser.nextToken().isScalarValue() && personIdField.equals(field))
+						personId = personId(parser.getValueAsString());
+					else
+						parser.skipChildren();
+				}
+				if (personId == null)
+					logger.warn("Skipping person without {} in fixture {}", personIdField, file);
+			}
+		}
+		return loaded;
+	}
+
+	private static String personId(Object value) {
+		String personId = String.valueOf(value);
+		return personId.startsWith(AppConstants.PERSON_ID_PREFIX)
+				? personId.substring(AppConstants.PERSON_ID_PREFIX.length())
+				: personId;
+	}
+
+	private class Loaded {
+
+		private Map shared;
+		private final Map<String, Map> byPerson = new LinkedHashMap<>();
+		private MappedFile mapped;
+		private final Map<String, long[]> ranges = new LinkedHashMap<>();
+
+		Collection<String> personIds() {
+			return mapped != null ? ranges.keySet() : byPerson.keySet();
+		}
+
+		/**
+		 * @return the person, parsed from its range of a mapped fixture
+		 */
+		Map person(String personId) {
+			if (mapped == null)
+				return byPerson.get(personId);
+			long[] range = ranges.get(personId);
+			if (range == null)
+				return null;
+			try {
+				// the range may end with the separator to the next person, which is not read
+				return mapper.readValue(mapped.read(range[0], (int) (range[1] - range[0])), Map.class);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read person " + personId + " of fixture: " + e.getMessage(),
+						e);
+			}
+		}
+
+		/**
+		 * @return the value itself if it was parsed for this call, else a copy
+		 */
+		Map copy(Map value) {
+			return mapped != null ? value : (Map) JSONUtil.deepCopy(value);
+		}
+	}
+
+	/**
+	 * Read-only mapping of a fixture file in segments of {@link #SEGMENT_BYTES}.
+	 */
+	private static class MappedFile {
+
+		private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+		MappedFile(Path file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = channel.size();
+				for (long position = 0; position < size; position += SEGMENT_BYTES) {
+					segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position,
+							Math.min(SEGMENT_BYTES, size - position)));
+				}
+			}
+		}
+
+		InputStream stream() {
+			List<InputStream> streams = new ArrayList<>();
+			for (MappedByteBuffer segment : segments) {
+				streams.add(new ByteBufferBackedInputStream(segment.duplicate()));
+			}
+			return new SequenceInputStream(Collections.enumeration(streams));
+		}
+
+		byte[] read(long start, int length) {
+			byte[] bytes = new byte[length];
+			int copied = 0;
+			while (copied < length) {
+				long position = start + copied;
+				ByteBuffer segment = segments.get((int) (position / SEGMENT_BYTES)).duplicate();
+				segment.position((int) (position % SEGMENT_BYTES));
+				int chunk = Math.min(length - copied, segment.remaining());
+				segment.get(bytes, copied, chunk);
+				copied += chunk;
+			}
+			return bytes;
+		}
+	}
+
+	private class Fixture {
+
+		private final Path file;
+		private final boolean lazy;
+		private volatile Loaded loaded;
+
+		Fixture(Path file, boolean lazy) {
+			this.file = file;
+			this.lazy = lazy;
+		}
+
+		Loaded load() {
+			Loaded result = loaded;
+			if (result == null) {
+				synchronized (this) {
+					result = loaded;
+					if (result == null) {
+						long start = System.nanoTime();
+						result = read();
+						loaded = result;
+						logger.info("Loaded fixture {} in {} ms{}", file, (System.nanoTime() - start) / 1_000_000,
+								result.mapped != null
+										? ", indexed " + result.ranges.size() + " persons of the memory-mapped file"
+										: "");
+					}
+				}
+			}
+			return result;
+		}
+
+		private Loaded read() {
+			try {
+				if (!lazy)
+					return parse(mapper.readValue(Files.readAllBytes(file), Object.class), file);
+				return index(new MappedFile(file), file);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read fixture " + file + ": " + e.getMessage(), e);
+			}
+		}
+	}
+}
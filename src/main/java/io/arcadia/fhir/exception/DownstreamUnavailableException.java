@@ -0,0 +1,37 @@
+package io.arcadia.fhir.exception;
+
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+/**
+ * <p>
+ * Thrown without calling a downstream service when its circuit breaker is open
+ * or its bulkhead is full, so the request fails fast instead of waiting for a
+ * service which is known to be unhealthy.
+ * </p>
+ * 
+ * <p>
+ * It results in a {@code 503 Service Unavailable} response carrying an
+ * {@link OperationOutcome} with a {@code transient} issue.
+ * </p>
+ */
+public class DownstreamUnavailableException extends BaseServerResponseException {
+
+	public static final int STATUS_CODE = 503;
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param theMessage The error message, also used as diagnostics of the
+	 *                   {@link OperationOutcome}
+	 * @param theCause   The cause of the error
+	 */
+	public DownstreamUnavailableException(String theMessage, Throwable theCause) {
+		super(STATUS_CODE, theMessage, theCause);
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(IssueType.TRANSIENT).setDiagnostics(theMessage);
+		setOperationOutcome(outcome);
+	}
+}
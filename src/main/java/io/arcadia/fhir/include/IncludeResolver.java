@@ -0,0 +1,239 @@
+package io.arcadia.fhir.include;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.FhirTerser;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.arcadia.fhir.metrics.PipelineStage;
+import io.arcadia.fhir.metrics.RequestTrace;
+import io.arcadia.fhir.util.ResourceReader;
+
+/**
+ * <p>
+ * Adds the resources referenced by the matches of a search to its Bundle as
+ * {@code include} entries, for any {@code _include} the providers accept.
+ * </p>
+ * 
+ * <p>
+ * The references are found with the path of the include's search parameter,
+ * or all references for {@code *}. Each referenced resource is read at most
+ * once per request, references to resources already in the Bundle are
+ * skipped, and the reads run concurrently through {@link ResourceReader} so
+ * they benefit from its id index and cache. {@code :iterate} includes are
+ * applied to the included resources again, up to
+ * {@code include.maxIterations} rounds.
+ * </p>
+ */
+@Component
+public class IncludeResolver {
+
+	private static final Logger logger = LoggerFactory.getLogger(IncludeResolver.class);
+
+	private static final String WILDCARD = "*";
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Lazy
+	@Autowired
+	ResourceReader resourceReader;
+
+	@Value("${include.parallelism:8}")
+	private int parallelism;
+
+	@Value("${include.maxResources:200}")
+	private int maxResources;
+
+	@Value("${include.maxIterations:3}")
+	private int maxIterations;
+
+	private ExecutorService executor;
+
+	@PostConstruct
+	void init() {
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "include-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param type     Resource type of the search
+	 * @param bundle   Bundle with the matches of the search
+	 * @param includes Values of {@code _include}, may be null
+	 */
+	public void resolve(ResourceType type, Bundle bundle, Set<Include> includes) {
+		if (includes == null || includes.isEmpty())
+			return;
+
+		long start = System.nanoTime();
+		Set<String> present = new HashSet<>();
+		List<Resource> sources = new ArrayList<>();
+		for (BundleEntryComponent entry : bundle.getEntry()) {
+			if (entry.hasResource()) {
+				present.add(key(entry.getResource().getIdElement()));
+				sources.add(entry.getResource());
+			}
+		}
+
+		FhirTerser terser = fhirContext.newTerser();
+		int included = 0;
+		for (int iteration = 0; iteration < maxIterations && !sources.isEmpty(); iteration++) {
+			Map<String, IIdType> references = new LinkedHashMap<>();
+			for (Resource source : sources) {
+				for (Include include : includes) {
+					if (iteration == 0 || include.isRecurse())
+						collect(terser, source, include, references);
+				}
+			}
+			references.keySet().removeAll(present);
+			present.addAll(references.keySet());
+			if (included + references.size() > maxResources) {
+				logger.warn("Search includes {} more resources than the {} allowed, dropping the rest",
+						included + references.size() - maxResources, maxResources);
+				references.keySet().retainAll(new ArrayList<>(references.keySet())
+						.subList(0, Math.max(0, maxResources - included)));
+			}
+			if (references.isEmpty())
+				break;
+
+			sources = read(references.values());
+			for (Resource resource : sources) {
+				bundle.addEntry().setResource(resource).getSearch().setMode(SearchEntryMode.INCLUDE);
+			}
+			included += sources.size();
+		}
+		logger.debug("Included {} resources for {} search", included, type);
+		pipelineMetrics.record(PipelineStage.INCLUDE_RESOLUTION, type, null, System.nanoTime() - start);
+	}
+
+	private void collect(FhirTerser terser, Resource source, Include include, Map<String, IIdType> references) {
+		List<IBase> values = new ArrayList<>();
+		if (WILDCARD.equals(include.getValue())) {
+			values.addAll(terser.getAllPopulatedChildElementsOfType(source, Reference.class));
+		} else {
+			if (!source.fhirType().equals(include.getParamType()))
+				return;
+			RuntimeSearchParam searchParam = fhirContext.getResourceDefinition(source)
+					.getSearchParam(include.getParamName());
+			if (searchParam == null || searchParam.getParamType() != RestSearchParameterTypeEnum.REFERENCE) {
+				logger.debug("Ignoring _include={}, it is not a reference search parameter", include.getValue());
+				return;
+			}
+			for (String path : paths(searchParam.getPath())) {
+				values.addAll(terser.getValues(source, path));
+			}
+		}
+
+		for (IBase value : values) {
+			if (!(value instanceof Reference))
+				continue;
+			IIdType reference = ((Reference) value).getReferenceElement();
+			if (reference.isEmpty() || reference.isLocal() || reference.isAbsolute() || !reference.hasResourceType()
+					|| !reference.hasIdPart())
+				continue;
+			if (include.getParamTargetType() != null && !include.getParamTargetType().equals(reference.getResourceType()))
+				continue;
+			references.putIfAbsent(key(reference), reference);
+		}
+	}
+
+	private List<Resource> read(Collection<IIdType> references) {
+		List<Future<Resource>> reads = new ArrayList<>();
+		for (IIdType reference : references) {
+			reads.add(executor.submit(RequestTrace.wrap(() -> {
+				try {
+					return resourceReader.read(ResourceType.fromCode(reference.getResourceType()),
+							reference.getIdPart(), Resource.class);
+				} catch (ResourceNotFoundException e) {
+					logger.debug("Included resource {} does not exist", key(reference));
+					return null;
+				}
+			})));
+		}
+
+		List<Resource> resources = new ArrayList<>();
+		for (Future<Resource> read : reads) {
+			try {
+				Resource resource = read.get();
+				if (resource != null)
+					resources.add(resource);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				// an include which can not be resolved must not fail the search
+				logger.warn("Could not read included resource: {}", e.getCause().getMessage());
+			}
+		}
+		return resources;
+	}
+
+	/**
+	 * Turns the path of a search parameter into terser paths, e.g.
+	 * {@code Observation.subject.where(resolve() is Patient)} into
+	 * {@code Observation.subject}.
+	 */
+	private static List<String> paths(String searchParamPath) {
+		List<String> paths = new ArrayList<>();
+		if (searchParamPath == null)
+			return paths;
+		for (String path : searchParamPath.split("\\|")) {
+			path = path.trim();
+			int function = path.indexOf(".where(");
+			if (function >= 0)
+				path = path.substring(0, function);
+			if (!path.isEmpty() && !path.contains("("))
+				paths.add(path);
+		}
+		return paths;
+	}
+
+	private static String key(IIdType id) {
+		return id.getResourceType() + "/" + id.getIdPart();
+	}
+}
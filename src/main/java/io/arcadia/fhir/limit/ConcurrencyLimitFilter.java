@@ -0,0 +1,151 @@
+package io.arcadia.fhir.limit;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import ca.uhn.fhir.context.FhirContext;
+import io.arcadia.fhir.exception.DownstreamUnavailableException;
+import io.arcadia.fhir.util.AppConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <p>
+ * Sheds load in front of the HAPI provider dispatch. Every FHIR request has to
+ * be admitted by a {@link GradientLimiter}; requests over the limit are
+ * answered immediately with {@code 429} (or the configured status), a
+ * {@code Retry-After} header and an {@link OperationOutcome}, instead of
+ * queueing on Tomcat threads and downstream connection pools.
+ * </p>
+ * 
+ * <p>
+ * The cheap {@code metadata} endpoint and the expensive resource endpoints have
+ * separate limiters, so a burst of searches can not starve capability
+ * discovery. {@code OPTIONS} requests, e.g. CORS preflights, are not limited. Limits, in-flight requests and rejections are published as
+ * {@code fhir.limit.*} meters.
+ * </p>
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+	public static final String LIMIT_GAUGE = "fhir.limit.limit";
+
+	public static final String IN_FLIGHT_GAUGE = "fhir.limit.inflight";
+
+	public static final String REJECTED_COUNTER = "fhir.limit.rejected";
+
+	private final GradientLimiter metadataLimiter;
+	private final GradientLimiter resourceLimiter;
+	private final FhirContext fhirContext;
+	private final MeterRegistry meterRegistry;
+	private final int rejectStatus;
+	private final int retryAfterSeconds;
+
+	/**
+	 * @param metadataLimiter   Limiter of the {@code metadata} endpoint
+	 * @param resourceLimiter   Limiter of all other FHIR endpoints
+	 * @param fhirContext       Used to encode the {@link OperationOutcome}
+	 * @param meterRegistry     Registry of the limiter meters
+	 * @param rejectStatus      HTTP status of rejected requests, 429 or 503
+	 * @param retryAfterSeconds Value of the {@code Retry-After} header
+	 */
+	public ConcurrencyLimitFilter(GradientLimiter metadataLimiter, GradientLimiter resourceLimiter,
+			FhirContext fhirContext, MeterRegistry meterRegistry, int rejectStatus, int retryAfterSeconds) {
+		this.metadataLimiter = metadataLimiter;
+		this.resourceLimiter = resourceLimiter;
+		this.fhirContext = fhirContext;
+		this.meterRegistry = meterRegistry;
+		this.rejectStatus = rejectStatus;
+		this.retryAfterSeconds = retryAfterSeconds;
+		registerGauges(metadataLimiter);
+		registerGauges(resourceLimiter);
+	}
+
+	/**
+	 * {@code OPTIONS} requests are answered without calling a provider, they do
+	 * not take a permit.
+	 */
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return HttpMethod.OPTIONS.matches(request.getMethod());
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		GradientLimiter limiter = isMetadata(request) ? metadataLimiter : resourceLimiter;
+		if (!limiter.tryAcquire()) {
+			reject(limiter, response);
+			return;
+		}
+
+		long start = System.nanoTime();
+		boolean dropped = true;
+		try {
+			chain.doFilter(request, response);
+			dropped = response.getStatus() == DownstreamUnavailableException.STATUS_CODE;
+		} finally {
+			limiter.release(System.nanoTime() - start, dropped);
+		}
+	}
+
+	/**
+	 * Admits a request which is dispatched to the {@code RestfulServer} without
+	 * passing the filter chain, like an entry of a batch Bundle. A rejected
+	 * request gets the same status, {@code Retry-After} header and
+	 * OperationOutcome as a rejected HTTP request.
+	 * 
+	 * @param request  The dispatched request
+	 * @param response The response of the dispatched request
+	 * @param chain    Dispatches the request if it is admitted
+	 */
+	public void limit(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		doFilterInternal(request, response, chain);
+	}
+
+	private boolean isMetadata(HttpServletRequest request) {
+		String path = request.getPathInfo();
+		return path != null && path.startsWith("/metadata");
+	}
+
+	private void reject(GradientLimiter limiter, HttpServletResponse response) throws IOException {
+		Counter.builder(REJECTED_COUNTER)
+				.description("FHIR requests rejected by the concurrency limit")
+				.tag("limiter", limiter.getName())
+				.register(meterRegistry)
+				.increment();
+
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(IssueType.THROTTLED)
+				.setDiagnostics("The server is overloaded, retry after " + retryAfterSeconds + " seconds");
+
+		response.setStatus(rejectStatus);
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+		response.setContentType(AppConstants.APPLICATION_FHIR_JSON_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().write(fhirContext.newJsonParser().encodeResourceToString(outcome));
+	}
+
+	private void registerGauges(GradientLimiter limiter) {
+		Gauge.builder(LIMIT_GAUGE, limiter, GradientLimiter::getLimit)
+				.description("Adaptive concurrency limit of FHIR requests")
+				.tag("limiter", limiter.getName())
+				.register(meterRegistry);
+		Gauge.builder(IN_FLIGHT_GAUGE, limiter, GradientLimiter::getInFlight)
+				.description("FHIR requests in flight")
+				.tag("limiter", limiter.getName())
+				.register(meterRegistry);
+	}
+}
@@ -0,0 +1,108 @@
+package io.arcadia.fhir.limit;
+
+/**
+ * <p>
+ * Adaptive concurrency limit derived from measured latency, following the
+ * gradient algorithm: the limit grows while the latency of recent requests
+ * stays close to the long term latency and shrinks when requests queue up and
+ * become slower.
+ * </p>
+ * 
+ * <pre>
+ * gradient = clamp(0.5, 1.0, longRtt / shortRtt)
+ * newLimit = limit * gradient + sqrt(limit)
+ * </pre>
+ * 
+ * <p>
+ * The {@code sqrt(limit)} headroom lets the limit probe for more capacity.
+ * Requests failing because a downstream is overloaded additionally shrink the
+ * limit multiplicatively, as in AIMD. The limit is only raised while the
+ * limiter is actually in use, so an idle service does not drift to the maximum.
+ * </p>
+ */
+public class GradientLimiter {
+
+	private static final double SMOOTHING = 0.2;
+	private static final double LONG_RTT_ALPHA = 0.01;
+	private static final double SHORT_RTT_ALPHA = 0.2;
+	private static final double DROP_BACKOFF = 0.9;
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private double limit;
+	private double longRttNanos;
+	private double shortRttNanos;
+	private int inFlight;
+
+	/**
+	 * @param name         Name of the limiter, used as metric tag
+	 * @param initialLimit Limit until the first samples are measured
+	 * @param minLimit     Lower bound of the limit
+	 * @param maxLimit     Upper bound of the limit
+	 */
+	public GradientLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+		this.name = name;
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * @return whether the request may proceed. If so, {@link #release} must be
+	 *         called once it completes
+	 */
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit)
+			return false;
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Releases a request admitted by {@link #tryAcquire()} and adapts the limit.
+	 * 
+	 * @param rttNanos Time the request took
+	 * @param dropped  Whether the request failed because of overload
+	 */
+	public synchronized void release(long rttNanos, boolean dropped) {
+		boolean inUse = inFlight * 2 >= limit;
+		inFlight--;
+
+		if (dropped) {
+			limit = Math.max(minLimit, limit * DROP_BACKOFF);
+			return;
+		}
+
+		if (longRttNanos == 0) {
+			longRttNanos = rttNanos;
+			shortRttNanos = rttNanos;
+			return;
+		}
+		shortRttNanos = shortRttNanos * (1 - SHORT_RTT_ALPHA) + rttNanos * SHORT_RTT_ALPHA;
+		longRttNanos = longRttNanos * (1 - LONG_RTT_ALPHA) + rttNanos * LONG_RTT_ALPHA;
+		// Recover quickly after an overload so the long term latency does not
+		// settle on the degraded value
+		if (longRttNanos / shortRttNanos > 2)
+			longRttNanos = longRttNanos * 0.95;
+
+		double gradient = Math.max(0.5, Math.min(1.0, longRttNanos / shortRttNanos));
+		double newLimit = limit * gradient + Math.sqrt(limit);
+		if (newLimit > limit && !inUse)
+			return;
+		newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+}
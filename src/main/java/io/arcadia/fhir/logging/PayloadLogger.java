@@ -0,0 +1,204 @@
+package io.arcadia.fhir.logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Logs downstream payloads (Arcadia responses, transformed resources,
+ * validation outcomes) without letting them dominate CPU, disk I/O or leak
+ * PHI.
+ * </p>
+ * 
+ * <p>
+ * Every pipeline stage has its own logger named
+ * {@code io.arcadia.fhir.payload.<stage>}, which only logs at {@code DEBUG}.
+ * Levels can be changed at runtime through the actuator {@code loggers}
+ * endpoint. On top of the level, payloads are:
+ * <ul>
+ * <li>sampled with a per stage rate ({@code logging.payload.sampleRate.<stage>},
+ * default {@code logging.payload.sampleRate}),</li>
+ * <li>redacted - values of the fields listed in
+ * {@code logging.payload.redactFields} are replaced at any depth, ignoring
+ * case, {@code _} and {@code -},</li>
+ * <li>truncated to {@code logging.payload.maxChars} characters,</li>
+ * <li>formatted lazily, only once the event is actually logged.</li>
+ * </ul>
+ * Sample rates and sizes can be changed at runtime through
+ * {@link PayloadLoggingEndpoint}.
+ * </p>
+ */
+@Component
+public class PayloadLogger {
+
+	public static final String LOGGER_PREFIX = "io.arcadia.fhir.payload.";
+
+	public static final String GRAPHQL = "graphql";
+
+	public static final String SEARCH = "search";
+
+	public static final String TRANSFORM = "transform";
+
+	public static final String VALIDATION = "validation";
+
+	private static final String REDACTED = "***";
+
+	private final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+	private final Map<String, Double> sampleRates = new ConcurrentHashMap<>();
+	private final Map<String, Integer> maxChars = new ConcurrentHashMap<>();
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Autowired
+	Environment environment;
+
+	@Value("${logging.payload.sampleRate:0.01}")
+	private double defaultSampleRate;
+
+	@Value("${logging.payload.maxChars:2048}")
+	private int defaultMaxChars;
+
+	@Value("${logging.payload.redactFields:}")
+	private String redactFieldList;
+
+	private Set<String> redactFields = Collections.emptySet();
+
+	@PostConstruct
+	void init() {
+		Set<String> fields = new HashSet<>();
+		for (String field : redactFieldList.split(",")) {
+			if (!field.trim().isEmpty())
+				fields.add(normalize(field.trim()));
+		}
+		redactFields = fields;
+	}
+
+	/**
+	 * Logs a payload if the logger of the stage is at {@code DEBUG} and the event
+	 * is sampled.
+	 * 
+	 * @param stage   Pipeline stage, one of the constants of this class
+	 * @param message Constant message describing the payload. Must not contain PHI
+	 * @param subject What the payload belongs to, e.g. the FHIR resource type
+	 * @param payload Map, List or JSON String
+	 */
+	public void log(String stage, String message, Object subject, Object payload) {
+		Logger logger = loggers.computeIfAbsent(stage, s -> LoggerFactory.getLogger(LOGGER_PREFIX + s));
+		if (!logger.isDebugEnabled() || ThreadLocalRandom.current().nextDouble() >= sampleRate(stage))
+			return;
+		logger.debug("{} {} payload={}", message, subject, new LazyPayload(payload, maxChars(stage)));
+	}
+
+	public double sampleRate(String stage) {
+		return sampleRates.computeIfAbsent(stage,
+				s -> environment.getProperty("logging.payload.sampleRate." + s, Double.class, defaultSampleRate));
+	}
+
+	public int maxChars(String stage) {
+		return maxChars.computeIfAbsent(stage,
+				s -> environment.getProperty("logging.payload.maxChars." + s, Integer.class, defaultMaxChars));
+	}
+
+	public void setSampleRate(String stage, double sampleRate) {
+		sampleRates.put(stage, sampleRate);
+	}
+
+	public void setMaxChars(String stage, int chars) {
+		maxChars.put(stage, chars);
+	}
+
+	/**
+	 * @return current settings per stage which has been used or configured
+	 */
+	public Map<String, Map<String, Object>> settings() {
+		Map<String, Map<String, Object>> settings = new LinkedHashMap<>();
+		Set<String> stages = new HashSet<>(sampleRates.keySet());
+		stages.addAll(maxChars.keySet());
+		for (String stage : stages) {
+			Map<String, Object> stageSettings = new LinkedHashMap<>();
+			stageSettings.put("sampleRate", sampleRate(stage));
+			stageSettings.put("maxChars", maxChars(stage));
+			settings.put(stage, stageSettings);
+		}
+		return settings;
+	}
+
+	/**
+	 * @return copy of the payload with the values of the redacted fields replaced
+	 */
+	Object redact(Object value) {
+		if (value instanceof Map) {
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				boolean sensitive = redactFields.contains(normalize(String.valueOf(entry.getKey())));
+				copy.put(entry.getKey(), sensitive ? REDACTED : redact(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value instanceof List) {
+			List<Object> copy = new ArrayList<>();
+			for (Object item : (List<?>) value) {
+				copy.add(redact(item));
+			}
+			return copy;
+		}
+		return value;
+	}
+
+	/**
+	 * Field names compared in lower case without {@code _} and {@code -}, so
+	 * {@code dateOfBirth} also matches {@code date_of_birth} of the GraphQL
+	 * entities.
+	 */
+	private static String normalize(String field) {
+		return field.replace("_", "").replace("-", "").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Redacts, serializes and truncates the payload only when SLF4J formats the
+	 * message.
+	 */
+	private class LazyPayload {
+
+		private final Object payload;
+		private final int limit;
+
+		LazyPayload(Object payload, int limit) {
+			this.payload = payload;
+			this.limit = limit;
+		}
+
+		@Override
+		public String toString() {
+			String text;
+			try {
+				Object value = payload instanceof String ? mapper.readValue((String) payload, Object.class) : payload;
+				text = mapper.writeValueAsString(redact(value));
+			} catch (Exception e) {
+				text = "<unparseable payload of " + String.valueOf(payload).length() + " chars>";
+			}
+			if (text.length() > limit) {
+				return text.substring(0, limit) + "...(" + text.length() + " chars)";
+			}
+			return text;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package io.arcadia.fhir.logging;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Actuator endpoint {@code /actuator/payloadlogging} to inspect and change the
+ * sampling rate and size cap of {@link PayloadLogger} per stage at runtime,
+ * e.g.
+ * </p>
+ * 
+ * <pre>
+ * POST /actuator/payloadlogging/graphql {"sampleRate": 0.1, "maxChars": 4096}
+ * </pre>
+ * 
+ * <p>
+ * Log levels of the {@code io.arcadia.fhir.payload.*} loggers are changed
+ * through the standard {@code /actuator/loggers} endpoint.
+ * </p>
+ */
+@Component
+@Endpoint(id = "payloadlogging")
+public class PayloadLoggingEndpoint {
+
+	@Autowired
+	PayloadLogger payloadLogger;
+
+	@ReadOperation
+	public Map<String, Map<String, Object>> settings() {
+		return payloadLogger.settings();
+	}
+
+	@WriteOperation
+	public void configure(@Selector String stage, @Nullable Double sampleRate, @Nullable Integer maxChars) {
+		if (sampleRate != null)
+			payloadLogger.setSampleRate(stage, sampleRate);
+		if (maxChars != null)
+			payloadLogger.setMaxChars(stage, maxChars);
+	}
+}
@@ -0,0 +1,161 @@
+package io.arcadia.fhir.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * <p>
+ * Records Micrometer meters for every {@link PipelineStage} of a FHIR request.
+ * All meters are tagged with the FHIR {@link ResourceType} and, where it
+ * applies, the StructureMap used for the transformation. Stages which are not
+ * bound to a StructureMap (e.g. the Arcadia fetch) are tagged with
+ * {@link #NONE}.
+ * </p>
+ * 
+ * <p>
+ * The meters are exposed through the actuator Prometheus endpoint. The same
+ * measurements are added to the {@link RequestTrace} of the current request.
+ * </p>
+ * 
+ * @see PipelineStage
+ */
+@Component
+public class PipelineMetrics {
+
+	public static final String STAGE_TIMER = "fhir.pipeline.stage";
+
+	public static final String ENTITY_SUMMARY = "fhir.pipeline.entities";
+
+	public static final String INVALID_RESOURCE_COUNTER = "fhir.pipeline.invalid.resources";
+
+	public static final String SKIPPED_VALIDATION_COUNTER = "fhir.pipeline.skipped.validations";
+
+	public static final String CACHE_COUNTER = "fhir.cache.requests";
+
+	public static final String NONE = "none";
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	/**
+	 * Records the duration of a pipeline stage.
+	 * 
+	 * @param stage        Pipeline stage
+	 * @param type         FHIR {@link ResourceType}, may be null
+	 * @param structureMap StructureMap of the stage, may be null
+	 * @param nanos        Duration in nanoseconds
+	 */
+	public void record(PipelineStage stage, ResourceType type, String structureMap, long nanos) {
+		record(stage, type != null ? type.name() : null, structureMap, nanos);
+	}
+
+	/**
+	 * Records the duration of a pipeline stage when only the resource name of the
+	 * request is known.
+	 * 
+	 * @param stage        Pipeline stage
+	 * @param resourceName FHIR resource name, may be null
+	 * @param structureMap StructureMap of the stage, may be null
+	 * @param nanos        Duration in nanoseconds
+	 */
+	public void record(PipelineStage stage, String resourceName, String structureMap, long nanos) {
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null)
+			trace.stage(stage, nanos);
+
+		Timer.builder(STAGE_TIMER)
+				.description("Time spent per FHIR pipeline stage")
+				.tag("stage", stage.tag())
+				.tag("resourceType", valueOrNone(resourceName))
+				.tag("structureMap", valueOrNone(structureMap))
+				.register(meterRegistry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the number of Arcadia entities one request returned for one
+	 * Arcadia resource.
+	 * 
+	 * @param type                FHIR {@link ResourceType}
+	 * @param arcadiaResourceName Arcadia resource name
+	 * @param count               Number of entities
+	 */
+	public void recordEntities(ResourceType type, String arcadiaResourceName, int count) {
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null)
+			trace.entities(type.name() + "/" + arcadiaResourceName, count);
+
+		DistributionSummary.builder(ENTITY_SUMMARY)
+				.description("Arcadia entities per request")
+				.baseUnit("entities")
+				.tag("resourceType", type.name())
+				.tag("arcadiaResource", valueOrNone(arcadiaResourceName))
+				.register(meterRegistry)
+				.record(count);
+	}
+
+	/**
+	 * Counts a transformed resource which failed validation and was dropped from
+	 * the Bundle.
+	 * 
+	 * @param type         FHIR {@link ResourceType}
+	 * @param structureMap StructureMap which produced the resource
+	 */
+	public void invalidResource(ResourceType type, String structureMap) {
+		Counter.builder(INVALID_RESOURCE_COUNTER)
+				.description("Transformed resources rejected by the validation service")
+				.tag("resourceType", type.name())
+				.tag("structureMap", valueOrNone(structureMap))
+				.register(meterRegistry)
+				.increment();
+	}
+
+	/**
+	 * Counts a transformed resource which was returned without validation because
+	 * the validation service was unavailable.
+	 * 
+	 * @param type         FHIR {@link ResourceType}
+	 * @param structureMap StructureMap which produced the resource
+	 */
+	public void skippedValidation(ResourceType type, String structureMap) {
+		Counter.builder(SKIPPED_VALIDATION_COUNTER)
+				.description("Transformed resources returned without validation")
+				.tag("resourceType", type.name())
+				.tag("structureMap", valueOrNone(structureMap))
+				.register(meterRegistry)
+				.increment();
+	}
+
+	/**
+	 * Counts a cache lookup and adds it to the {@link RequestTrace} of the
+	 * current request.
+	 * 
+	 * @param cache    Name of the cache
+	 * @param hit      Whether the lookup was a hit
+	 * @param decision Short explanation shown by {@code _explain}, may be null
+	 */
+	public void cacheLookup(String cache, boolean hit, String decision) {
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null)
+			trace.cacheDecision(cache, hit, decision);
+
+		Counter.builder(CACHE_COUNTER)
+				.description("Cache lookups")
+				.tag("cache", cache)
+				.tag("result", hit ? "hit" : "miss")
+				.register(meterRegistry)
+				.increment();
+	}
+
+	private static String valueOrNone(String value) {
+		return value == null || value.isEmpty() ? NONE : value;
+	}
+}
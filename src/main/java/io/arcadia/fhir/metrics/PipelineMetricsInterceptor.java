@@ -0,0 +1,46 @@
+package io.arcadia.fhir.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+
+/**
+ * <p>
+ * HAPI interceptor measuring the {@link PipelineStage#SERIALIZATION} stage,
+ * which happens inside the {@code RestfulServer} after the provider returned.
+ * </p>
+ * 
+ * <p>
+ * The time between {@link Pointcut#SERVER_OUTGOING_RESPONSE} and
+ * {@link Pointcut#SERVER_PROCESSING_COMPLETED_NORMALLY} is the time HAPI spends
+ * encoding and writing the response.
+ * </p>
+ */
+@Component
+@Interceptor
+public class PipelineMetricsInterceptor {
+
+	private static final String SERIALIZATION_START = PipelineMetricsInterceptor.class.getName() + ".start";
+
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+	public boolean outgoingResponse(RequestDetails theRequestDetails) {
+		theRequestDetails.getUserData().put(SERIALIZATION_START, System.nanoTime());
+		return true;
+	}
+
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY)
+	public void processingCompleted(RequestDetails theRequestDetails) {
+		Object start = theRequestDetails.getUserData().get(SERIALIZATION_START);
+		if (start != null) {
+			pipelineMetrics.record(PipelineStage.SERIALIZATION, theRequestDetails.getResourceName(), null,
+					System.nanoTime() - (Long) start);
+		}
+	}
+}
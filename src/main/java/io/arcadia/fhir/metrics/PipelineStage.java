@@ -0,0 +1,57 @@
+package io.arcadia.fhir.metrics;
+
+/**
+ * Stages a FHIR search goes through between the provider and the response.
+ * The {@link #tag()} value is used as the {@code stage} tag of the
+ * {@link PipelineMetrics#STAGE_TIMER} timer.
+ * 
+ * @see PipelineMetrics
+ */
+public enum PipelineStage {
+
+	/** Arcadia GraphQL call for the person data */
+	GRAPHQL_FETCH("graphql"),
+
+	/** Arcadia search person call */
+	ARCADIA_SEARCH("search"),
+
+	/** Arcadia call for a single entity by its key, used by reads */
+	OBJECT_FETCH("object"),
+
+	/** Conversion of Arcadia dates into FHIR dates, per entity */
+	DATE_COERCION("date_coercion"),
+
+	/** Transformation service call, per entity */
+	TRANSFORM("transform"),
+
+	/** Validation service call, per resource */
+	VALIDATION("validation"),
+
+	/** HAPI parsing of the transformed resource, per resource */
+	PARSE("parse"),
+
+	/** Building a Provenance from its template, per resource */
+	PROVENANCE("provenance"),
+
+	/**
+	 * Building the Bundle from the Arcadia entities. Encloses the per entity
+	 * stages above.
+	 */
+	BUNDLE_ASSEMBLY("bundle_assembly"),
+
+	/** Reading the resources referenced by {@code _include}, per search */
+	INCLUDE_RESOLUTION("include"),
+
+	/** HAPI encoding and writing of the response */
+	SERIALIZATION("serialization");
+
+	private final String tag;
+
+	PipelineStage(String tag) {
+		this.tag = tag;
+	}
+
+	public String tag() {
+		return tag;
+	}
+}
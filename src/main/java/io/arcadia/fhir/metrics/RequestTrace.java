@@ -0,0 +1,233 @@
+package io.arcadia.fhir.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.DecimalType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
+import org.hl7.fhir.r4.model.StringType;
+
+/**
+ * <p>
+ * Collects what happened while serving one FHIR request: time and number of
+ * calls per {@link PipelineStage}, the GraphQL queries sent to Arcadia, the
+ * number of entities per Arcadia mapping and cache decisions.
+ * </p>
+ *
+ * <p>
+ * The trace is bound to the serving thread by {@link RequestTraceFilter}. Work
+ * handed to other threads has to be wrapped with {@link #wrap(Callable)} so it
+ * reports into the same trace. It is rendered as a {@code Server-Timing} header
+ * and, for {@code _explain=true} requests, as a {@link Parameters} resource.
+ * </p>
+ *
+ * @see RequestTraceInterceptor
+ */
+public class RequestTrace {
+
+	private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+	private final long startNanos = System.nanoTime();
+	private final Map<PipelineStage, long[]> stages = new EnumMap<>(PipelineStage.class);
+	private final List<String> graphQlQueries = new ArrayList<>();
+	private final Map<String, Integer> entityCounts = new LinkedHashMap<>();
+	private final List<String> cacheDecisions = new ArrayList<>();
+	private int cacheHits;
+	private int cacheMisses;
+	private boolean explain;
+	private String ifNoneMatch;
+	private String etag;
+	private IBaseResource cachedResource;
+	private byte[] cachedBody;
+
+	/**
+	 * Starts a new trace on the current thread.
+	 *
+	 * @return the new trace
+	 */
+	public static RequestTrace begin() {
+		RequestTrace trace = new RequestTrace();
+		CURRENT.set(trace);
+		return trace;
+	}
+
+	/**
+	 * @return trace of the current thread or null outside of a FHIR request
+	 */
+	public static RequestTrace current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Removes the trace from the current thread.
+	 */
+	public static void end() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Binds the trace of the calling thread to the thread executing the task.
+	 *
+	 * @param task Task to be executed on another thread
+	 * @return task reporting into the caller's trace
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> task) {
+		final RequestTrace trace = current();
+		return () -> {
+			RequestTrace previous = CURRENT.get();
+			CURRENT.set(trace);
+			try {
+				return task.call();
+			} finally {
+				if (previous != null)
+					CURRENT.set(previous);
+				else
+					CURRENT.remove();
+			}
+		};
+	}
+
+	public synchronized void stage(PipelineStage stage, long nanos) {
+		long[] stats = stages.get(stage);
+		if (stats == null) {
+			stats = new long[2];
+			stages.put(stage, stats);
+		}
+		stats[0]++;
+		stats[1] += nanos;
+	}
+
+	public synchronized void graphQlQuery(String query) {
+		graphQlQueries.add(query);
+	}
+
+	public synchronized void entities(String mapping, int count) {
+		Integer previous = entityCounts.get(mapping);
+		entityCounts.put(mapping, previous == null ? count : previous + count);
+	}
+
+	/**
+	 * @param cache    Name of the cache
+	 * @param hit      Whether the lookup was a hit
+	 * @param decision Short human readable explanation, shown by {@code _explain}
+	 */
+	public synchronized void cacheDecision(String cache, boolean hit, String decision) {
+		if (hit)
+			cacheHits++;
+		else
+			cacheMisses++;
+		cacheDecisions.add(cache + ": " + (hit ? "hit" : "miss") + (decision != null ? " - " + decision : ""));
+	}
+
+	public boolean isExplain() {
+		return explain;
+	}
+
+	public void setExplain(boolean explain) {
+		this.explain = explain;
+	}
+
+	/**
+	 * @return value of the {@code If-None-Match} request header, may be null
+	 */
+	public String getIfNoneMatch() {
+		return ifNoneMatch;
+	}
+
+	public void setIfNoneMatch(String ifNoneMatch) {
+		this.ifNoneMatch = ifNoneMatch;
+	}
+
+	/**
+	 * @return entity tag of the response, without quotes, may be null
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	/**
+	 * Registers the serialized JSON a cache served for a placeholder resource,
+	 * to be written as response body instead of encoding the placeholder.
+	 *
+	 * @param placeholder Empty resource returned in place of the cached one
+	 * @param body        JSON of the cached resource
+	 */
+	public void setCachedBody(IBaseResource placeholder, byte[] body) {
+		this.cachedResource = placeholder;
+		this.cachedBody = body;
+	}
+
+	/**
+	 * @param responseResource Resource about to be returned
+	 * @return the JSON registered for the resource, null if it is not a
+	 *         placeholder
+	 */
+	public byte[] getCachedBody(IBaseResource responseResource) {
+		return responseResource != null && responseResource == cachedResource ? cachedBody : null;
+	}
+
+	/**
+	 * @return value of the {@code Server-Timing} response header
+	 */
+	public synchronized String toServerTiming() {
+		StringBuilder header = new StringBuilder();
+		for (Map.Entry<PipelineStage, long[]> stage : stages.entrySet()) {
+			long[] stats = stage.getValue();
+			header.append(stage.getKey().tag()).append(";dur=").append(millis(stats[1])).append(";desc=\"")
+					.append(stats[0]).append(stats[0] == 1 ? " call" : " calls").append("\", ");
+		}
+		if (cacheHits + cacheMisses > 0) {
+			header.append("cache;desc=\"hits=").append(cacheHits).append(" misses=").append(cacheMisses)
+					.append("\", ");
+		}
+		header.append("total;dur=").append(millis(System.nanoTime() - startNanos));
+		return header.toString();
+	}
+
+	/**
+	 * @return execution plan of the request as a {@link Parameters} resource
+	 */
+	public synchronized Parameters toParameters() {
+		Parameters parameters = new Parameters();
+		for (String query : graphQlQueries) {
+			parameters.addParameter().setName("graphQlQuery").setValue(new StringType(query));
+		}
+
+		ParametersParameterComponent entities = parameters.addParameter().setName("entities");
+		for (Map.Entry<String, Integer> count : entityCounts.entrySet()) {
+			entities.addPart().setName(count.getKey()).setValue(new IntegerType(count.getValue()));
+		}
+
+		ParametersParameterComponent cache = parameters.addParameter().setName("cache");
+		cache.addPart().setName("hits").setValue(new IntegerType(cacheHits));
+		cache.addPart().setName("misses").setValue(new IntegerType(cacheMisses));
+		for (String decision : cacheDecisions) {
+			cache.addPart().setName("decision").setValue(new StringType(decision));
+		}
+
+		ParametersParameterComponent timing = parameters.addParameter().setName("timing");
+		for (Map.Entry<PipelineStage, long[]> stage : stages.entrySet()) {
+			ParametersParameterComponent stagePart = timing.addPart().setName(stage.getKey().tag());
+			stagePart.addPart().setName("calls").setValue(new IntegerType((int) stage.getValue()[0]));
+			stagePart.addPart().setName("durationMs").setValue(new DecimalType(millis(stage.getValue()[1])));
+		}
+		timing.addPart().setName("totalMs").setValue(new DecimalType(millis(System.nanoTime() - startNanos)));
+		return parameters;
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+	}
+}
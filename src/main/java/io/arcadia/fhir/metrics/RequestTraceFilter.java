@@ -0,0 +1,44 @@
+package io.arcadia.fhir.metrics;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.MDC;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Binds a fresh {@link RequestTrace} to the thread serving a FHIR request and
+ * removes it once the response is written, whatever the outcome. The request id
+ * ({@code X-Request-ID} header or a generated one) is put into the logging MDC
+ * so log lines of one request can be correlated.
+ */
+public class RequestTraceFilter extends OncePerRequestFilter {
+
+	public static final String EXPLAIN_PARAM = "_explain";
+
+	public static final String REQUEST_ID_HEADER = "X-Request-ID";
+
+	public static final String REQUEST_ID_MDC_KEY = "requestId";
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		RequestTrace trace = RequestTrace.begin();
+		trace.setExplain(Boolean.parseBoolean(request.getParameter(EXPLAIN_PARAM)));
+		trace.setIfNoneMatch(request.getHeader(HttpHeaders.IF_NONE_MATCH));
+		String requestId = request.getHeader(REQUEST_ID_HEADER);
+		MDC.put(REQUEST_ID_MDC_KEY, requestId != null ? requestId : UUID.randomUUID().toString());
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			MDC.remove(REQUEST_ID_MDC_KEY);
+			RequestTrace.end();
+		}
+	}
+}
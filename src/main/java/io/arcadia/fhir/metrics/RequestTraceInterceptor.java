@@ -0,0 +1,53 @@
+package io.arcadia.fhir.metrics;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+
+/**
+ * <p>
+ * HAPI interceptor publishing the {@link RequestTrace} of a request.
+ * </p>
+ * 
+ * <p>
+ * Every response carries a {@code Server-Timing} header with the duration and
+ * number of calls per {@link PipelineStage} and the cache hits. For
+ * {@code _explain=true} requests the search still runs completely, but the
+ * response resource is replaced with the execution plan returned by
+ * {@link RequestTrace#toParameters()}.
+ * </p>
+ */
+@Component
+@Interceptor
+public class RequestTraceInterceptor {
+
+	public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+	@Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+	public boolean outgoingResponse(ResponseDetails theResponseDetails, HttpServletResponse theServletResponse) {
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null) {
+			if (trace.isExplain()) {
+				theResponseDetails.setResponseResource(trace.toParameters());
+				theResponseDetails.setResponseCode(Constants.STATUS_HTTP_200_OK);
+			}
+			theServletResponse.setHeader(SERVER_TIMING_HEADER, trace.toServerTiming());
+		}
+		return true;
+	}
+
+	@Hook(Pointcut.SERVER_HANDLE_EXCEPTION)
+	public boolean handleException(HttpServletResponse theServletResponse) {
+		RequestTrace trace = RequestTrace.current();
+		if (trace != null) {
+			theServletResponse.setHeader(SERVER_TIMING_HEADER, trace.toServerTiming());
+		}
+		return true;
+	}
+}
@@ -0,0 +1,46 @@
+package io.arcadia.fhir.providers;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import io.arcadia.fhir.service.BatchService;
+
+/**
+ * <p>
+ * Accepts {@code batch} Bundles of {@code GET} entries posted to the server
+ * base. Example URL to invoke this interaction:
+ * POST http://<server name>/<context>/fhir
+ * </p>
+ * 
+ * <p>
+ * The entries are executed concurrently and independently, a failing entry
+ * gets its status and {@code OperationOutcome} in the {@code batch-response}
+ * without failing the others. {@code transaction} Bundles are rejected since
+ * the server is read-only.
+ * </p>
+ * 
+ * <p>
+ * This is a plain provider, it is registered with the server in
+ * {@code ArcadiaFHIRApplication.customize}.
+ * </p>
+ */
+@Component
+public class BatchProvider {
+
+	@Autowired
+	BatchService batchService;
+
+	@Transaction
+	public Bundle batch(@TransactionParam Bundle theBundle, RequestDetails theRequestDetails,
+			HttpServletRequest theRequest, HttpServletResponse theResponse) {
+		return batchService.batch(theBundle, (RestfulServer) theRequestDetails.getServer(), theRequest, theResponse);
+	}
+}
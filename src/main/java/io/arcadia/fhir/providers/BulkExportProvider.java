@@ -0,0 +1,50 @@
+package io.arcadia.fhir.providers;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.StringType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import io.arcadia.fhir.bulk.BulkExportKickOff;
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * System level Bulk Data export of all patients known to Arcadia search.
+ * Example URL to invoke this operation:
+ * http://<server name>/<context>/fhir/$export
+ * </p>
+ * 
+ * <p>
+ * {@code _since} limits the export to resources changed after the instant and
+ * {@code _incremental=true} takes it from the last completed export of the
+ * same level and types.
+ * </p>
+ * 
+ * <p>
+ * This is a plain provider, it is registered with the server in
+ * {@code ArcadiaFHIRApplication.customize}.
+ * </p>
+ */
+@Component
+public class BulkExportProvider {
+
+	@Autowired
+	BulkExportKickOff bulkExportKickOff;
+
+	@Operation(name = AppConstants.OPERATION_EXPORT, idempotent = true, manualResponse = true)
+	public void export(HttpServletRequest theRequest, HttpServletResponse theResponse,
+			@OperationParam(name = "_outputFormat") StringType theOutputFormat,
+			@OperationParam(name = "_type") StringType theType,
+			@OperationParam(name = "_since") InstantType theSince,
+			@OperationParam(name = "_incremental") BooleanType theIncremental) {
+		bulkExportKickOff.kickOff(theRequest, theResponse, "system", null, theOutputFormat, theType, theSince,
+				theIncremental);
+	}
+}
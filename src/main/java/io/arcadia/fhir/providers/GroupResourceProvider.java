@@ -0,0 +1,82 @@
+package io.arcadia.fhir.providers;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Group;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.StringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jaxrs.server.AbstractJaxRsResourceProvider;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import io.arcadia.fhir.bulk.BulkExportKickOff;
+import io.arcadia.fhir.service.GroupService;
+import io.arcadia.fhir.util.AppConstants;
+
+@Component
+public class GroupResourceProvider extends AbstractJaxRsResourceProvider<Group> {
+
+	private static final Logger logger = LoggerFactory.getLogger(GroupResourceProvider.class);
+
+	@Autowired
+	private GroupService service;
+
+	@Autowired
+	private BulkExportKickOff bulkExportKickOff;
+
+	public GroupResourceProvider(FhirContext fhirContext) {
+		super(fhirContext);
+	}
+
+	/**
+	 * The getResourceType method comes from IResourceProvider, and must be
+	 * overridden to indicate what type of resource this provider supplies.
+	 */
+	@Override
+	public Class<Group> getResourceType() {
+		return Group.class;
+	}
+
+	/**
+	 * Reads one of the patient panels configured in {@code BulkGroups.json}.
+	 * Example URL to invoke this method: http://<server name>/<context>/fhir/Group/1
+	 *
+	 * @param request
+	 * @param response
+	 * @param theId
+	 * @return
+	 */
+	@Read
+	public Group readOrVread(HttpServletRequest request, HttpServletResponse response, @IdParam IdType theId) {
+		try {
+			return service.getGroupById(theId.getIdPart());
+		} catch (Exception e) {
+			logger.error("Exception in readOrVread of GroupResourceProvider : ", e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Bulk Data export of the members of the group. Example URL to invoke this
+	 * operation: http://<server name>/<context>/fhir/Group/1/$export
+	 */
+	@Operation(name = AppConstants.OPERATION_EXPORT, idempotent = true, manualResponse = true)
+	public void export(HttpServletRequest theRequest, HttpServletResponse theResponse, @IdParam IdType theId,
+			@OperationParam(name = "_outputFormat") StringType theOutputFormat,
+			@OperationParam(name = "_type") StringType theType,
+			@OperationParam(name = "_since") InstantType theSince,
+			@OperationParam(name = "_incremental") BooleanType theIncremental) {
+		bulkExportKickOff.kickOff(theRequest, theResponse, "Group/" + theId.getIdPart(),
+				service.getMemberIds(theId.getIdPart()), theOutputFormat, theType, theSince, theIncremental);
+	}
+}
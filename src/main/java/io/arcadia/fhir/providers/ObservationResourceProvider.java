@@ -6,19 +6,26 @@ import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.api.annotation.Description;
 import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.annotation.IncludeParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.annotation.OptionalParam;
 import ca.uhn.fhir.rest.annotation.Read;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.NumberParam;
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.ObservationService;
+import io.arcadia.fhir.util.AppConstants;
 import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.IntegerType;
 import org.hl7.fhir.r4.model.Observation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +36,8 @@ import org.springframework.stereotype.Component;
 public class ObservationResourceProvider extends AbstractJaxRsResourceProvider<Observation> {
   private static final Logger logger = LoggerFactory.getLogger(ObservationResourceProvider.class);
 
+  private static final String LAST_N_MAX = "max";
+
   @Autowired private ObservationService service;
 
   public ObservationResourceProvider(FhirContext fhirContext) {
@@ -139,4 +148,44 @@ public class ObservationResourceProvider extends AbstractJaxRsResourceProvider<O
     }
     return bundle;
   }
+
+  /**
+   * The last {@code max} Observations per code of a patient, e.g. the last three values of each
+   * vital sign. Example URL to invoke this operation: http://<server
+   * name>/<context>/fhir/Observation/$lastn?patient=123&category=vital-signs&max=3
+   *
+   * @param request
+   * @param response
+   * @param thePatient
+   * @param theCategory
+   * @param theCode
+   * @param theMax Observations per code, 1 if absent
+   * @return
+   */
+  @Operation(name = AppConstants.OPERATION_LASTN, idempotent = true)
+  public Bundle lastN(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      @OperationParam(name = Observation.SP_PATIENT, min = 1, max = 1) ReferenceParam thePatient,
+      @OperationParam(name = Observation.SP_CATEGORY) TokenAndListParam theCategory,
+      @OperationParam(name = Observation.SP_CODE) TokenAndListParam theCode,
+      @OperationParam(name = LAST_N_MAX) IntegerType theMax) {
+
+    if (thePatient == null || thePatient.getIdPart() == null)
+      throw new InvalidRequestException("$lastn requires the patient parameter");
+    int max = theMax != null && theMax.getValue() != null ? theMax.getValue() : 1;
+    if (max < 1) throw new InvalidRequestException("max must be at least 1, got " + max);
+
+    SearchParameterMap paramMap = new SearchParameterMap();
+    paramMap.add(Observation.SP_PATIENT, thePatient);
+    paramMap.add(Observation.SP_CATEGORY, theCategory);
+    paramMap.add(Observation.SP_CODE, theCode);
+    paramMap.add(LAST_N_MAX, new NumberParam(max));
+    try {
+      return service.lastN(paramMap, max);
+    } catch (Exception e) {
+      logger.error("Exception in $lastn for ObservationResourceProvider: ", e);
+      throw e;
+    }
+  }
 }
@@ -5,9 +5,11 @@ import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.BooleanType;
 import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.StringType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,16 +21,21 @@ import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.api.annotation.Description;
 import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.annotation.IncludeParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.annotation.OptionalParam;
 import ca.uhn.fhir.rest.annotation.Read;
 import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.param.StringAndListParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
+import io.arcadia.fhir.bulk.BulkExportKickOff;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.PatientService;
+import io.arcadia.fhir.util.AppConstants;
 
 @Component
 public class PatientResourceProvider extends AbstractJaxRsResourceProvider<Patient> {
@@ -41,6 +48,9 @@ public class PatientResourceProvider extends AbstractJaxRsResourceProvider<Patie
 	@Autowired
 	private PatientService service;
 
+	@Autowired
+	private BulkExportKickOff bulkExportKickOff;
+
 	public PatientResourceProvider(FhirContext fhirContext) {
 		super(fhirContext);
 	}
@@ -111,10 +121,11 @@ public class PatientResourceProvider extends AbstractJaxRsResourceProvider<Patie
 	 * @param theDeceased
 	 * @param theDeathDate
 	 * @param theIncludes
-	 * @return
+	 * @return the matches, loaded page by page as the client follows the
+	 *         {@code next} links
 	 */
 	@Search()
-	public Bundle search(HttpServletRequest theRequest, HttpServletResponse theResponse,
+	public IBundleProvider search(HttpServletRequest theRequest, HttpServletResponse theResponse,
 			@Description(shortDefinition = "The resource identity") @OptionalParam(name = Patient.SP_RES_ID) TokenAndListParam theId,
 			@Description(shortDefinition = "A patient identifier") @OptionalParam(name = Patient.SP_IDENTIFIER) TokenParam theIdentifier,
 			@Description(shortDefinition = "A portion of either family or given name of the patient") @OptionalParam(name = Patient.SP_NAME) StringAndListParam theName,
@@ -168,13 +179,25 @@ public class PatientResourceProvider extends AbstractJaxRsResourceProvider<Patie
 		paramMap.add(Patient.SP_DEATH_DATE, theDeathDate);
 		paramMap.setIncludes(theIncludes);
 		paramMap.setRevIncludes(theRevIncludes);
-		Bundle bundle = new Bundle();
 		try {
-			bundle = service.getPatientsBySearchOption(paramMap);
+			return service.getPatientsBySearchOption(paramMap);
 		} catch (Exception e) {
 			logger.error("\nException in search of PatientResourceProvider\n", e);
 			throw e;
 		}
-		return bundle;
+	}
+
+	/**
+	 * Bulk Data export of all patients. Example URL to invoke this operation:
+	 * http://<server name>/<context>/fhir/Patient/$export
+	 */
+	@Operation(name = AppConstants.OPERATION_EXPORT, idempotent = true, manualResponse = true)
+	public void export(HttpServletRequest theRequest, HttpServletResponse theResponse,
+			@OperationParam(name = "_outputFormat") StringType theOutputFormat,
+			@OperationParam(name = "_type") StringType theType,
+			@OperationParam(name = "_since") InstantType theSince,
+			@OperationParam(name = "_incremental") BooleanType theIncremental) {
+		bulkExportKickOff.kickOff(theRequest, theResponse, "Patient", null, theOutputFormat, theType, theSince,
+				theIncremental);
 	}
 }
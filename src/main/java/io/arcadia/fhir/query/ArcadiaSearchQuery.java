@@ -0,0 +1,207 @@
+package io.arcadia.fhir.query;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Query of the Arcadia search person API, e.g.
+ * {@code query=givenName%3Ajo%20OR%20familyName%3Ajo&sex=f&offset=0&size=20}.
+ * </p>
+ *
+ * <p>
+ * Parameters are added with the typed methods and URL-encoded by
+ * {@link #toQueryString()}. {@link #matchAll()} adds {@code query=*} to a
+ * query without name clause. The page is set with
+ * {@link #page(int, int)}, which returns a copy so one query can be used for
+ * all pages of a search.
+ * </p>
+ */
+public class ArcadiaSearchQuery {
+
+	public static final String QUERY = AppConstants.QUERY;
+	public static final String BIRTH_DATE = "birthDate";
+	public static final String ID = "id";
+	public static final String MRN = "mrn";
+	public static final String MEDICARE_ID = "medicareId";
+	public static final String SEX = "sex";
+	public static final String OFFSET = "offset";
+	public static final String SIZE = "size";
+
+	private static final String MATCH_ALL = "*";
+
+	/** Parameters whose values the search service compares ignoring case. */
+	private static final Set<String> CASE_INSENSITIVE = new HashSet<>(Arrays.asList(QUERY, SEX));
+
+	private final List<String[]> parameters = new ArrayList<>();
+	private Integer offset;
+	private Integer size;
+
+	/**
+	 * Adds a clause matching persons whose given or family name is any of the
+	 * names.
+	 *
+	 * @param names Names, none adds no clause
+	 * @return this query
+	 */
+	public ArcadiaSearchQuery anyName(List<String> names) {
+		if (names.isEmpty())
+			return this;
+		StringBuilder clause = new StringBuilder();
+		for (String name : names) {
+			if (clause.length() > 0)
+				clause.append(" OR ");
+			clause.append("givenName:").append(name).append(" OR familyName:").append(name);
+		}
+		return add(QUERY, clause.toString());
+	}
+
+	public ArcadiaSearchQuery familyName(String name) {
+		return add(QUERY, "familyName:" + name);
+	}
+
+	/**
+	 * @param birthDate Date as {@code yyyy-MM-dd}
+	 * @return this query
+	 */
+	public ArcadiaSearchQuery birthDate(String birthDate) {
+		return add(BIRTH_DATE, birthDate);
+	}
+
+	/**
+	 * @param personId Person id with or without
+	 *                 {@link AppConstants#PERSON_ID_PREFIX}
+	 * @return this query
+	 */
+	public ArcadiaSearchQuery personId(String personId) {
+		return add(ID, personId.startsWith(AppConstants.PERSON_ID_PREFIX) ? personId
+				: AppConstants.PERSON_ID_PREFIX + personId);
+	}
+
+	public ArcadiaSearchQuery mrn(String mrn) {
+		return add(MRN, mrn);
+	}
+
+	public ArcadiaSearchQuery medicareId(String medicareId) {
+		return add(MEDICARE_ID, medicareId);
+	}
+
+	/**
+	 * @param sex Arcadia sex code, {@code m} or {@code f}
+	 * @return this query
+	 */
+	public ArcadiaSearchQuery sex(String sex) {
+		return add(SEX, sex);
+	}
+
+	/**
+	 * Adds {@code query=*} unless the query has a name clause, so the other
+	 * parameters filter all persons.
+	 *
+	 * @return this query
+	 */
+	public ArcadiaSearchQuery matchAll() {
+		for (String[] parameter : parameters) {
+			if (QUERY.equals(parameter[0]))
+				return this;
+		}
+		return add(QUERY, MATCH_ALL);
+	}
+
+	/**
+	 * @param offset Index of the first record
+	 * @param size   Maximum number of records
+	 * @return copy of this query for the given page
+	 */
+	public ArcadiaSearchQuery page(int offset, int size) {
+		ArcadiaSearchQuery page = new ArcadiaSearchQuery();
+		page.parameters.addAll(parameters);
+		page.offset = offset;
+		page.size = size;
+		return page;
+	}
+
+	public Integer getOffset() {
+		return offset;
+	}
+
+	public Integer getSize() {
+		return size;
+	}
+
+	/**
+	 * @return URL-encoded query string without leading {@code ?}
+	 */
+	public String toQueryString() {
+		StringBuilder queryString = new StringBuilder();
+		for (String[] parameter : parameters) {
+			append(queryString, parameter[0], parameter[1]);
+		}
+		if (offset != null)
+			append(queryString, OFFSET, String.valueOf(offset));
+		if (size != null)
+			append(queryString, SIZE, String.valueOf(size));
+		return queryString.toString();
+	}
+
+	/**
+	 * @return the query as cache key: parameters and the terms of name clauses
+	 *         sorted, whitespace collapsed, name clauses and sex in lower case,
+	 *         followed by the page
+	 */
+	public String toNormalizedString() {
+		List<String> normalized = new ArrayList<>();
+		for (String[] parameter : parameters) {
+			String value = parameter[1].trim().replaceAll("\\s+", " ");
+			if (CASE_INSENSITIVE.contains(parameter[0]))
+				value = value.toLowerCase(Locale.ROOT);
+			if (QUERY.equals(parameter[0])) {
+				List<String> terms = Arrays.asList(value.split(" or "));
+				Collections.sort(terms);
+				value = String.join(" or ", terms);
+			}
+			normalized.add(parameter[0] + "=" + value);
+		}
+		Collections.sort(normalized);
+		if (offset != null)
+			normalized.add(OFFSET + "=" + offset);
+		if (size != null)
+			normalized.add(SIZE + "=" + size);
+		return String.join("&", normalized);
+	}
+
+	@Override
+	public String toString() {
+		return toQueryString();
+	}
+
+	private ArcadiaSearchQuery add(String name, String value) {
+		parameters.add(new String[] { name, value });
+		return this;
+	}
+
+	private static void append(StringBuilder queryString, String name, String value) {
+		if (queryString.length() > 0)
+			queryString.append('&');
+		queryString.append(name).append('=').append(encode(value));
+	}
+
+	private static String encode(String value) {
+		try {
+			// a + is only a space in form encoding, %20 is one in every query
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package io.arcadia.fhir.query;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.TransformerUtils;
+
+/**
+ * <p>
+ * Selects the rows of {@code Observation/$lastn} from the raw Arcadia
+ * entities, before anything is transformed.
+ * </p>
+ *
+ * <p>
+ * Which entities take part, their category and where their code and
+ * effective date are found is configured per Arcadia entity in the
+ * {@code lastN} object of {@code TransformationConfig.json}, e.g.
+ * </p>
+ *
+ * <pre>
+ * "lastN": {
+ *   "category": "vital-signs",
+ *   "codeFields": ["vital_type"],
+ *   "effectiveDateFields": ["vital_date", "create_timestamp"]
+ * }
+ * </pre>
+ *
+ * <p>
+ * The first field present is used. Rows without a code can not be grouped
+ * and are skipped. Rows are grouped by entity and code and
+ * the newest {@code max} rows of each group are kept in a min-heap of size
+ * {@code max}, so a long history costs O(n log max) and only the selected rows
+ * reach the Transformation service. Rows without a readable date rank oldest.
+ * </p>
+ */
+public class LastNSelector {
+
+	private static final Logger logger = LoggerFactory.getLogger(LastNSelector.class);
+
+	/** Rows of some entities only carry a day. */
+	private static final String DAY_FORMAT = "yyyy-MM-dd";
+
+	private final int max;
+	private final Collection<String> categories;
+	private final Collection<String> codes;
+
+	/**
+	 * @param max        Rows kept per code
+	 * @param categories Requested categories, empty for all
+	 * @param codes      Requested codes without system, empty for all
+	 */
+	public LastNSelector(int max, Collection<String> categories, Collection<String> codes) {
+		this.max = max;
+		this.categories = categories;
+		this.codes = codes;
+	}
+
+	/**
+	 * @param arcadiaData  Arcadia entities by entity name
+	 * @param resourceList Mappings of the FHIR type in
+	 *                     {@code TransformationConfig.json}
+	 * @return Arcadia entities by entity name with the selected rows only,
+	 *         newest first per code
+	 */
+	public Map<String, List<Map>> select(Map<?, ?> arcadiaData, List<Map> resourceList) {
+		Map<String, List<Map>> selected = new LinkedHashMap<>();
+		for (Map resourceInfo : resourceList) {
+			String arcadiaResourceName = (String) resourceInfo.get(AppConstants.ARCADIA_RESOURCE_NAME);
+			Map<?, ?> lastN = (Map<?, ?>) resourceInfo.get(AppConstants.LAST_N);
+			if (lastN == null) {
+				logger.debug("No lastN configuration for {} entities, skipping them", arcadiaResourceName);
+				continue;
+			}
+			if (!categories.isEmpty() && !categories.contains(lastN.get(AppConstants.CATEGORY)))
+				continue;
+
+			List<String> codeFields = fields(lastN.get(AppConstants.CODE_FIELDS));
+			List<String> dateFields = fields(lastN.get(AppConstants.EFFECTIVE_DATE_FIELDS));
+			Map<String, PriorityQueue<Row>> byCode = new LinkedHashMap<>();
+			int index = 0;
+			int withoutCode = 0;
+			for (Map entity : entities(arcadiaData.get(arcadiaResourceName))) {
+				String code = firstValue(entity, codeFields);
+				if (code == null) {
+					withoutCode++;
+					continue;
+				}
+				if (!codes.isEmpty() && !codes.contains(code))
+					continue;
+				PriorityQueue<Row> heap = byCode.computeIfAbsent(code,
+						k -> new PriorityQueue<>(max + 1, Row.ORDER));
+				heap.add(new Row(entity, effectiveDate(entity, dateFields), index++));
+				if (heap.size() > max)
+					heap.poll();
+			}
+
+			List<Map> rows = new ArrayList<>();
+			for (PriorityQueue<Row> heap : byCode.values()) {
+				List<Row> newest = new ArrayList<>(heap);
+				newest.sort(Collections.reverseOrder(Row.ORDER));
+				for (Row row : newest) {
+					rows.add(row.entity);
+				}
+			}
+			logger.debug("Selected {} of {} matching {} entities in {} codes, skipped {} without code", rows.size(),
+					index, arcadiaResourceName, byCode.size(), withoutCode);
+			selected.put(arcadiaResourceName, rows);
+		}
+		return selected;
+	}
+
+	private static List<Map> entities(Object value) {
+		if (value instanceof Map)
+			return Collections.singletonList((Map) value);
+		if (value instanceof List)
+			return (List<Map>) value;
+		return Collections.emptyList();
+	}
+
+	private static List<String> fields(Object value) {
+		return value instanceof List ? (List<String>) value : Collections.<String>emptyList();
+	}
+
+	private static String firstValue(Map entity, List<String> fields) {
+		for (String field : fields) {
+			Object value = entity.get(field);
+			if (value != null)
+				return value.toString();
+		}
+		return null;
+	}
+
+	private static long effectiveDate(Map entity, List<String> fields) {
+		for (String field : fields) {
+			Object value = entity.get(field);
+			if (value == null)
+				continue;
+			try {
+				return TransformerUtils.parseArcadiaDate(value.toString()).getTime();
+			} catch (ParseException e) {
+				// try the day only
+			}
+			DateFormat dayFormat = new SimpleDateFormat(DAY_FORMAT, Locale.US);
+			dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			try {
+				return dayFormat.parse(value.toString()).getTime();
+			} catch (ParseException e) {
+				// try the next field
+			}
+		}
+		return Long.MIN_VALUE;
+	}
+
+	private static class Row {
+
+		/** Oldest first, the later of two rows with the same date counts as newer. */
+		static final Comparator<Row> ORDER = Comparator.<Row>comparingLong(row -> row.effectiveDate)
+				.thenComparingInt(row -> row.index);
+
+		private final Map entity;
+		private final long effectiveDate;
+		private final int index;
+
+		Row(Map entity, long effectiveDate, int index) {
+			this.entity = entity;
+			this.effectiveDate = effectiveDate;
+			this.index = index;
+		}
+	}
+}
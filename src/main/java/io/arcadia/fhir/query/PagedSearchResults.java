@@ -0,0 +1,120 @@
+package io.arcadia.fhir.query;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.InstantType;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPagingProvider;
+
+/**
+ * <p>
+ * Search result which loads its resources page by page. HAPI asks for the
+ * range of the page requested with {@code _count}, only that page is fetched
+ * from Arcadia and transformed. The result is kept by the
+ * {@link IPagingProvider}, so following the {@code next} link loads the next
+ * page.
+ * </p>
+ *
+ * <p>
+ * The total is taken from the page if Arcadia reports it. Otherwise it is
+ * unknown until a page comes back with fewer matches than requested.
+ * </p>
+ */
+public class PagedSearchResults implements IBundleProvider {
+
+	/**
+	 * Loads one page of the search.
+	 */
+	@FunctionalInterface
+	public interface PageLoader {
+
+		/**
+		 * @param offset Index of the first match
+		 * @param size   Maximum number of matches
+		 * @return the page
+		 */
+		Page load(int offset, int size);
+	}
+
+	/**
+	 * One page of matches, followed by their included resources.
+	 */
+	public static class Page {
+
+		private final List<IBaseResource> resources;
+		private final int matches;
+		private final Integer total;
+
+		/**
+		 * @param resources Matches and included resources
+		 * @param matches   Number of Arcadia records of the page
+		 * @param total     Total number of matches if reported, else null
+		 */
+		public Page(List<IBaseResource> resources, int matches, Integer total) {
+			this.resources = resources;
+			this.matches = matches;
+			this.total = total;
+		}
+
+		public List<IBaseResource> getResources() {
+			return resources;
+		}
+
+		public int getMatches() {
+			return matches;
+		}
+
+		public Integer getTotal() {
+			return total;
+		}
+	}
+
+	private final String uuid = UUID.randomUUID().toString();
+	private final InstantType published = InstantType.withCurrentTime();
+	private final PageLoader loader;
+	private volatile Integer size;
+
+	public PagedSearchResults(PageLoader loader) {
+		this.loader = loader;
+	}
+
+	@Override
+	public IPrimitiveType<Date> getPublished() {
+		return published;
+	}
+
+	@Override
+	public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+		int pageSize = theToIndex - theFromIndex;
+		if (pageSize <= 0)
+			return Collections.emptyList();
+
+		Page page = loader.load(theFromIndex, pageSize);
+		if (page.total != null)
+			size = page.total;
+		else if (page.matches < pageSize)
+			size = theFromIndex + page.matches;
+		return page.resources;
+	}
+
+	@Override
+	public String getUuid() {
+		return uuid;
+	}
+
+	@Override
+	public Integer preferredPageSize() {
+		return null;
+	}
+
+	@Override
+	public Integer size() {
+		return size;
+	}
+}
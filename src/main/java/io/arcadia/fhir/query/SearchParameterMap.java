@@ -5,10 +5,13 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.IQueryParameterAnd;
 import ca.uhn.fhir.model.api.IQueryParameterOr;
 import ca.uhn.fhir.model.api.IQueryParameterType;
@@ -208,6 +211,57 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		mySort = theSort;
 	}
 
+	/**
+	 * Renders the parameters as a query string which is the same for equivalent
+	 * searches: parameter names, OR values and includes are sorted, AND values
+	 * keep their order.
+	 * 
+	 * @param theContext FhirContext used to render parameter values
+	 * @return normalized query string, usable as cache key
+	 */
+	public String toNormalizedQueryString(FhirContext theContext) {
+		TreeMap<String, List<String>> sorted = new TreeMap<>();
+		for (String name : keySet()) {
+			List<String> andValues = new ArrayList<>();
+			for (List<? extends IQueryParameterType> orList : get(name)) {
+				TreeSet<String> orValues = new TreeSet<>();
+				String qualifier = "";
+				for (IQueryParameterType param : orList) {
+					if (param.getQueryParameterQualifier() != null)
+						qualifier = param.getQueryParameterQualifier();
+					orValues.add(param.getValueAsQueryToken(theContext));
+				}
+				andValues.add(qualifier + "=" + String.join(",", orValues));
+			}
+			sorted.put(name, andValues);
+		}
+
+		StringBuilder b = new StringBuilder();
+		for (String name : sorted.keySet()) {
+			for (String value : sorted.get(name)) {
+				b.append(b.length() > 0 ? "&" : "").append(name).append(value);
+			}
+		}
+		for (String include : includeValues(getIncludes())) {
+			b.append("&").append(Constants.PARAM_INCLUDE).append("=").append(include);
+		}
+		for (String include : includeValues(getRevIncludes())) {
+			b.append("&").append(Constants.PARAM_REVINCLUDE).append("=").append(include);
+		}
+		if (getCount() != null) {
+			b.append("&").append(Constants.PARAM_COUNT).append("=").append(getCount());
+		}
+		return b.toString();
+	}
+
+	private static TreeSet<String> includeValues(Set<Include> theIncludes) {
+		TreeSet<String> values = new TreeSet<>();
+		for (Include include : theIncludes) {
+			values.add(include.getValue() + (include.isRecurse() ? ":iterate" : ""));
+		}
+		return values;
+	}
+
 	@Override
 	public String toString() {
 		ToStringBuilder b = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
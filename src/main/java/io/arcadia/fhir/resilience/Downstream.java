@@ -0,0 +1,35 @@
+package io.arcadia.fhir.resilience;
+
+/**
+ * Downstream services called by the FHIR API. Every downstream has its own
+ * circuit breaker and bulkhead so that a slow or failing service does not use
+ * up the capacity needed to call the others.
+ */
+public enum Downstream {
+
+	/** Arcadia GraphQL and REST entity APIs */
+	ARCADIA_CRUD("arcadiaCrud"),
+
+	/** Arcadia person search API */
+	ARCADIA_SEARCH("arcadiaSearch"),
+
+	/** StructureMap transformation microservice */
+	TRANSFORMATION("transformation"),
+
+	/** FHIR validation microservice */
+	VALIDATION("validation");
+
+	private final String id;
+
+	Downstream(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return name of the circuit breaker and bulkhead, also used as
+	 *         {@code resilience.<id>.*} property prefix
+	 */
+	public String id() {
+		return id;
+	}
+}
@@ -0,0 +1,173 @@
+package io.arcadia.fhir.resilience;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.arcadia.fhir.exception.DownstreamUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * <p>
+ * Guards every call to a {@link Downstream} service with a concurrency
+ * bulkhead and a circuit breaker.
+ * </p>
+ * 
+ * <p>
+ * The bulkhead caps the number of concurrent calls per downstream, so a slow
+ * service cannot hold all request threads and pooled connections. The circuit
+ * breaker opens when too many calls fail or are slow, and rejects calls
+ * until the service has had time to recover. Client errors (4xx) are answers of
+ * a healthy service and are not counted as failures. Rejected calls fail fast
+ * with {@link DownstreamUnavailableException}.
+ * </p>
+ * 
+ * <p>
+ * Every setting can be given per downstream as
+ * {@code resilience.<downstream>.<setting>}, e.g.
+ * {@code resilience.validation.maxConcurrentCalls}, falling back to
+ * {@code resilience.default.<setting>}. Breaker state, call outcomes and
+ * bulkhead usage are published as {@code resilience4j.*} metrics.
+ * </p>
+ */
+@Component
+public class DownstreamGuard {
+
+	private static final Logger logger = LoggerFactory.getLogger(DownstreamGuard.class);
+
+	private static final String PREFIX = "resilience.";
+
+	private final Map<Downstream, CircuitBreaker> circuitBreakers = new EnumMap<>(Downstream.class);
+	private final Map<Downstream, Bulkhead> bulkheads = new EnumMap<>(Downstream.class);
+
+	@Autowired
+	Environment environment;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Autowired
+	HedgedCalls hedgedCalls;
+
+	@PostConstruct
+	void init() {
+		CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+		BulkheadRegistry bulkheadRegistry = BulkheadRegistry.ofDefaults();
+
+		for (Downstream downstream : Downstream.values()) {
+			CircuitBreakerConfig breakerConfig = CircuitBreakerConfig.custom()
+					.failureRateThreshold(setting(downstream, "failureRateThreshold", Float.class, 50f))
+					.slowCallRateThreshold(setting(downstream, "slowCallRateThreshold", Float.class, 80f))
+					.slowCallDurationThreshold(
+							Duration.ofMillis(setting(downstream, "slowCallDurationMs", Long.class, 5000L)))
+					.slidingWindowSize(setting(downstream, "slidingWindowSize", Integer.class, 50))
+					.minimumNumberOfCalls(setting(downstream, "minimumNumberOfCalls", Integer.class, 20))
+					.waitDurationInOpenState(
+							Duration.ofMillis(setting(downstream, "waitDurationInOpenStateMs", Long.class, 10000L)))
+					.permittedNumberOfCallsInHalfOpenState(
+							setting(downstream, "permittedCallsInHalfOpenState", Integer.class, 5))
+					.recordException(DownstreamGuard::isFailure)
+					.build();
+			BulkheadConfig bulkheadConfig = BulkheadConfig.custom()
+					.maxConcurrentCalls(setting(downstream, "maxConcurrentCalls", Integer.class, 100))
+					.maxWaitDuration(Duration.ofMillis(setting(downstream, "maxWaitMs", Long.class, 500L)))
+					.build();
+
+			CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(downstream.id(), breakerConfig);
+			circuitBreaker.getEventPublisher().onStateTransition(event -> logger
+					.warn("Circuit breaker {} changed state: {}", downstream.id(), event.getStateTransition()));
+			circuitBreakers.put(downstream, circuitBreaker);
+			bulkheads.put(downstream, bulkheadRegistry.bulkhead(downstream.id(), bulkheadConfig));
+		}
+
+		TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+		TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+	}
+
+	/**
+	 * Executes a blocking call to a downstream service inside its bulkhead and
+	 * circuit breaker.
+	 * 
+	 * @param downstream Service which is called
+	 * @param call       The call
+	 * @return result of the call
+	 * @throws DownstreamUnavailableException when the circuit is open or the
+	 *                                        bulkhead is full
+	 */
+	public <T> T call(Downstream downstream, Supplier<T> call) {
+		return guard(downstream, Bulkhead.decorateSupplier(bulkheads.get(downstream),
+				CircuitBreaker.decorateSupplier(circuitBreakers.get(downstream), call)));
+	}
+
+	/**
+	 * Executes an idempotent call inside the circuit breaker of the downstream,
+	 * hedged and retried by {@link HedgedCalls}. Every attempt takes its own
+	 * bulkhead permit, so hedges and retries count against the concurrency limit
+	 * of the downstream.
+	 * 
+	 * @param downstream Service which is called
+	 * @param request    Creates a new request every time it is called
+	 * @return result of the call
+	 * @throws DownstreamUnavailableException when the circuit is open or the
+	 *                                        bulkhead is full
+	 */
+	public <T> T callIdempotent(Downstream downstream, Supplier<Mono<T>> request) {
+		return guard(downstream, CircuitBreaker.decorateSupplier(circuitBreakers.get(downstream),
+				() -> hedgedCalls.execute(downstream, bulkheads.get(downstream), request)));
+	}
+
+	private <T> T guard(Downstream downstream, Supplier<T> guarded) {
+		try {
+			return guarded.get();
+		} catch (CallNotPermittedException e) {
+			throw new DownstreamUnavailableException(
+					"The " + downstream.id() + " service is unavailable, its circuit breaker is open", e);
+		} catch (BulkheadFullException e) {
+			throw new DownstreamUnavailableException(
+					"The " + downstream.id() + " service is overloaded, too many concurrent calls", e);
+		}
+	}
+
+	/**
+	 * @param downstream Downstream service
+	 * @return whether calls to the downstream are currently rejected
+	 */
+	public boolean isOpen(Downstream downstream) {
+		CircuitBreaker.State state = circuitBreakers.get(downstream).getState();
+		return state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN;
+	}
+
+	private static boolean isFailure(Throwable e) {
+		// a full bulkhead rejected the call before it reached the downstream
+		if (e instanceof BulkheadFullException)
+			return false;
+		return !(e instanceof WebClientResponseException)
+				|| ((WebClientResponseException) e).getRawStatusCode() >= 500;
+	}
+
+	private <T> T setting(Downstream downstream, String name, Class<T> type, T defaultValue) {
+		T fallback = environment.getProperty(PREFIX + "default." + name, type, defaultValue);
+		return environment.getProperty(PREFIX + downstream.id() + "." + name, type, fallback);
+	}
+}
@@ -0,0 +1,277 @@
+package io.arcadia.fhir.resilience;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+/**
+ * <p>
+ * Executes idempotent downstream calls with hedging and bounded retries.
+ * </p>
+ * 
+ * <p>
+ * When hedging is enabled for a {@link Downstream} and the call has not
+ * answered after the hedge delay, a duplicate call is sent and the first
+ * response wins; the other one is cancelled. Only a failure without response
+ * waits for the hedge, any other error of the first call is final. The delay is either configured
+ * ({@code hedging.<downstream>.delayMs}) or the observed p95 latency of the
+ * downstream. Calls failing with a connection error are retried with jittered
+ * exponential backoff. Hedges and retries both draw from one global
+ * {@link RetryBudget} so they cannot amplify an outage. Every attempt holds a
+ * permit of the bulkhead of the downstream while it runs.
+ * </p>
+ * 
+ * <p>
+ * Meters: {@code fhir.downstream.hedges} (tagged with the {@code winner}),
+ * {@code fhir.downstream.retries} and {@code fhir.downstream.retry.budget}.
+ * </p>
+ */
+@Component
+public class HedgedCalls {
+
+	public static final String HEDGE_COUNTER = "fhir.downstream.hedges";
+
+	public static final String RETRY_COUNTER = "fhir.downstream.retries";
+
+	public static final String BUDGET_GAUGE = "fhir.downstream.retry.budget";
+
+	private static final String PREFIX = "hedging.";
+
+	private final Map<Downstream, LatencyTracker> latencies = new EnumMap<>(Downstream.class);
+	private RetryBudget retryBudget;
+
+	@Autowired
+	Environment environment;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Value("${hedging.latencyWindow:1000}")
+	private int latencyWindow;
+
+	@Value("${hedging.percentile:95}")
+	private double percentile;
+
+	@Value("${hedging.minSamples:100}")
+	private int minSamples;
+
+	@Value("${hedging.minDelayMs:20}")
+	private long minDelayMs;
+
+	@Value("${retry.maxRetries:2}")
+	private int maxRetries;
+
+	@Value("${retry.backoffMs:50}")
+	private long backoffMs;
+
+	@Value("${retry.jitter:0.5}")
+	private double jitter;
+
+	@Value("${retry.budget.ratio:0.1}")
+	private double budgetRatio;
+
+	@Value("${retry.budget.minPerSecond:5}")
+	private double budgetMinPerSecond;
+
+	@Value("${retry.budget.maxTokens:100}")
+	private double budgetMaxTokens;
+
+	@PostConstruct
+	void init() {
+		for (Downstream downstream : Downstream.values()) {
+			latencies.put(downstream, new LatencyTracker(latencyWindow, percentile));
+		}
+		retryBudget = new RetryBudget(budgetRatio, budgetMinPerSecond, budgetMaxTokens);
+		Gauge.builder(BUDGET_GAUGE, retryBudget, RetryBudget::tokens)
+				.description("Tokens left for retries and hedged requests")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Executes an idempotent call and blocks for its result.
+	 * 
+	 * @param downstream Service which is called
+	 * @param bulkhead   Bulkhead of the downstream, every attempt holds a permit
+	 * @param request    Creates a new request every time it is called
+	 * @return result of the first successful attempt, may be null
+	 */
+	public <T> T execute(Downstream downstream, Bulkhead bulkhead, Supplier<Mono<T>> request) {
+		return hedged(downstream, bulkhead, request).block();
+	}
+
+	/**
+	 * Hedged and retried call. The primary attempt decides unless it fails with
+	 * a retryable error: a result, also an empty one, and every other error are
+	 * passed on at once and cancel a pending hedge. After a retryable error of
+	 * the primary attempt the hedge is awaited, if it was sent.
+	 * 
+	 * @param downstream Service which is called
+	 * @param bulkhead   Bulkhead of the downstream, every attempt holds a permit
+	 * @param request    Creates a new request every time it is called
+	 * @return result of the first successful attempt
+	 */
+	<T> Mono<T> hedged(Downstream downstream, Bulkhead bulkhead, Supplier<Mono<T>> request) {
+		Mono<T> primary = attempt(downstream, bulkhead, request);
+		Duration hedgeDelay = hedgeDelay(downstream);
+		if (hedgeDelay == null)
+			return Mono.defer(() -> {
+				retryBudget.deposit();
+				return primary;
+			});
+
+		return Mono.defer(() -> {
+			retryBudget.deposit();
+			Race<T> race = new Race<>();
+			Mono<T> hedge = Mono.delay(hedgeDelay, Schedulers.boundedElastic())
+					.filter(tick -> retryBudget.tryAcquire())
+					.doOnNext(tick -> race.hedgeSent = true)
+					.flatMap(tick -> attempt(downstream, bulkhead, request));
+			return Flux.merge(primary.materialize().map(signal -> new Outcome<>(false, signal)),
+					hedge.materialize().map(signal -> new Outcome<>(true, signal)))
+					.<Signal<T>>handle((outcome, sink) -> {
+						Signal<T> decision = race.decide(outcome);
+						if (decision != null)
+							sink.next(decision);
+					})
+					.next()
+					.<T>dematerialize()
+					.doFinally(signal -> {
+						if (race.hedgeSent)
+							countHedge(downstream, race.hedgeWon);
+					});
+		});
+	}
+
+	private <T> Mono<T> attempt(Downstream downstream, Bulkhead bulkhead, Supplier<Mono<T>> request) {
+		LatencyTracker tracker = latencies.get(downstream);
+		return Mono.defer(() -> {
+			bulkhead.acquirePermission();
+			Mono<T> call;
+			try {
+				call = request.get();
+			} catch (RuntimeException e) {
+				bulkhead.onComplete();
+				throw e;
+			}
+			long start = System.nanoTime();
+			// a cancelled loser of a hedge did not finish, its time says nothing about the latency
+			return call
+					.doOnSuccess(value -> tracker.record((System.nanoTime() - start) / 1_000_000))
+					.doOnError(e -> tracker.record((System.nanoTime() - start) / 1_000_000))
+					.doFinally(signal -> bulkhead.onComplete());
+		}).retryWhen(Retry.backoff(maxRetries, Duration.ofMillis(backoffMs))
+				.jitter(jitter)
+				// waiting for a bulkhead permit blocks, which the parallel scheduler must not
+				.scheduler(Schedulers.boundedElastic())
+				.filter(e -> isRetryable(e) && acquireRetry(downstream))
+				.onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+	}
+
+	/**
+	 * @return whether another attempt may succeed where this one failed, which
+	 *         is only the case when no response was received
+	 */
+	static boolean isRetryable(Throwable e) {
+		return e instanceof WebClientRequestException;
+	}
+
+	private void countHedge(Downstream downstream, boolean hedgeWon) {
+		Counter.builder(HEDGE_COUNTER)
+				.description("Hedged downstream requests by winning attempt")
+				.tag("downstream", downstream.id())
+				.tag("winner", hedgeWon ? "hedge" : "primary")
+				.register(meterRegistry)
+				.increment();
+	}
+
+	private boolean acquireRetry(Downstream downstream) {
+		boolean acquired = retryBudget.tryAcquire();
+		Counter.builder(RETRY_COUNTER)
+				.description("Retries of downstream requests after connection errors")
+				.tag("downstream", downstream.id())
+				.tag("outcome", acquired ? "sent" : "budgetExhausted")
+				.register(meterRegistry)
+				.increment();
+		return acquired;
+	}
+
+	/**
+	 * @return delay after which a hedge is sent, or null if the downstream is not
+	 *         hedged
+	 */
+	private Duration hedgeDelay(Downstream downstream) {
+		if (!environment.getProperty(PREFIX + downstream.id() + ".enabled", Boolean.class, false))
+			return null;
+		long configured = environment.getProperty(PREFIX + downstream.id() + ".delayMs", Long.class, 0L);
+		if (configured > 0)
+			return Duration.ofMillis(configured);
+		LatencyTracker tracker = latencies.get(downstream);
+		if (tracker.size() < minSamples || tracker.percentileMillis() < 0)
+			return null;
+		return Duration.ofMillis(Math.max(minDelayMs, tracker.percentileMillis()));
+	}
+
+	private static class Outcome<T> {
+
+		private final boolean hedge;
+		private final Signal<T> signal;
+
+		Outcome(boolean hedge, Signal<T> signal) {
+			this.hedge = hedge;
+			this.signal = signal;
+		}
+	}
+
+	/**
+	 * State of one hedged call. The outcomes of both attempts arrive serialized
+	 * by {@link Flux#merge}.
+	 */
+	private static class Race<T> {
+
+		private volatile boolean hedgeSent;
+		private volatile boolean hedgeWon;
+		private Signal<T> primaryFailure;
+		private boolean hedgeDone;
+
+		/**
+		 * @return the signal which ends the call, or null to wait for the other
+		 *         attempt
+		 */
+		Signal<T> decide(Outcome<T> outcome) {
+			Signal<T> signal = outcome.signal;
+			if (!outcome.hedge) {
+				if (signal.isOnError() && isRetryable(signal.getThrowable()) && !hedgeDone) {
+					primaryFailure = signal;
+					return null;
+				}
+				return signal;
+			}
+			// a hedge which was sent and answered, also with an empty body, wins
+			if (signal.isOnNext() || signal.isOnComplete() && hedgeSent) {
+				hedgeWon = true;
+				return signal;
+			}
+			hedgeDone = true;
+			return primaryFailure;
+		}
+	}
+}
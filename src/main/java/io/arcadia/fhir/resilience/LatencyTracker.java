@@ -0,0 +1,63 @@
+package io.arcadia.fhir.resilience;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Keeps the latencies of the last calls to one downstream in a ring buffer and
+ * reports a percentile of them.
+ * </p>
+ * 
+ * <p>
+ * Sorting the window on every call would cost more than it saves, so the
+ * percentile is recomputed only every {@code window / 20} samples.
+ * </p>
+ */
+public class LatencyTracker {
+
+	private final long[] window;
+	private final double percentile;
+	private final int recomputeEvery;
+	private int next;
+	private int size;
+	private int sinceRecompute;
+	private volatile long percentileMillis = -1;
+
+	/**
+	 * @param windowSize Number of latest samples considered
+	 * @param percentile Percentile between 0 and 100
+	 */
+	public LatencyTracker(int windowSize, double percentile) {
+		this.window = new long[windowSize];
+		this.percentile = percentile;
+		this.recomputeEvery = Math.max(1, windowSize / 20);
+	}
+
+	public synchronized void record(long millis) {
+		window[next] = millis;
+		next = (next + 1) % window.length;
+		if (size < window.length)
+			size++;
+		if (++sinceRecompute >= recomputeEvery) {
+			sinceRecompute = 0;
+			long[] sorted = Arrays.copyOf(window, size);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+			percentileMillis = sorted[Math.max(0, Math.min(index, size - 1))];
+		}
+	}
+
+	/**
+	 * @return number of samples in the window
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the percentile in milliseconds, or -1 before the first computation
+	 */
+	public long percentileMillis() {
+		return percentileMillis;
+	}
+}
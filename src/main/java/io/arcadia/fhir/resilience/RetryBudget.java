@@ -0,0 +1,66 @@
+package io.arcadia.fhir.resilience;
+
+/**
+ * <p>
+ * Token bucket shared by all downstream calls which limits retries and hedged
+ * requests to a fraction of the regular traffic.
+ * </p>
+ * 
+ * <p>
+ * Every regular call deposits {@code ratio} tokens and every retry or hedge
+ * withdraws one, so during an outage the extra load is bounded by
+ * {@code ratio} of the original load instead of multiplying it. A small number
+ * of tokens is refilled per second so retries are possible at low traffic.
+ * </p>
+ */
+public class RetryBudget {
+
+	private final double ratio;
+	private final double minPerSecond;
+	private final double maxTokens;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+
+	/**
+	 * @param ratio        Tokens deposited per regular call
+	 * @param minPerSecond Tokens refilled per second regardless of traffic
+	 * @param maxTokens    Capacity of the bucket
+	 */
+	public RetryBudget(double ratio, double minPerSecond, double maxTokens) {
+		this.ratio = ratio;
+		this.minPerSecond = minPerSecond;
+		this.maxTokens = maxTokens;
+		this.tokens = maxTokens;
+	}
+
+	/**
+	 * Deposits the share of one regular call.
+	 */
+	public synchronized void deposit() {
+		refill();
+		tokens = Math.min(maxTokens, tokens + ratio);
+	}
+
+	/**
+	 * @return whether a retry or hedge may be sent, in which case one token has
+	 *         been withdrawn
+	 */
+	public synchronized boolean tryAcquire() {
+		refill();
+		if (tokens < 1)
+			return false;
+		tokens--;
+		return true;
+	}
+
+	public synchronized double tokens() {
+		refill();
+		return tokens;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * minPerSecond);
+		lastRefillNanos = now;
+	}
+}
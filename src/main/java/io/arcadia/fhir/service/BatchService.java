@@ -0,0 +1,29 @@
+package io.arcadia.fhir.service;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+import ca.uhn.fhir.rest.server.RestfulServer;
+
+/**
+ * <p>
+ * Processes FHIR {@code batch} Bundles posted to the server base.
+ * </p>
+ */
+public interface BatchService {
+
+	/**
+	 * Executes the entries of the Bundle concurrently, each as an independent
+	 * request against the server.
+	 * 
+	 * @param bundle   {@code batch} Bundle of {@code GET} entries
+	 * @param server   Server serving the entries
+	 * @param request  Request that posted the Bundle
+	 * @param response Response of that request
+	 * @return {@code batch-response} Bundle with one entry per request entry, in
+	 *         the same order
+	 */
+	Bundle batch(Bundle bundle, RestfulServer server, HttpServletRequest request, HttpServletResponse response);
+}
@@ -0,0 +1,55 @@
+package io.arcadia.fhir.service;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.ResourceType;
+
+import io.arcadia.fhir.bulk.BulkExportJob;
+
+/**
+ * <p>
+ * Runs FHIR Bulk Data {@code $export} requests in the background and keeps
+ * track of their jobs.
+ * </p>
+ */
+public interface BulkExportService {
+
+	/**
+	 * Starts an export for the given patients.
+	 * 
+	 * @param request     Kick-off request URL, reported back in the manifest
+	 * @param scope       Level of the export, e.g. {@code Patient} or
+	 *                    {@code Group/1}, used to track watermarks
+	 * @param patientIds  Arcadia person ids without prefix, null to export all
+	 *                    patients
+	 * @param types       Resource types to export, empty for all supported types
+	 * @param since       Only export resources changed after this instant, may be
+	 *                    null
+	 * @param incremental Use the watermark of the last completed export of the
+	 *                    same scope and types if {@code since} is null
+	 * @return the started job
+	 */
+	BulkExportJob kickOff(String request, String scope, Collection<String> patientIds, Set<ResourceType> types,
+			Date since, boolean incremental);
+
+	/**
+	 * @param jobId Id of the job
+	 * @return the job or null if it is unknown
+	 */
+	BulkExportJob getJob(String jobId);
+
+	/**
+	 * Cancels the job if it is still running and deletes its files.
+	 * 
+	 * @param jobId Id of the job
+	 * @return false if the job is unknown
+	 */
+	boolean cancel(String jobId);
+
+	/**
+	 * @return resource types which can be exported
+	 */
+	Set<ResourceType> getSupportedTypes();
+}
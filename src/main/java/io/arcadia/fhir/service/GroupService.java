@@ -0,0 +1,16 @@
+package io.arcadia.fhir.service;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Group;
+
+public interface GroupService {
+
+	Group getGroupById(String id);
+
+	/**
+	 * @param id Id of the group
+	 * @return Arcadia person ids of the members without prefix
+	 */
+	List<String> getMemberIds(String id);
+}
@@ -9,4 +9,6 @@ public interface ObservationService {
   Observation getObservationById(String id);
 
   Bundle search(SearchParameterMap paramMap);
+
+  Bundle lastN(SearchParameterMap paramMap, int max);
 }
@@ -14,6 +14,7 @@ import org.springframework.transaction.annotation.Transactional;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.AllergyIntoleranceService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 @Service("AllergyIntoleranceService")
@@ -28,9 +29,12 @@ public class AllergyIntoleranceServiceImpl implements AllergyIntoleranceService
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public AllergyIntolerance getAllergyIntoleranceById(String theId) {
-		return null;
+		return resourceReader.read(ResourceType.AllergyIntolerance, theId, AllergyIntolerance.class);
 	}
 
 	/**
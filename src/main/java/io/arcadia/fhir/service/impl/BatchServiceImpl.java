@@ -0,0 +1,245 @@
+package io.arcadia.fhir.service.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryResponseComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import io.arcadia.fhir.batch.BatchEntryRequest;
+import io.arcadia.fhir.batch.BatchEntryResponse;
+import io.arcadia.fhir.batch.BatchScope;
+import io.arcadia.fhir.limit.ConcurrencyLimitFilter;
+import io.arcadia.fhir.metrics.RequestTrace;
+import io.arcadia.fhir.service.BatchService;
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Runs the entries of a {@code batch} Bundle on a pool of
+ * {@code batch.parallelism} threads. Every entry is dispatched to the
+ * {@link RestfulServer} as its own {@code GET} request with its own
+ * {@link RequestTrace}, so it is served exactly like a standalone request and
+ * gets its own status, {@code ETag} and {@link OperationOutcome}. The entries
+ * do not pass the servlet filters, so each of them is admitted by the
+ * {@link ConcurrencyLimitFilter} on its own and may be rejected with
+ * {@code 429} while the Bundle as a whole succeeds.
+ * </p>
+ *
+ * <p>
+ * The entries share one {@link BatchScope}. The patient searches of the Bundle
+ * are planned upfront, so all searches for the same patient are answered by
+ * one GraphQL fetch. Identical entries hit the rendered Bundle cache after the
+ * first one was transformed.
+ * </p>
+ */
+@Service("batchService")
+public class BatchServiceImpl implements BatchService {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchServiceImpl.class);
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Autowired(required = false)
+	ConcurrencyLimitFilter concurrencyLimitFilter;
+
+	@Value("${batch.parallelism:8}")
+	private int parallelism;
+
+	@Value("${batch.maxEntries:100}")
+	private int maxEntries;
+
+	private ExecutorService executor;
+
+	@PostConstruct
+	void init() {
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "batch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public Bundle batch(Bundle bundle, RestfulServer server, HttpServletRequest request,
+			HttpServletResponse response) {
+		if (bundle.getType() != BundleType.BATCH)
+			throw new InvalidRequestException("Only Bundles of type batch are supported, got " + bundle.getType());
+		if (bundle.getEntry().size() > maxEntries)
+			throw new InvalidRequestException(
+					"Batch has " + bundle.getEntry().size() + " entries, at most " + maxEntries + " are allowed");
+
+		BatchScope scope = new BatchScope();
+		for (BundleEntryComponent entry : bundle.getEntry()) {
+			if (isGet(entry))
+				plan(scope, entry.getRequest().getUrl());
+		}
+
+		List<Future<BundleEntryComponent>> futures = new ArrayList<>();
+		for (BundleEntryComponent entry : bundle.getEntry()) {
+			if (!isGet(entry)) {
+				futures.add(null);
+				continue;
+			}
+			final String url = entry.getRequest().getUrl();
+			futures.add(executor.submit(scope.wrap(() -> {
+				RequestTrace.begin();
+				try {
+					return execute(server, request, response, url);
+				} finally {
+					RequestTrace.end();
+				}
+			})));
+		}
+
+		Bundle batchResponse = new Bundle();
+		batchResponse.setType(BundleType.BATCHRESPONSE);
+		for (int i = 0; i < futures.size(); i++) {
+			BundleEntryComponent entry = bundle.getEntry().get(i);
+			Future<BundleEntryComponent> future = futures.get(i);
+			if (future == null) {
+				batchResponse.addEntry(error(Constants.STATUS_HTTP_400_BAD_REQUEST, IssueType.NOTSUPPORTED,
+						"Only GET entries with a request url are supported in a batch, got "
+								+ entry.getRequest().getMethod()));
+				continue;
+			}
+			try {
+				batchResponse.addEntry(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				batchResponse.addEntry(error(Constants.STATUS_HTTP_500_INTERNAL_ERROR, IssueType.EXCEPTION,
+						"Interrupted while waiting for the entry"));
+			} catch (ExecutionException e) {
+				logger.error("Batch entry " + entry.getRequest().getUrl() + " failed", e.getCause());
+				batchResponse.addEntry(error(Constants.STATUS_HTTP_500_INTERNAL_ERROR, IssueType.EXCEPTION,
+						String.valueOf(e.getCause().getMessage())));
+			}
+		}
+		return batchResponse;
+	}
+
+	private static boolean isGet(BundleEntryComponent entry) {
+		return entry.hasRequest() && entry.getRequest().getMethod() == HTTPVerb.GET && entry.getRequest().hasUrl();
+	}
+
+	/**
+	 * Plans searches like {@code Observation?patient=123} in the scope.
+	 */
+	private static void plan(BatchScope scope, String url) {
+		int query = url.indexOf('?');
+		if (query < 0)
+			return;
+		String path = url.substring(0, query).replaceAll("^/+", "");
+		Map<String, String[]> parameters = BatchEntryRequest.parseQuery(url.substring(query + 1));
+		String[] patients = parameters.get(AppConstants.PATIENT);
+		if (path.contains("/") || patients == null || patients.length != 1 || patients[0].contains(",")
+				|| patients[0].isEmpty() || parameters.containsKey(Constants.PARAM_LASTUPDATED))
+			return;
+
+		ResourceType type;
+		try {
+			type = ResourceType.fromCode(path);
+		} catch (Exception e) {
+			return;
+		}
+		if (type != ResourceType.Patient) {
+			String patientId = patients[0].substring(patients[0].lastIndexOf('/') + 1);
+			scope.plan(AppConstants.PERSON_ID_PREFIX + patientId, type);
+		}
+	}
+
+	private BundleEntryComponent execute(RestfulServer server, HttpServletRequest request,
+			HttpServletResponse response, String url) throws Exception {
+		BatchEntryRequest entryRequest = new BatchEntryRequest(request, url);
+		BatchEntryResponse entryResponse = new BatchEntryResponse(response);
+		if (concurrencyLimitFilter != null)
+			concurrencyLimitFilter.limit(entryRequest, entryResponse,
+					(req, res) -> server.service((HttpServletRequest) req, (HttpServletResponse) res));
+		else
+			server.service(entryRequest, entryResponse);
+
+		BundleEntryComponent entry = new BundleEntryComponent();
+		BundleEntryResponseComponent result = entry.getResponse();
+		int status = entryResponse.getStatus();
+		result.setStatus(status(status));
+		if (entryResponse.getHeader(Constants.HEADER_ETAG) != null)
+			result.setEtag(entryResponse.getHeader(Constants.HEADER_ETAG));
+		if (entryResponse.getHeader(Constants.HEADER_LOCATION) != null)
+			result.setLocation(entryResponse.getHeader(Constants.HEADER_LOCATION));
+
+		byte[] body = entryResponse.getBody();
+		if (body.length > 0) {
+			IBaseResource resource;
+			try {
+				resource = fhirContext.newJsonParser().parseResource(new String(body, StandardCharsets.UTF_8));
+			} catch (DataFormatException e) {
+				resource = outcome(status >= 400 ? IssueType.EXCEPTION : IssueType.INFORMATIONAL,
+						"Response is not a FHIR resource: " + e.getMessage());
+			}
+			if (status >= 400 && resource instanceof OperationOutcome)
+				result.setOutcome((Resource) resource);
+			else
+				entry.setResource((Resource) resource);
+		} else if (status >= 400) {
+			result.setOutcome(outcome(IssueType.PROCESSING, status(status)));
+		}
+		return entry;
+	}
+
+	private static BundleEntryComponent error(int status, IssueType type, String diagnostics) {
+		BundleEntryComponent entry = new BundleEntryComponent();
+		entry.getResponse().setStatus(status(status)).setOutcome(outcome(type, diagnostics));
+		return entry;
+	}
+
+	private static OperationOutcome outcome(IssueType type, String diagnostics) {
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(type == IssueType.INFORMATIONAL ? IssueSeverity.INFORMATION : IssueSeverity.ERROR)
+				.setCode(type).setDiagnostics(diagnostics);
+		return outcome;
+	}
+
+	private static String status(int status) {
+		HttpStatus httpStatus = HttpStatus.resolve(status);
+		return httpStatus != null ? status + " " + httpStatus.getReasonPhrase() : String.valueOf(status);
+	}
+}
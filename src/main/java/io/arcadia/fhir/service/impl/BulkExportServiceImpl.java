@@ -0,0 +1,396 @@
+package io.arcadia.fhir.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import io.arcadia.fhir.bulk.BulkExportJob;
+import io.arcadia.fhir.bulk.BulkExportJob.Status;
+import io.arcadia.fhir.bulk.ExportWatermarks;
+import io.arcadia.fhir.client.ArcadiaClient;
+import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
+import io.arcadia.fhir.query.ArcadiaSearchQuery;
+import io.arcadia.fhir.query.SearchParameterMap;
+import io.arcadia.fhir.service.BulkExportService;
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+import io.arcadia.fhir.util.TransformerUtils;
+
+/**
+ * <p>
+ * Runs {@code $export} jobs on a small pool of job threads. Every job fans out
+ * per patient onto a shared worker pool, at most
+ * {@code bulk.export.parallelism} patients of a job at a time, and streams the
+ * transformed resources into one NDJSON file per resource type. The kick-off
+ * returns at once; for a system-level export the job thread searches the
+ * patients page by page, {@code bulk.export.pageSize} at a time, as the
+ * export proceeds.
+ * </p>
+ * 
+ * <p>
+ * With {@code _since} only entities changed after the instant are transformed,
+ * see {@link TransformerUtils}. The transaction time of every completed job is
+ * recorded in {@link ExportWatermarks} for later incremental exports.
+ * </p>
+ * 
+ * <p>
+ * A failure for one patient does not fail the job. It is written as an
+ * {@link OperationOutcome} to the error file listed in the manifest. Finished
+ * jobs and their files are removed after {@code bulk.export.retentionMinutes}.
+ * </p>
+ */
+@Service("bulkExportService")
+public class BulkExportServiceImpl implements BulkExportService {
+
+	private static final Logger logger = LoggerFactory.getLogger(BulkExportServiceImpl.class);
+
+	@Autowired
+	EndPointResolver endPointResolver;
+
+	@Autowired
+	TransformerUtils transformerUtils;
+
+	@Autowired
+	ArcadiaClient arcadiaClient;
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Autowired
+	ExportWatermarks exportWatermarks;
+
+	@Value("${bulk.export.directory:${java.io.tmpdir}/arcadia-bulk-export}")
+	private String directory;
+
+	@Value("${bulk.export.parallelism:4}")
+	private int parallelism;
+
+	@Value("${bulk.export.maxConcurrentJobs:2}")
+	private int maxConcurrentJobs;
+
+	@Value("${bulk.export.retentionMinutes:60}")
+	private long retentionMinutes;
+
+	@Value("${bulk.export.pageSize:100}")
+	private int pageSize;
+
+	private final Map<String, BulkExportJob> jobs = new ConcurrentHashMap<>();
+	private final AtomicInteger runningJobs = new AtomicInteger();
+	private final ExecutorService jobExecutor = Executors.newCachedThreadPool(daemon("bulk-export-job"));
+	private volatile ExecutorService workers;
+
+	@Override
+	public BulkExportJob kickOff(String request, String scope, Collection<String> patientIds,
+			Set<ResourceType> types, Date since, boolean incremental) {
+		purgeExpiredJobs();
+		Set<ResourceType> supported = getSupportedTypes();
+		Set<ResourceType> exported = types == null || types.isEmpty() ? supported : EnumSet.copyOf(types);
+		exported.retainAll(supported);
+
+		String watermarkScope = scope + "|" + (types == null || types.isEmpty() ? "*"
+				: exported.stream().map(ResourceType::name).collect(Collectors.joining(",")));
+		if (since == null && incremental)
+			since = exportWatermarks.get(watermarkScope);
+
+		if (runningJobs.incrementAndGet() > maxConcurrentJobs) {
+			runningJobs.decrementAndGet();
+			throw new UnclassifiedServerFailureException(429, "Too many bulk exports in progress, retry later");
+		}
+		try {
+			String jobId = UUID.randomUUID().toString();
+			Path jobDirectory = Files.createDirectories(Paths.get(directory, jobId));
+			BulkExportJob job = new BulkExportJob(jobId, request, jobDirectory, exported, watermarkScope, since,
+					patientIds != null ? patientIds.size() : null);
+			jobs.put(jobId, job);
+			job.setFuture(jobExecutor.submit(() -> run(job, patientIds)));
+			logger.info("Started bulk export {} of {} patients for {} since {}", jobId,
+					patientIds != null ? patientIds.size() : "all", exported, since);
+			return job;
+		} catch (IOException e) {
+			runningJobs.decrementAndGet();
+			throw new InternalErrorException("Could not create bulk export directory: " + e.getMessage());
+		} catch (RuntimeException e) {
+			runningJobs.decrementAndGet();
+			throw e;
+		}
+	}
+
+	@Override
+	public BulkExportJob getJob(String jobId) {
+		return jobs.get(jobId);
+	}
+
+	@Override
+	public boolean cancel(String jobId) {
+		BulkExportJob job = jobs.remove(jobId);
+		if (job == null)
+			return false;
+		if (job.changeStatus(Status.IN_PROGRESS, Status.CANCELLED)) {
+			// the job thread deletes the files once its patients are done
+			job.getFuture().cancel(true);
+		} else {
+			delete(job);
+		}
+		logger.info("Cancelled bulk export {}", jobId);
+		return true;
+	}
+
+	@Override
+	public Set<ResourceType> getSupportedTypes() {
+		Set<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+		try {
+			Map<?, ?> mapped = ConfigUtils.valueMap(ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE),
+					AppConstants.RESOURCES);
+			Map<?, ?> transformed = ConfigUtils.valueMap(
+					ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE), AppConstants.RESOURCES);
+			for (Object type : mapped.keySet()) {
+				if (transformed.containsKey(type))
+					types.add(ResourceType.fromCode((String) type));
+			}
+		} catch (IOException e) {
+			throw new InternalErrorException(e.getMessage());
+		}
+		return types;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		jobExecutor.shutdownNow();
+		if (workers != null)
+			workers.shutdownNow();
+	}
+
+	/**
+	 * Exports the patients and waits for them. Every patient task holds a
+	 * permit until it finished, so once all permits are back no task can
+	 * append to the job anymore, also after the job was cancelled or failed.
+	 * 
+	 * @param patientIds Patients of the export, null for all patients, which
+	 *                   are then searched page by page as the export proceeds
+	 */
+	private void run(BulkExportJob job, Collection<String> patientIds) {
+		Semaphore permits = new Semaphore(parallelism);
+		try {
+			if (patientIds != null) {
+				for (String patientId : patientIds) {
+					if (!submit(job, permits, patientId, null))
+						break;
+				}
+			} else {
+				exportAllPatients(job, permits);
+			}
+			permits.acquire(parallelism);
+			job.close();
+			// patients which failed have to be picked up again by the next run
+			if (job.changeStatus(Status.IN_PROGRESS, Status.COMPLETED) && !job.hasErrors())
+				exportWatermarks.put(job.getWatermarkScope(), job.getTransactionTime());
+			logger.info("Bulk export {} finished with status {}", job.getId(), job.getStatus());
+		} catch (InterruptedException e) {
+			// cancelled, the tasks see the status and stop after their current type
+			permits.acquireUninterruptibly(parallelism);
+			job.close();
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("Bulk export {} failed", job.getId(), e);
+			job.setFailure(e.getMessage());
+			job.changeStatus(Status.IN_PROGRESS, Status.FAILED);
+			permits.acquireUninterruptibly(parallelism);
+			job.close();
+		} finally {
+			if (job.getStatus() == Status.CANCELLED)
+				delete(job);
+			runningJobs.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Searches all patients page by page, only the records of the current page
+	 * are held.
+	 */
+	private void exportAllPatients(BulkExportJob job, Semaphore permits) throws InterruptedException {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().matchAll();
+		int enumerated = 0;
+		for (int offset = 0;; offset += pageSize) {
+			Map searchResponse = arcadiaClient.executeSerchQuery(query.page(offset, pageSize));
+			if (searchResponse != null && searchResponse.get(AppConstants.TOTAL) instanceof Number)
+				job.setTotalPatients(((Number) searchResponse.get(AppConstants.TOTAL)).intValue());
+			List<Map> records = records(searchResponse);
+			for (Map record : records) {
+				if (!submit(job, permits, patientId(record), record))
+					return;
+				enumerated++;
+			}
+			Integer total = job.getTotalPatients();
+			if (records.size() < pageSize || (total != null && offset + pageSize >= total))
+				break;
+		}
+		job.setTotalPatients(enumerated);
+	}
+
+	/**
+	 * Waits for a permit and exports the patient on the worker pool.
+	 * 
+	 * @return false if the job was stopped and the patient not submitted
+	 */
+	private boolean submit(BulkExportJob job, Semaphore permits, String patientId, Map patientRecord)
+			throws InterruptedException {
+		permits.acquire();
+		if (job.getStatus() != Status.IN_PROGRESS) {
+			permits.release();
+			return false;
+		}
+		try {
+			workers().submit(() -> {
+				try {
+					exportPatient(job, patientId, patientRecord);
+				} finally {
+					job.patientProcessed();
+					permits.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		return true;
+	}
+
+	private void exportPatient(BulkExportJob job, String patientId, Map patientRecord) {
+		IParser parser = fhirContext.newJsonParser().setPrettyPrint(false);
+		for (ResourceType type : job.getTypes()) {
+			if (job.getStatus() != Status.IN_PROGRESS)
+				return;
+			try {
+				SearchParameterMap paramMap = new SearchParameterMap();
+				if (job.getSince() != null)
+					paramMap.setLastUpdated(new DateRangeParam(job.getSince(), null));
+				Map arcadiaData;
+				if (type == ResourceType.Patient) {
+					arcadiaData = new LinkedHashMap<>();
+					arcadiaData.put(AppConstants.PATIENT,
+							patientRecord != null ? patientRecord : findPatient(patientId));
+				} else {
+					paramMap.add(AppConstants.PATIENT, new ReferenceParam(patientId));
+					arcadiaData = endPointResolver.getArcadiaResources(type, paramMap);
+				}
+				transformerUtils.transform(type, arcadiaData, paramMap, resource -> {
+					try {
+						job.append(resource.getResourceType().name(), parser.encodeResourceToString(resource));
+					} catch (IOException e) {
+						throw new InternalErrorException("Could not write bulk export file: " + e.getMessage());
+					}
+				});
+			} catch (RuntimeException e) {
+				logger.warn("Bulk export {} could not export {} of patient {}: {}", job.getId(), type, patientId,
+						e.getMessage());
+				writeError(job, parser, "Could not export " + type + " of Patient/" + patientId + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void writeError(BulkExportJob job, IParser parser, String diagnostics) {
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(IssueType.EXCEPTION).setDiagnostics(diagnostics);
+		try {
+			job.append(ResourceType.OperationOutcome.name(), parser.encodeResourceToString(outcome));
+		} catch (IOException e) {
+			logger.error("Bulk export {} could not write error file", job.getId(), e);
+		}
+	}
+
+	private Map findPatient(String patientId) {
+		List<Map> records = records(arcadiaClient.executeSerchQuery(new ArcadiaSearchQuery().personId(patientId)));
+		return records.isEmpty() ? Collections.emptyMap() : records.get(0);
+	}
+
+	private static List<Map> records(Map searchResponse) {
+		if (searchResponse != null && searchResponse.get(AppConstants.RECORDS) instanceof List)
+			return (List<Map>) searchResponse.get(AppConstants.RECORDS);
+		return Collections.emptyList();
+	}
+
+	private static String patientId(Map record) {
+		String id = String.valueOf(record.get(AppConstants.PERSON_ID));
+		return id.startsWith(AppConstants.PERSON_ID_PREFIX) ? id.substring(AppConstants.PERSON_ID_PREFIX.length())
+				: id;
+	}
+
+	private void purgeExpiredJobs() {
+		long expiry = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+		for (Iterator<BulkExportJob> it = jobs.values().iterator(); it.hasNext();) {
+			BulkExportJob job = it.next();
+			if (job.getStatus() != Status.IN_PROGRESS && job.getTransactionTime().getTime() < expiry) {
+				it.remove();
+				delete(job);
+			}
+		}
+	}
+
+	private void delete(BulkExportJob job) {
+		job.close();
+		try {
+			for (BulkExportJob.Output output : job.getOutputs()) {
+				Files.deleteIfExists(output.getFile());
+			}
+			Files.deleteIfExists(job.getDirectory());
+		} catch (IOException e) {
+			logger.warn("Could not delete files of bulk export {}: {}", job.getId(), e.getMessage());
+		}
+	}
+
+	private ExecutorService workers() {
+		if (workers == null) {
+			synchronized (this) {
+				if (workers == null)
+					workers = Executors.newFixedThreadPool(parallelism * maxConcurrentJobs, daemon("bulk-export"));
+			}
+		}
+		return workers;
+	}
+
+	private static ThreadFactory daemon(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -14,6 +14,7 @@ import org.springframework.transaction.annotation.Transactional;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.CarePlanService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 @Service("carePlanService")
@@ -27,9 +28,12 @@ public class CarePlanServiceImpl implements CarePlanService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public CarePlan getCarePlanById(String theId) {
-		return null;
+		return resourceReader.read(ResourceType.CarePlan, theId, CarePlan.class);
 	}
 	
 	/**
@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.CareTeamService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.List;
@@ -28,9 +29,12 @@ public class CareTeamServiceImpl implements CareTeamService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public CareTeam getCareTeamById(String id) {
-		return null;
+		return resourceReader.read(ResourceType.CareTeam, id, CareTeam.class);
 	}
 
 	/**
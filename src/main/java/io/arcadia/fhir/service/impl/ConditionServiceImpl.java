@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.ConditionService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.List;
@@ -29,9 +30,12 @@ public class ConditionServiceImpl implements ConditionService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public Condition getConditionById(String theId) {
-		return null;
+		return resourceReader.read(ResourceType.Condition, theId, Condition.class);
 	}
 
 	/**
@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.DeviceService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,10 +28,12 @@ public class DeviceServiceImpl implements DeviceService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public Device getDeviceById(String theId) {
-		Device device = null;
-		return device;
+		return resourceReader.read(ResourceType.Device, theId, Device.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
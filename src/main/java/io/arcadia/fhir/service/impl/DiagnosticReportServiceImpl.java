@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.DiagnosticReportService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,10 +28,12 @@ public class DiagnosticReportServiceImpl implements DiagnosticReportService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public DiagnosticReport getDiagnosticReportById(String id) {
-		DiagnosticReport diagnosticReport = null;
-		return diagnosticReport;
+		return resourceReader.read(ResourceType.DiagnosticReport, id, DiagnosticReport.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
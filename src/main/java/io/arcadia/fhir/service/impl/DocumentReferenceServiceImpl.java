@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.DocumentReferenceService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,11 +28,13 @@ public class DocumentReferenceServiceImpl implements DocumentReferenceService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 
 	@Override
 	public DocumentReference getDocumentReferenceById(String id) {
-		DocumentReference documentReference = null;
-		return documentReference;
+		return resourceReader.read(ResourceType.DocumentReference, id, DocumentReference.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.EncounterService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -28,11 +29,13 @@ public class EncounterServiceImpl implements EncounterService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 
 	@Override
 	public Encounter getEncounterById(String id) {
-		Encounter encounter = null;
-		return encounter;
+		return resourceReader.read(ResourceType.Encounter, id, Encounter.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
@@ -0,0 +1,71 @@
+package io.arcadia.fhir.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Group;
+import org.hl7.fhir.r4.model.Group.GroupType;
+import org.hl7.fhir.r4.model.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import io.arcadia.fhir.service.GroupService;
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+
+/**
+ * <p>
+ * Serves the patient panels configured in {@code BulkGroups.json}. Arcadia has
+ * no notion of a panel, so groups only exist to scope {@code $export}.
+ * </p>
+ */
+@Service("groupService")
+public class GroupServiceImpl implements GroupService {
+
+	private static final Logger logger = LoggerFactory.getLogger(GroupServiceImpl.class);
+
+	@Override
+	public Group getGroupById(String id) {
+		Map<?, ?> groupInfo = getGroupInfo(id);
+		Group group = new Group();
+		group.setId(id);
+		group.setActual(true);
+		group.setType(GroupType.PERSON);
+		if (groupInfo.get(AppConstants.GROUP_NAME) != null)
+			group.setName(ConfigUtils.valueString(groupInfo, AppConstants.GROUP_NAME));
+		List<String> members = getMemberIds(id);
+		for (String member : members) {
+			group.addMember().setEntity(new Reference("Patient/" + member));
+		}
+		group.setQuantity(members.size());
+		return group;
+	}
+
+	@Override
+	public List<String> getMemberIds(String id) {
+		List<String> members = new ArrayList<>();
+		for (Object member : ConfigUtils.valueList(getGroupInfo(id), AppConstants.GROUP_MEMBERS)) {
+			members.add(String.valueOf(member));
+		}
+		return members;
+	}
+
+	private Map<?, ?> getGroupInfo(String id) {
+		Map<?, ?> groupsConfig;
+		try {
+			groupsConfig = ConfigUtils.getConfig(AppConstants.BULK_GROUPS_FILE);
+		} catch (IOException e) {
+			logger.error("Exception happend while reading config file: " + AppConstants.BULK_GROUPS_FILE);
+			throw new InternalErrorException(e.getMessage());
+		}
+		Map<?, ?> groups = ConfigUtils.valueMap(groupsConfig, AppConstants.GROUPS);
+		if (!(groups.get(id) instanceof Map))
+			throw new ResourceNotFoundException("Group/" + id);
+		return (Map<?, ?>) groups.get(id);
+	}
+}
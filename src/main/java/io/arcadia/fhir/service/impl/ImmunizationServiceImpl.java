@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.ImmunizationService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.List;
@@ -31,10 +32,12 @@ public class ImmunizationServiceImpl implements ImmunizationService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public Immunization getImmunizationById(String id) {
-		Immunization immunization = new Immunization();
-		return immunization;
+		return resourceReader.read(ResourceType.Immunization, id, Immunization.class);
 	}
 
 	/**
@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.LocationService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,11 +28,13 @@ public class LocationServiceImpl implements LocationService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 
   @Override
   public Location getLocationById(String id) {
-    Location location = new Location();
-    return location;
+    return resourceReader.read(ResourceType.Location, id, Location.class);
   }
   /**
 	 * Responsible for finding Arcadia entities, filter the entities based on
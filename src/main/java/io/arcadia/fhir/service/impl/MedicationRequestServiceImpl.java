@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.MedicationRequestService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.List;
@@ -29,10 +30,12 @@ public class MedicationRequestServiceImpl implements MedicationRequestService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public MedicationRequest getMedicationRequestById(String id) {
-		MedicationRequest medicationRequest = null;
-		return medicationRequest;
+		return resourceReader.read(ResourceType.MedicationRequest, id, MedicationRequest.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
@@ -1,11 +1,22 @@
 package io.arcadia.fhir.service.impl;
 
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
+import io.arcadia.fhir.query.LastNSelector;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.ObservationService;
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+import io.arcadia.fhir.util.ParamsUtil;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Observation;
@@ -27,11 +38,13 @@ public class ObservationServiceImpl implements ObservationService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
   
   @Override
   public Observation getObservationById(String id) {
-    Observation observation = null;
-    return observation;
+    return resourceReader.read(ResourceType.Observation, id, Observation.class);
   }
   /**
 	 * Responsible for finding Arcadia entities, filter the entities based on
@@ -48,4 +61,46 @@ public class ObservationServiceImpl implements ObservationService {
 
 		return transformerUtils.transform(ResourceType.Observation, arcadiaResources, paramMap);
   }
+
+  /**
+	 * Responsible for {@code Observation/$lastn}: finds the Arcadia entities of
+	 * the patient, selects the newest {@code max} rows per code with
+	 * {@link LastNSelector} and transforms only those.
+	 * 
+	 * @param paramMap Search Parameter Map with patient, category and code
+	 * @param max      Observations returned per code
+	 * @return Bundle FHIR Resource
+	 */
+  @Override
+  public Bundle lastN(SearchParameterMap paramMap, int max) {
+		Map arcadiaResources = endPointResolver.getArcadiaResources(ResourceType.Observation, paramMap);
+
+		List<Map> resourceList;
+		try {
+			resourceList = (List<Map>) ConfigUtils
+					.valueMap(ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE), AppConstants.RESOURCES)
+					.get(ResourceType.Observation.name());
+		} catch (IOException e) {
+			logger.error("Exception occured while reading config file: " + AppConstants.TRANSFORMATION_CONFIG_FILE);
+			throw new ResourceNotFoundException(e.getMessage());
+		}
+
+		LastNSelector selector = new LastNSelector(max, tokenValues(paramMap, Observation.SP_CATEGORY),
+				tokenValues(paramMap, Observation.SP_CODE));
+		return transformerUtils.transform(ResourceType.Observation, selector.select(arcadiaResources, resourceList),
+				paramMap);
+  }
+
+  /**
+	 * @return the code part of the token values, codes are matched without system
+	 */
+  private static Set<String> tokenValues(SearchParameterMap paramMap, String name) {
+		Set<String> values = new HashSet<>();
+		if (paramMap.containsKey(name)) {
+			for (TokenParam token : ParamsUtil.readTokenParams(paramMap.get(name))) {
+				values.add(token.getValue());
+			}
+		}
+		return values;
+  }
 }
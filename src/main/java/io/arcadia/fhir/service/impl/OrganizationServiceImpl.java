@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.OrganizationService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,11 +28,13 @@ public class OrganizationServiceImpl implements OrganizationService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 
 	@Override
 	public Organization getOrganizationById(String id) {
-		Organization organization = new Organization();
-		return organization;
+		return resourceReader.read(ResourceType.Organization, id, Organization.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
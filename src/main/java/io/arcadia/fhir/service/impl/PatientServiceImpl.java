@@ -5,7 +5,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.slf4j.Logger;
@@ -14,13 +13,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import io.arcadia.fhir.cache.PatientSearchCache;
 import io.arcadia.fhir.client.ArcadiaClient;
+import io.arcadia.fhir.logging.PayloadLogger;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.arcadia.fhir.metrics.PipelineStage;
+import io.arcadia.fhir.query.ArcadiaSearchQuery;
+import io.arcadia.fhir.query.PagedSearchResults;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.PatientService;
+import io.arcadia.fhir.util.AppConstants;
 import io.arcadia.fhir.util.ParamsUtil;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 @Service("patientService")
@@ -28,89 +36,113 @@ import io.arcadia.fhir.util.TransformerUtils;
 public class PatientServiceImpl implements PatientService {
 
 	private static final Logger logger = LoggerFactory.getLogger(PatientServiceImpl.class);
-	
+
 	@Autowired
 	ArcadiaClient arcadiaClient;
 	
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
+	@Autowired
+	PipelineMetrics pipelineMetrics;
+
+	@Autowired
+	PayloadLogger payloadLogger;
+
+	@Autowired
+	PatientSearchCache patientSearchCache;
+
 	@Override
 	public Patient getPatientById(String theId) {
-		Patient thePatient = new Patient();
-		return thePatient;
+		return resourceReader.read(ResourceType.Patient, theId, Patient.class);
 	}
 
 	@Override
-	public Bundle getPatientsBySearchOption(SearchParameterMap paramMap) {
+	public IBundleProvider getPatientsBySearchOption(SearchParameterMap paramMap) {
+
+		logger.debug("Inside getPatientsBySearchOption: {}", paramMap.keySet());
+
+		ArcadiaSearchQuery searchQuery = formArcadiaSearchQuery(paramMap);
+		return new PagedSearchResults((offset, size) -> searchPage(searchQuery.page(offset, size), paramMap));
+	}
+
+	/**
+	 * Fetches one page of the Arcadia search and transforms its records.
+	 */
+	private PagedSearchResults.Page searchPage(ArcadiaSearchQuery searchQuery, SearchParameterMap paramMap) {
+
+		String cacheKey = patientSearchCache.key(searchQuery, paramMap);
+		PagedSearchResults.Page cached = patientSearchCache.get(cacheKey);
+		if (cached != null)
+			return cached;
+
+		Map searchResponse;
+		long start = System.nanoTime();
+		try {
+			searchResponse = arcadiaClient.executeSerchQuery(searchQuery);
+		} finally {
+			pipelineMetrics.record(PipelineStage.ARCADIA_SEARCH, ResourceType.Patient, null, System.nanoTime() - start);
+		}
 
-		logger.info("Inside getPatientsBySearchOption: {}", paramMap);
-		
 		List<Map> patientResources = new ArrayList<Map>();
-		Map resourceMap = new HashMap<>();
+		Integer total = null;
+		if (searchResponse != null && searchResponse.get(AppConstants.RECORDS) instanceof List) {
+			patientResources = (List<Map>) searchResponse.get(AppConstants.RECORDS);
+			logger.debug("Received {} Patient resources at offset {}", patientResources.size(),
+					searchQuery.getOffset());
+			payloadLogger.log(PayloadLogger.SEARCH, "Arcadia search records for", ResourceType.Patient,
+					patientResources);
+			if (searchResponse.get(AppConstants.TOTAL) instanceof Number)
+				total = ((Number) searchResponse.get(AppConstants.TOTAL)).intValue();
+		}
 
-		String searchQuery = formArcdiaSearchQuery(paramMap);
-		Map searchResponse = arcadiaClient.executeSerchQuery(searchQuery);
-		if(searchResponse != null && searchResponse.containsKey("records")) {
-			patientResources = (List<Map>) searchResponse.get("records");
-			logger.info("Received Patient resources: {}", patientResources);
-			resourceMap.put("patient", patientResources);
+		List<String> patientIds = new ArrayList<>();
+		for (Map patientResource : patientResources) {
+			if (patientResource.get(AppConstants.PERSON_ID) != null)
+				patientIds.add(String.valueOf(patientResource.get(AppConstants.PERSON_ID)));
 		}
-		return transformerUtils.transform(ResourceType.Patient, resourceMap, paramMap);
+
+		Map resourceMap = new HashMap<>();
+		resourceMap.put(AppConstants.PATIENT, patientResources);
+		PagedSearchResults.Page page = new PagedSearchResults.Page(
+				transformerUtils.transformPage(ResourceType.Patient, resourceMap, paramMap), patientResources.size(),
+				total);
+		patientSearchCache.put(cacheKey, page, patientIds);
+		return page;
 	}
 
 	/**
 	 * Form the Arcadia search query using input parameters
 	 * 
 	 * @param paramMap : input parameters
-	 * @return Arcadia search query
+	 * @return Arcadia search query, without page
 	 */
-	private String formArcdiaSearchQuery(SearchParameterMap paramMap) {
-
-		StringBuilder paramString = new StringBuilder();
-
-		if (paramMap.containsKey(Patient.SP_NAME)) {
-			boolean isFirstTime = true;
-			if (paramString.length() > 0)
-				paramString.append("&");
-			List<String> names = ParamsUtil.readStringParams(paramMap.get(Patient.SP_NAME));
-			paramString.append("query=");
-			for (String name : names) {
-				if(isFirstTime)
-					isFirstTime=false;
-				else
-					paramString.append(" OR ");
-				paramString.append("givenName:" + name).append(" OR familyName:" + name);
-			}
-		}
+	private ArcadiaSearchQuery formArcadiaSearchQuery(SearchParameterMap paramMap) {
 
-		if (paramMap.containsKey(Patient.SP_FAMILY)) {
-			if (paramString.length() > 0)
-				paramString.append("&");
-			List<String> names = ParamsUtil.readStringParams(paramMap.get(Patient.SP_FAMILY));
-			paramString.append("query=").append("familyName:" + names.get(0));
-		}
+		ArcadiaSearchQuery searchQuery = new ArcadiaSearchQuery();
+
+		if (paramMap.containsKey(Patient.SP_NAME))
+			searchQuery.anyName(ParamsUtil.readStringParams(paramMap.get(Patient.SP_NAME)));
+
+		if (paramMap.containsKey(Patient.SP_FAMILY))
+			searchQuery.familyName(ParamsUtil.readStringParams(paramMap.get(Patient.SP_FAMILY)).get(0));
 
 		if (paramMap.containsKey(Patient.SP_BIRTHDATE)) {
-			if (paramString.length() > 0)
-				paramString.append("&");
 			List<DateParam> dates = ParamsUtil.readDateParams(paramMap.get(Patient.SP_BIRTHDATE));
-			paramString.append("birthDate=").append(dates.get(0).getValueAsString());
+			searchQuery.birthDate(dates.get(0).getValueAsString());
 		}
 
 		if (paramMap.containsKey(Patient.SP_RES_ID)) {
-			if (paramString.length() > 0)
-				paramString.append("&");
 			List<TokenParam> tokens = ParamsUtil.readTokenParams(paramMap.get(Patient.SP_RES_ID));
-			paramString.append("id=").append("urn:doid:arcadia.io:person!").append(tokens.get(0).getValue());
+			searchQuery.personId(tokens.get(0).getValue());
 		}
 		
 		if (paramMap.containsKey(Patient.SP_IDENTIFIER)) {
 			List<TokenParam> tokens = ParamsUtil.readTokenParams(paramMap.get(Patient.SP_IDENTIFIER));
 			for (TokenParam tokenParam : tokens) {
-				if (paramString.length() > 0)
-					paramString.append("&");
-
 				String[] codeAndValue;
 				if (tokenParam.getValue().contains("|"))
 					codeAndValue = tokenParam.getValue().split("\\|");
@@ -118,38 +150,29 @@ public class PatientServiceImpl implements PatientService {
 					throw new InvalidRequestException("Code is mandatory to identify the Identifier");
 
 				if (codeAndValue[0].equals("MR"))
-					paramString.append("mrn=" + codeAndValue[1]);
+					searchQuery.mrn(codeAndValue[1]);
 				else if (codeAndValue[0].equals("MC"))
-					paramString.append("medicareId=" + codeAndValue[1]);
+					searchQuery.medicareId(codeAndValue[1]);
 				else
 					throw new InvalidRequestException("Unknown Identifier");
 			}
 		}
 
 		if (paramMap.containsKey(Patient.SP_GENDER)) {
-			if (paramString.length() > 0)
-				paramString.append("&");
 			List<TokenParam> tokens = ParamsUtil.readTokenParams(paramMap.get(Patient.SP_GENDER));
 			switch (tokens.get(0).getValue()) {
 			case "male":
-				paramString.append("sex=m");
+				searchQuery.sex("m");
 				break;
 			case "female":
-				paramString.append("sex=f");
+				searchQuery.sex("f");
 				break;
 			default:
 				throw new InvalidRequestException("Unknown gender type");
 			}
 		}
 
-		if (!paramString.toString().contains("query")) {
-			if (paramString.length() > 0)
-				paramString.append("&");
-			paramString.append("query=*");
-		}
-
-		logger.info("Final arcadia search query: {}", paramString);
-		return paramString.toString();
+		return searchQuery.matchAll();
 	}
 
 }
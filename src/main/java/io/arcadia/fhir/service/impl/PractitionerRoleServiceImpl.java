@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.PractitionerRoleService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,11 +28,13 @@ public class PractitionerRoleServiceImpl implements PractitionerRoleService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 
 	@Override
 	public PractitionerRole getPractitionerRoleById(String id) {
-		PractitionerRole practitionerRole = null;
-		return practitionerRole;
+		return resourceReader.read(ResourceType.PractitionerRole, id, PractitionerRole.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
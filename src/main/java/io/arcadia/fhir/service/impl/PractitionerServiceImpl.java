@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.PractitionerService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.List;
@@ -29,10 +30,12 @@ public class PractitionerServiceImpl implements PractitionerService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 	@Override
 	public Practitioner getPractitionerById(String theId) {
-		Practitioner practitioner = null;
-		return practitioner;
+		return resourceReader.read(ResourceType.Practitioner, theId, Practitioner.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
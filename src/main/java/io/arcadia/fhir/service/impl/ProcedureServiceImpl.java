@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.ProcedureService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.List;
@@ -28,10 +29,12 @@ public class ProcedureServiceImpl implements ProcedureService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
   @Override
   public Procedure getProcedureById(String theId) {
-    Procedure procedure = null;
-    return procedure;
+    return resourceReader.read(ResourceType.Procedure, theId, Procedure.class);
   }
   /**
 	 * Responsible for finding Arcadia entities, filter the entities based on
@@ -3,6 +3,7 @@ package io.arcadia.fhir.service.impl;
 import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
 import io.arcadia.fhir.query.SearchParameterMap;
 import io.arcadia.fhir.service.ProvenanceService;
+import io.arcadia.fhir.util.ResourceReader;
 import io.arcadia.fhir.util.TransformerUtils;
 
 import java.util.Map;
@@ -27,11 +28,13 @@ public class ProvenanceServiceImpl implements ProvenanceService {
 	@Autowired
 	TransformerUtils transformerUtils;
 
+	@Autowired
+	ResourceReader resourceReader;
+
 
 	@Override
 	public Provenance getProvenanceById(String theId) {
-		Provenance provenance = null;
-		return provenance;
+		return resourceReader.read(ResourceType.Provenance, theId, Provenance.class);
 	}
 	/**
 	 * Responsible for finding Arcadia entities, filter the entities based on
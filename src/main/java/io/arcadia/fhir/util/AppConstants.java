@@ -12,6 +12,8 @@ public interface AppConstants {
 
 	String TRANSFORMATION_CONFIG_FILE = "TransformationConfig.json";
 
+	String BULK_GROUPS_FILE = "BulkGroups.json";
+
 	String ARCADIA_BASE_URL = "arcadiaBaseUrl";
 
 	String ARCADIA_RESOURCE_URL = "resourceUrl";
@@ -52,6 +54,9 @@ public interface AppConstants {
 
 	String RECORDS = "records";
 
+	/** Total number of matches in a search response, if the search service reports it. */
+	String TOTAL = "total";
+
 	String DATA = "data";
 
 	String PERSON = "person";
@@ -78,8 +83,44 @@ public interface AppConstants {
 
 	String PROVENANCE_STRUCTURE_MAP = "provenanceStructureMap";
 
+	String PROVENANCE_TEMPLATE = "provenanceTemplate";
+
 	String TOKEN_PREFIX = "Bearer ";
 
 	String APPLICATION_FHIR_JSON_TYPE = "application/fhir+json;fhirVersion=4.0";
 
+	String APPLICATION_FHIR_NDJSON_TYPE = "application/fhir+ndjson";
+
+	String GROUPS = "groups";
+
+	String GROUP_NAME = "name";
+
+	String GROUP_MEMBERS = "members";
+
+	String OPERATION_EXPORT = "$export";
+
+	String OPERATION_LASTN = "$lastn";
+
+	String LAST_N = "lastN";
+
+	String CATEGORY = "category";
+
+	String CODE_FIELDS = "codeFields";
+
+	String EFFECTIVE_DATE_FIELDS = "effectiveDateFields";
+
+	String SINCE_QUERY_SYNTAX = "sinceQuerySyntax";
+
+	String SINCE_PLACEHOLDER = "<since>";
+
+	/**
+	 * Arcadia timestamp fields telling when an entity last changed, in order of
+	 * preference. Only used if they are listed in the {@code dateFields}.
+	 */
+	String[] LAST_MODIFIED_FIELDS = { "modify_timestamp", "modifyTimestamp", "create_timestamp",
+			"createTimestamp" };
+
+	/** Format of Arcadia timestamps, which carry no zone and are read as UTC. */
+	String ARCADIA_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
 }
\ No newline at end of file
@@ -1,9 +1,9 @@
 package io.arcadia.fhir.util;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.OperationOutcome;
@@ -37,7 +37,7 @@ public class ConfigUtils {
 
 	private static final Logger logger = LoggerFactory.getLogger(ConfigUtils.class);
 
-	private static final HashMap<String, Map> CONFIG_CACHE = new HashMap<String, Map>();
+	private static final Map<String, Map> CONFIG_CACHE = new ConcurrentHashMap<String, Map>();
 
 	/**
 	 * Reads the JSON config file from <strong>Config Cache</strong>. If not found
@@ -51,7 +51,7 @@ public class ConfigUtils {
 	 */
 	public static Map<String, Map> getConfig(String resource) throws IOException {
 		if (null != CONFIG_CACHE && !CONFIG_CACHE.containsKey(resource)) {
-			logger.info("Could not find config for resource: " + resource + " in cache. Loading from resource folder");
+			logger.info("Could not find config for resource: {} in cache. Loading from resource folder", resource);
 			CONFIG_CACHE.put(resource, JSONUtil.convertResourceJSONFileToMap(resource));
 		}
 		return CONFIG_CACHE.get(resource);
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -122,6 +123,31 @@ public interface JSONUtil {
 		return json;
 	}
 
+	/**
+	 * Deep copy of parsed JSON, i.e. nested Maps and Lists. Other values are
+	 * immutable and shared.
+	 * 
+	 * @param value Parsed JSON
+	 * @return copy which can be modified without affecting the original
+	 */
+	public static Object deepCopy(Object value) {
+		if (value instanceof Map) {
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), deepCopy(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value instanceof List) {
+			List<Object> copy = new ArrayList<>(((List<?>) value).size());
+			for (Object element : (List<?>) value) {
+				copy.add(deepCopy(element));
+			}
+			return copy;
+		}
+		return value;
+	}
+
 	/**
 	 * Reads a JSON File from a specified path and convert it into JSON String
 	 * 
@@ -0,0 +1,154 @@
+package io.arcadia.fhir.util;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Provenance;
+import org.hl7.fhir.r4.model.Provenance.ProvenanceAgentComponent;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Builds the Provenance of a transformed resource in process from a
+ * declarative {@code provenanceTemplate} in {@code TransformationConfig.json},
+ * instead of a second call to the Transformation and Validation services per
+ * entity.
+ * </p>
+ * 
+ * <p>
+ * A template looks like
+ * </p>
+ * 
+ * <pre>
+ * "provenanceTemplate": {
+ *   "profile": "http://hl7.org/fhir/us/core/StructureDefinition/us-core-provenance",
+ *   "recordedFields": ["modify_timestamp", "create_timestamp"],
+ *   "activity": {"system": "...", "code": "UPDATE"},
+ *   "agents": [
+ *     {"type": {"system": "...", "code": "author"}, "whoReference": "Organization/${org_id}", "whoDisplay": "Arcadia"}
+ *   ]
+ * }
+ * </pre>
+ * 
+ * <p>
+ * {@code ${field}} placeholders are replaced with fields of the Arcadia
+ * entity, after its dates were converted. An element whose placeholders can
+ * not all be resolved is left out. The target is the transformed resource
+ * itself, so its id is always the one the client received.
+ * </p>
+ */
+@Component
+public class ProvenanceBuilder {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProvenanceBuilder.class);
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	/**
+	 * @param template        Provenance template
+	 * @param arcadiaResource Arcadia entity the target was transformed from
+	 * @param target          Transformed resource
+	 * @return the Provenance of the target
+	 */
+	public Provenance build(Map<?, ?> template, Map<?, ?> arcadiaResource, Resource target) {
+		Provenance provenance = new Provenance();
+		String targetType = target.getResourceType().name();
+		String targetId = target.getIdElement().getIdPart();
+		if (targetId != null)
+			provenance.setId(id(targetType, targetId));
+		if (template.get("profile") != null)
+			provenance.getMeta().addProfile((String) template.get("profile"));
+
+		provenance.addTarget(new Reference(targetType + "/" + targetId));
+		provenance.setRecordedElement(recorded(template, arcadiaResource));
+
+		if (template.get("activity") instanceof Map)
+			provenance.setActivity(codeableConcept((Map<?, ?>) template.get("activity")));
+
+		if (template.get("agents") instanceof List) {
+			for (Object agentTemplate : (List<?>) template.get("agents")) {
+				ProvenanceAgentComponent agent = agent((Map<?, ?>) agentTemplate, arcadiaResource);
+				if (agent != null)
+					provenance.addAgent(agent);
+			}
+		}
+		return provenance;
+	}
+
+	private InstantType recorded(Map<?, ?> template, Map<?, ?> arcadiaResource) {
+		if (template.get("recordedFields") instanceof List) {
+			for (Object field : (List<?>) template.get("recordedFields")) {
+				Object value = arcadiaResource.get(field);
+				if (value == null)
+					continue;
+				try {
+					return new InstantType(value.toString());
+				} catch (RuntimeException e) {
+					logger.debug("Could not use {} as Provenance.recorded: {}", field, value);
+				}
+			}
+		}
+		// recorded is mandatory, the time of rendering is the best remaining guess
+		return new InstantType(new Date());
+	}
+
+	private ProvenanceAgentComponent agent(Map<?, ?> template, Map<?, ?> arcadiaResource) {
+		Reference who = new Reference();
+		String reference = resolve(template.get("whoReference"), arcadiaResource);
+		if (reference != null)
+			who.setReference(reference);
+		String display = resolve(template.get("whoDisplay"), arcadiaResource);
+		if (display != null)
+			who.setDisplay(display);
+		if (who.isEmpty())
+			return null;
+
+		ProvenanceAgentComponent agent = new ProvenanceAgentComponent();
+		agent.setWho(who);
+		if (template.get("type") instanceof Map)
+			agent.setType(codeableConcept((Map<?, ?>) template.get("type")));
+		String onBehalfOf = resolve(template.get("onBehalfOfReference"), arcadiaResource);
+		if (onBehalfOf != null)
+			agent.setOnBehalfOf(new Reference(onBehalfOf));
+		return agent;
+	}
+
+	private static CodeableConcept codeableConcept(Map<?, ?> coding) {
+		return new CodeableConcept().addCoding(new Coding((String) coding.get("system"), (String) coding.get("code"),
+				(String) coding.get("display")));
+	}
+
+	/**
+	 * @return the value with its placeholders replaced, or null if it is empty
+	 *         or a placeholder has no value
+	 */
+	private static String resolve(Object value, Map<?, ?> arcadiaResource) {
+		if (value == null || value.toString().isEmpty())
+			return null;
+		Matcher matcher = PLACEHOLDER.matcher(value.toString());
+		StringBuffer resolved = new StringBuffer();
+		while (matcher.find()) {
+			Object field = arcadiaResource.get(matcher.group(1));
+			if (field == null || field.toString().isEmpty())
+				return null;
+			matcher.appendReplacement(resolved, Matcher.quoteReplacement(field.toString()));
+		}
+		matcher.appendTail(resolved);
+		return resolved.toString();
+	}
+
+	private static String id(String targetType, String targetId) {
+		String id = targetType.toLowerCase() + "-" + targetId + "-provenance";
+		return id.length() <= 64 ? id : id.substring(id.length() - 64);
+	}
+}
@@ -0,0 +1,129 @@
+package io.arcadia.fhir.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import io.arcadia.fhir.cache.IdIndex;
+import io.arcadia.fhir.cache.RenderedResourceCache;
+import io.arcadia.fhir.dynamicapi.resolver.EndPointResolver;
+import io.arcadia.fhir.query.SearchParameterMap;
+
+/**
+ * <p>
+ * Serves {@code @Read} requests of all resource types.
+ * </p>
+ * 
+ * <p>
+ * A read is answered from the {@link RenderedResourceCache} if possible.
+ * Otherwise the Arcadia entity is located with the {@link IdIndex}, which knows
+ * every id rendered by an earlier search. Ids not in the index are looked up by
+ * trying the id as the key of each Arcadia entity type mapped to the resource
+ * type in {@code TransformationConfig.json}. Only the one entity found is
+ * transformed.
+ * </p>
+ */
+@Component
+public class ResourceReader {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResourceReader.class);
+
+	@Autowired
+	EndPointResolver endPointResolver;
+
+	@Autowired
+	TransformerUtils transformerUtils;
+
+	@Autowired
+	IdIndex idIndex;
+
+	@Autowired
+	RenderedResourceCache renderedResourceCache;
+
+	/**
+	 * @param type  FHIR {@link ResourceType}
+	 * @param id    Logical id of the resource
+	 * @param clazz Class of the resource
+	 * @return the resource
+	 * @throws ResourceNotFoundException if there is no such resource
+	 */
+	public <T extends Resource> T read(ResourceType type, String id, Class<T> clazz) {
+		logger.debug("Inside read for {}/{}", type, id);
+
+		Resource cached = renderedResourceCache.get(type, id);
+		if (cached != null)
+			return clazz.cast(cached);
+
+		Map<String, String> idFields = getIdFields(type);
+		List<IdIndex.Entry> candidates = new ArrayList<>();
+		IdIndex.Entry indexed = idIndex.get(type, id);
+		if (indexed != null) {
+			candidates.add(indexed);
+		} else {
+			for (String arcadiaResourceName : idFields.keySet()) {
+				candidates.add(new IdIndex.Entry(null, arcadiaResourceName, id));
+			}
+		}
+
+		for (IdIndex.Entry candidate : candidates) {
+			String arcadiaResourceName = candidate.getArcadiaResourceName();
+			Map entity = endPointResolver.getArcadiaEntity(type, arcadiaResourceName,
+					idFields.getOrDefault(arcadiaResourceName, AppConstants.PERSON_ID), candidate.getEntityKey(),
+					candidate.getPersonId());
+			if (entity == null)
+				continue;
+
+			Map arcadiaData = new HashMap<>();
+			arcadiaData.put(arcadiaResourceName, entity);
+			List<Resource> rendered = new ArrayList<>();
+			transformerUtils.transform(type, arcadiaData, new SearchParameterMap(), resource -> {
+				if (resource.getResourceType() == type)
+					rendered.add(resource);
+			});
+			if (!rendered.isEmpty()) {
+				Resource resource = rendered.get(0);
+				renderedResourceCache.put(type, id, resource);
+				return clazz.cast(resource);
+			}
+		}
+		throw new ResourceNotFoundException(new IdType(type.name(), id));
+	}
+
+	/**
+	 * @return id field per Arcadia entity type mapped to the resource type
+	 */
+	private Map<String, String> getIdFields(ResourceType type) {
+		Map<?, ?> transformationConfig;
+		try {
+			transformationConfig = ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE);
+		} catch (IOException e) {
+			logger.error("Exception occured while reading config file: " + AppConstants.TRANSFORMATION_CONFIG_FILE);
+			throw new InternalErrorException(e.getMessage());
+		}
+		Object resourceList = ConfigUtils.valueMap(transformationConfig, AppConstants.RESOURCES).get(type.toString());
+		if (!(resourceList instanceof List))
+			return Collections.emptyMap();
+
+		Map<String, String> idFields = new LinkedHashMap<>();
+		for (Map resourceInfo : (List<Map>) resourceList) {
+			Object idField = resourceInfo.get(AppConstants.ID_FIELD);
+			idFields.put((String) resourceInfo.get(AppConstants.ARCADIA_RESOURCE_NAME),
+					idField != null ? (String) idField : AppConstants.PERSON_ID);
+		}
+		return idFields;
+	}
+}
@@ -10,9 +10,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.Consumer;
 
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.SearchEntryMode;
 import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverityEnumFactory;
 import org.hl7.fhir.r4.model.OperationOutcome.IssueTypeEnumFactory;
@@ -21,6 +26,7 @@ import org.hl7.fhir.r4.model.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
@@ -28,13 +34,27 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.valueset.BundleEntrySearchModeEnum;
+import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import io.arcadia.fhir.cache.IdIndex;
+import io.arcadia.fhir.cache.RenderedBundleCache;
 import io.arcadia.fhir.client.TransformClient;
 import io.arcadia.fhir.client.ValidationClient;
+import io.arcadia.fhir.exception.DownstreamUnavailableException;
+import io.arcadia.fhir.include.IncludeResolver;
+import io.arcadia.fhir.logging.PayloadLogger;
+import io.arcadia.fhir.metrics.PipelineMetrics;
+import io.arcadia.fhir.metrics.PipelineStage;
 import io.arcadia.fhir.query.SearchParameterMap;
+import io.arcadia.fhir.resilience.Downstream;
+import io.arcadia.fhir.resilience.DownstreamGuard;
 
 /**
  * <p>
@@ -56,6 +76,14 @@ public class TransformerUtils {
 
 	private static final Logger logger = LoggerFactory.getLogger(TransformerUtils.class);
 
+	private static final String PROVENANCE_TARGET = "Provenance:target";
+
+	private static final ThreadLocal<DateFormat> ARCADIA_DATE_FORMAT = ThreadLocal.withInitial(() -> {
+		DateFormat format = new SimpleDateFormat(AppConstants.ARCADIA_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	});
+
 	@Autowired
 	FhirContext fhirContext;
 
@@ -65,88 +93,106 @@ public class TransformerUtils {
 	@Autowired
 	ValidationClient validationClient;
 
-	/**
-	 * This method is used when a FHIR Resource is mapped to only one Arcadia entity.
-	 * 
-	 * @param type FHIR {@link ResourceType}
-	 * @param arcadiaResouceList List of Arcadia entities of same type.
-	 * @param paramMap Input parameters 
-	 * @return The Bundle of FHIR Resources. Bundle itself is a FHIR {@link Resource}
-	 */
-	public Bundle transform(ResourceType type, List<Map> arcadiaResouceList, SearchParameterMap paramMap) {
+	@Autowired
+	PipelineMetrics pipelineMetrics;
 
-		logger.info("Inside transform method for Resource " + type + " and Arcadia Entities: " + arcadiaResouceList);
+	@Autowired
+	PayloadLogger payloadLogger;
 
-		Bundle bundle = new Bundle();
+	@Autowired
+	DownstreamGuard downstreamGuard;
 
-		List<BundleEntryComponent> fhirResources = new ArrayList<>();
-		boolean includeProvenance = false;
+	@Autowired
+	RenderedBundleCache renderedBundleCache;
 
-		// Reading config file
-		Map<?, ?> transformationConfig = null;
-		try {
-			transformationConfig = ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE);
-		} catch (IOException e) {
-			logger.error("Exception occured while reading config file: " + AppConstants.TRANSFORMATION_CONFIG_FILE);
-			throw new ResourceNotFoundException(e.getMessage());
-		}
+	@Autowired
+	IdIndex idIndex;
 
-		Map<?, ?> resourceInfo = ConfigUtils.valueMap(ConfigUtils.valueMap(transformationConfig, AppConstants.RESOURCES), type.toString());
+	@Autowired
+	IncludeResolver includeResolver;
 
-		// Reading resource related info
-		String structureDefinition = ConfigUtils.valueString(resourceInfo, AppConstants.STRUCTURE_DEFINITION);
-		String structureMap = ConfigUtils.valueString(resourceInfo, AppConstants.STRUCTURE_MAP);
-		String resourceProfileUrl = ConfigUtils.valueString(resourceInfo, AppConstants.RESOURCE_PROFILE_URL);
-		List<String> dateFields = ConfigUtils.valueList(resourceInfo, AppConstants.DATE_FIELDS);
-		String provenanceStructureDefinition = ConfigUtils.valueString(resourceInfo, AppConstants.PROVENANCE_STRUCTURE_DEFINITION);
-		String provenanceStructureMap = ConfigUtils.valueString(resourceInfo, AppConstants.PROVENANCE_STRUCTURE_MAP);
+	@Autowired
+	ProvenanceBuilder provenanceBuilder;
 
-		if (paramMap.getRevIncludes().size() > 0) {
-			if (resolveAndGetRevIncludeValue(paramMap.getRevIncludes()).equals("Provenance:target")) {
-				includeProvenance = true;
-			}
-		}
+	@Value("${resilience.validation.skipWhenUnavailable:false}")
+	private boolean skipValidationWhenUnavailable;
 
-		for (Map arcadiaResource : arcadiaResouceList) {
+	/**
+	 * This method is used when a FHIR Resource is mapped to one or more Arcadia entities.
+	 * 
+	 * @param type FHIR {@link ResourceType}
+	 * @param arcadiaData Collection of Arcadia entities of multiple entity type.
+	 * @param paramMap Input parameters 
+	 * @return The Bundle of FHIR Resources. Bundle itself is a FHIR {@link Resource}.
+	 *         When served from the {@link RenderedBundleCache} it is a placeholder,
+	 *         to be returned to HAPI unchanged
+	 * @throws NotModifiedException if the client already has the current version,
+	 *                              see {@link RenderedBundleCache}
+	 */
+	public Bundle transform(ResourceType type, Map arcadiaData, SearchParameterMap paramMap) {
+		return renderedBundleCache.render(type, arcadiaData, paramMap, () -> render(type, arcadiaData, paramMap));
+	}
 
-			convertDateFormat(arcadiaResource, dateFields);
+	/**
+	 * Transforms one page of a paged search. Pages bypass the
+	 * {@link RenderedBundleCache}, its fingerprints cover complete searches.
+	 * 
+	 * @param type FHIR {@link ResourceType}
+	 * @param arcadiaData Arcadia entities of the page
+	 * @param paramMap Input parameters 
+	 * @return the matches and included resources, with their search mode set
+	 */
+	public List<IBaseResource> transformPage(ResourceType type, Map arcadiaData, SearchParameterMap paramMap) {
+		List<IBaseResource> resources = new ArrayList<>();
+		for (BundleEntryComponent entry : render(type, arcadiaData, paramMap).getEntry()) {
+			ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.put(entry.getResource(),
+					entry.getSearch().getMode() == SearchEntryMode.INCLUDE ? BundleEntrySearchModeEnum.INCLUDE
+							: BundleEntrySearchModeEnum.MATCH);
+			resources.add(entry.getResource());
+		}
+		return resources;
+	}
 
-			arcadiaResource.put(AppConstants.RESOURCE_TYPE, structureDefinition);
-			String fhirResource = getFhirResource(structureMap, arcadiaResource, type);
-			if (isValidResource(resourceProfileUrl, fhirResource))
-				fhirResources.add(toEntryComponent(fhirResource));
+	private Bundle render(ResourceType type, Map arcadiaData, SearchParameterMap paramMap) {
 
-			if (includeProvenance) {
-				arcadiaResource.put(AppConstants.RESOURCE_TYPE, provenanceStructureDefinition);
-				String provenanceString = getFhirResource(provenanceStructureMap, arcadiaResource,
-						ResourceType.Provenance);
-				if (isValidResource(resourceProfileUrl, provenanceString))
-					fhirResources.add(toEntryComponent(provenanceString));
-			}
-		}
+		long start = System.nanoTime();
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+
+		List<BundleEntryComponent> fhirResources = new ArrayList<>();
+		transform(type, arcadiaData, paramMap, resource -> {
+			BundleEntryComponent entry = new BundleEntryComponent().setResource(resource);
+			entry.getSearch().setMode(resource.getResourceType() == type ? SearchEntryMode.MATCH
+					: SearchEntryMode.INCLUDE);
+			fhirResources.add(entry);
+		});
 
 		bundle.setEntry(fhirResources);
-		logger.info("Returning Bundle for Resource: " + type);
+		includeResolver.resolve(type, bundle, paramMap.getIncludes());
+		pipelineMetrics.record(PipelineStage.BUNDLE_ASSEMBLY, type, null, System.nanoTime() - start);
+		logger.debug("Returning Bundle for Resource: {}", type);
 
 		return bundle;
 	}
 
 	/**
-	 * This method is used when a FHIR Resource is mapped to more than one Arcadia entities.
+	 * Streaming variant of {@link #transform(ResourceType, Map, SearchParameterMap)}
+	 * which hands every valid FHIR resource to the sink as soon as it is
+	 * transformed instead of collecting them in a Bundle.
 	 * 
 	 * @param type FHIR {@link ResourceType}
 	 * @param arcadiaData Collection of Arcadia entities of multiple entity type.
 	 * @param paramMap Input parameters 
-	 * @return The Bundle of FHIR Resources. Bundle itself is a FHIR {@link Resource}
+	 * @param sink Receives the FHIR resources, including Provenance resources if requested
 	 */
-	public Bundle transform(ResourceType type, Map arcadiaData, SearchParameterMap paramMap) {
-
-		logger.info("Inside transform method for Resource " + type + " and Arcadia Entities: " + arcadiaData);
+	public void transform(ResourceType type, Map arcadiaData, SearchParameterMap paramMap, Consumer<Resource> sink) {
 
-		Bundle bundle = new Bundle();
+		logger.debug("Inside transform method for Resource {} with {} Arcadia Entity types", type, arcadiaData.size());
+		payloadLogger.log(PayloadLogger.TRANSFORM, "Arcadia entities for", type, arcadiaData);
 
-		List<BundleEntryComponent> fhirResources = new ArrayList<>();
 		boolean includeProvenance = false;
+		Date since = paramMap.getLastUpdated() != null ? paramMap.getLastUpdated().getLowerBoundAsInstant() : null;
+		String personId = personIdOf(paramMap);
 
 		// Reading config file
 		Map<?, ?> transformationConfig = null;
@@ -164,6 +210,9 @@ public class TransformerUtils {
 
 			// Reading resource related info
 			String arcadiaResourceName = (String) resourceInfo.get(AppConstants.ARCADIA_RESOURCE_NAME);
+			Map<?, ?> provenanceTemplate = (Map<?, ?>) (resourceInfo.containsKey(AppConstants.PROVENANCE_TEMPLATE)
+					? resourceInfo.get(AppConstants.PROVENANCE_TEMPLATE)
+					: transformationConfig.get(AppConstants.PROVENANCE_TEMPLATE));
 
 			String structureDefinition = (String) resourceInfo.get(AppConstants.STRUCTURE_DEFINITION);
 			String structureMap = (String) resourceInfo.get(AppConstants.STRUCTURE_MAP);
@@ -172,9 +221,12 @@ public class TransformerUtils {
 			String provenanceStructureDefinition = (String) resourceInfo
 					.get(AppConstants.PROVENANCE_STRUCTURE_DEFINITION);
 			String provenanceStructureMap = (String) resourceInfo.get(AppConstants.PROVENANCE_STRUCTURE_MAP);
+			String idField = resourceInfo.get(AppConstants.ID_FIELD) != null
+					? (String) resourceInfo.get(AppConstants.ID_FIELD)
+					: AppConstants.PERSON_ID;
 
 			if (paramMap.getRevIncludes().size() > 0) {
-				if (resolveAndGetRevIncludeValue(paramMap.getRevIncludes()).equals("Provenance:target")) {
+				if (hasRevInclude(paramMap.getRevIncludes(), PROVENANCE_TARGET)) {
 					includeProvenance = true;
 				}
 			}
@@ -187,55 +239,78 @@ public class TransformerUtils {
 				arcadiaResources.addAll((List<Map>) resourceObj);
 			}
 
+			if (since != null)
+				arcadiaResources = changedSince(arcadiaResources, dateFields, since, arcadiaResourceName);
+
+			pipelineMetrics.recordEntities(type, arcadiaResourceName, arcadiaResources.size());
+
 			for (Map arcadiaResource : arcadiaResources) {
 
-				convertDateFormat(arcadiaResource, dateFields);
+				convertDateFormat(arcadiaResource, dateFields, type, structureMap);
 
 				arcadiaResource.put(AppConstants.RESOURCE_TYPE, structureDefinition);
 				String fhirResource = getFhirResource(structureMap, arcadiaResource, type);
-				if (isValidResource(resourceProfileUrl, fhirResource))
-					fhirResources.add(toEntryComponent(fhirResource));
+				Resource resource = null;
+				if (isValidResource(resourceProfileUrl, fhirResource, type, structureMap)) {
+					resource = parse(fhirResource, type, structureMap);
+					index(type, resource, personId, arcadiaResourceName, arcadiaResource.get(idField));
+					sink.accept(resource);
+				}
 
-				if (includeProvenance) {
+				if (includeProvenance && provenanceTemplate != null) {
+					// a Provenance without its target would point nowhere
+					if (resource != null) {
+						long start = System.nanoTime();
+						sink.accept(provenanceBuilder.build(provenanceTemplate, arcadiaResource, resource));
+						pipelineMetrics.record(PipelineStage.PROVENANCE, type, structureMap, System.nanoTime() - start);
+					}
+				} else if (includeProvenance) {
 					arcadiaResource.put(AppConstants.RESOURCE_TYPE, provenanceStructureDefinition);
 					String provenanceString = getFhirResource(provenanceStructureMap, arcadiaResource,
 							ResourceType.Provenance);
-					if (isValidResource(resourceProfileUrl, provenanceString))
-						fhirResources.add(toEntryComponent(provenanceString));
+					if (isValidResource(resourceProfileUrl, provenanceString, ResourceType.Provenance,
+							provenanceStructureMap))
+						sink.accept(parse(provenanceString, ResourceType.Provenance, provenanceStructureMap));
 				}
 			}
 		}
-
-		bundle.setEntry(fhirResources);
-		logger.info("Returning Bundle for Resource: " + type);
-
-		return bundle;
 	}
 
 	private String getFhirResource(String structureMap, Map<String, String> arcadiaResource, ResourceType type) {
 
 		String fhirResource = null;
+		long start = System.nanoTime();
 		try {
-			logger.debug(
-					"Calling Transformation service for Resource " + type + " and Arcadia Entity: " + arcadiaResource);
+			logger.debug("Calling Transformation service for Resource {} with StructureMap {}", type, structureMap);
 			fhirResource = transformClient.getFhirResource(structureMap, arcadiaResource);
 		} catch (WebClientResponseException e) {
 			logger.error("Transoformation failed for Resource " + type
 					+ ". Converting response into OperationOutcome. Error message: " + e.getMessage());
 			OperationOutcome outcome = toOperationOutcome(e.getResponseBodyAsString());
 			throw new UnclassifiedServerFailureException(e.getRawStatusCode(), null, outcome);
+		} catch (DownstreamUnavailableException e) {
+			throw e;
 		} catch (Exception e) {
 			logger.error("Exception occured while calling transformation service. Error message: " + e.getMessage());
 			throw new InternalErrorException(e.getMessage());
+		} finally {
+			pipelineMetrics.record(PipelineStage.TRANSFORM, type, structureMap, System.nanoTime() - start);
 		}
 
-		logger.debug("Transformation completed for Resource " + type + " Arcadia Entity: " + arcadiaResource);
+		logger.debug("Transformation completed for Resource {}", type);
+		payloadLogger.log(PayloadLogger.TRANSFORM, "Transformed", type, fhirResource);
 
 		return fhirResource;
 	}
 
-	private boolean isValidResource(String resourceProfileUrl, String fhirResource) {
+	private boolean isValidResource(String resourceProfileUrl, String fhirResource, ResourceType type,
+			String structureMap) {
 		boolean isValid = true;
+		if (skipValidationWhenUnavailable && downstreamGuard.isOpen(Downstream.VALIDATION)) {
+			pipelineMetrics.skippedValidation(type, structureMap);
+			return true;
+		}
+		long start = System.nanoTime();
 		try {
 			String validationOutcome = validationClient.validateFhirResource(resourceProfileUrl, fhirResource);
 
@@ -246,13 +321,19 @@ public class TransformerUtils {
 			for (Map issue : issues) {
 				String severity = (String) issue.get("severity");
 				if (severity != null && (severity.equalsIgnoreCase("error") || severity.equalsIgnoreCase("fatal"))) {
-					logger.info("Found errors while validating FHIR Resource: {} and the Validtion Outcome: {}",
-							fhirResource, validationOutcome);
+					logger.info("Found errors while validating FHIR Resource {} against {}", type, resourceProfileUrl);
+					payloadLogger.log(PayloadLogger.VALIDATION, "Invalid", type, fhirResource);
+					payloadLogger.log(PayloadLogger.VALIDATION, "Validation outcome of", type, validationOutcome);
 					isValid = false;
 					break;
 				}
 			}
 
+		} catch (DownstreamUnavailableException e) {
+			if (!skipValidationWhenUnavailable)
+				throw e;
+			logger.warn("Skipping validation of Resource {}: {}", type, e.getMessage());
+			pipelineMetrics.skippedValidation(type, structureMap);
 		} catch (JsonProcessingException e) {
 			logger.error(
 					"JsonProcessingException occured while converting outcomeString to OperationOutcome Resource. Error message: "
@@ -261,7 +342,11 @@ public class TransformerUtils {
 		} catch (Exception e) {
 			logger.error("Exception occured while calling validation service. Error message: " + e.getMessage());
 			throw new InternalErrorException(e.getMessage());
+		} finally {
+			pipelineMetrics.record(PipelineStage.VALIDATION, type, structureMap, System.nanoTime() - start);
 		}
+		if (!isValid)
+			pipelineMetrics.invalidResource(type, structureMap);
 		return isValid;
 	}
 
@@ -290,35 +375,112 @@ public class TransformerUtils {
 		return outcome;
 	}
 
-	private BundleEntryComponent toEntryComponent(String fhirResourceString) {
+	private Resource parse(String fhirResourceString, ResourceType type, String structureMap) {
+		long start = System.nanoTime();
 		Resource resource = (Resource) fhirContext.newJsonParser().parseResource(fhirResourceString);
-		BundleEntryComponent entryComponent = new BundleEntryComponent();
-		entryComponent.setResource(resource);
-		return entryComponent;
+		pipelineMetrics.record(PipelineStage.PARSE, type, structureMap, System.nanoTime() - start);
+		return resource;
 	}
 
-	private String resolveAndGetRevIncludeValue(Set<Include> revIncludes) {
-		String revIncludeValue = "";
-		if (revIncludes != null && revIncludes.size() > 0) {
+	private boolean hasRevInclude(Set<Include> revIncludes, String value) {
+		if (revIncludes != null) {
 			for (Include include : revIncludes) {
-				revIncludeValue = include.getValue();
+				if (value.equals(include.getValue()) || "*".equals(include.getValue()))
+					return true;
 			}
 		}
-		return revIncludeValue;
+		return false;
 	}
 
-	private Map<String, String> convertDateFormat(Map<String, String> arcadiaResource, List<String> dateFields) {
+	/**
+	 * Remembers which Arcadia entity the resource was rendered from, see
+	 * {@link IdIndex}.
+	 */
+	private void index(ResourceType type, Resource resource, String personId, String arcadiaResourceName,
+			Object entityKey) {
+		if (entityKey == null || !resource.hasIdElement() || resource.getIdElement().getIdPart() == null)
+			return;
+		if (type == ResourceType.Patient)
+			personId = String.valueOf(entityKey);
+		idIndex.put(type, resource.getIdElement().getIdPart(),
+				new IdIndex.Entry(personId, arcadiaResourceName, String.valueOf(entityKey)));
+	}
 
+	/**
+	 * @return person id of a single patient search, null if the search is not
+	 *         restricted to exactly one patient
+	 */
+	private String personIdOf(SearchParameterMap paramMap) {
+		if (paramMap.get(AppConstants.PATIENT) == null)
+			return null;
+		String patientId = null;
+		for (List<? extends IQueryParameterType> values : paramMap.get(AppConstants.PATIENT)) {
+			for (IQueryParameterType param : values) {
+				if (!(param instanceof ReferenceParam) || ((ReferenceParam) param).getIdPart() == null)
+					continue;
+				String idPart = ((ReferenceParam) param).getIdPart();
+				if (patientId != null && !patientId.equals(idPart))
+					return null;
+				patientId = idPart;
+			}
+		}
+		return patientId != null ? AppConstants.PERSON_ID_PREFIX + patientId : null;
+	}
+
+	/**
+	 * Drops entities whose modify (or, lacking that, create) timestamp is before
+	 * {@code since}, so unchanged rows are never sent to the Transformation
+	 * service. Entities without any of these timestamps are kept, as nothing is
+	 * known about when they changed.
+	 */
+	private List<Map> changedSince(List<Map> arcadiaResources, List<String> dateFields, Date since,
+			String arcadiaResourceName) {
+		if (dateFields == null)
+			return arcadiaResources;
+		List<String> timestampFields = new ArrayList<>();
+		for (String field : AppConstants.LAST_MODIFIED_FIELDS) {
+			if (dateFields.contains(field))
+				timestampFields.add(field);
+		}
+		if (timestampFields.isEmpty())
+			return arcadiaResources;
+
+		List<Map> changed = new ArrayList<>();
+		for (Map arcadiaResource : arcadiaResources) {
+			Date lastModified = null;
+			for (String field : timestampFields) {
+				Object value = arcadiaResource.get(field);
+				if (value == null)
+					continue;
+				try {
+					lastModified = parseArcadiaDate(value.toString());
+					break;
+				} catch (ParseException e) {
+					logger.debug("Could not parse {} of {} entity: {}", field, arcadiaResourceName, value);
+				}
+			}
+			if (lastModified == null || !lastModified.before(since))
+				changed.add(arcadiaResource);
+		}
+		logger.debug("{} of {} {} entities changed since {}", changed.size(), arcadiaResources.size(),
+				arcadiaResourceName, since);
+		return changed;
+	}
+
+	private Map<String, String> convertDateFormat(Map<String, String> arcadiaResource, List<String> dateFields,
+			ResourceType type, String structureMap) {
+
+		long start = System.nanoTime();
 		if (dateFields != null)
 			for (String dateField : dateFields) {
 				if (null != arcadiaResource.get(dateField)) {
 					String date = arcadiaResource.get(dateField).toString();
 
 					DateFormat fhirDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-					DateFormat arcadiaDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+					fhirDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
 					Date parseDate;
 					try {
-						parseDate = arcadiaDateFormat.parse(date);
+						parseDate = parseArcadiaDate(date);
 						String fhirDate = fhirDateFormat.format(parseDate);
 						arcadiaResource.replace(dateField, fhirDate);
 					} catch (ParseException e) {
@@ -328,7 +490,28 @@ public class TransformerUtils {
 
 				}
 			}
+		pipelineMetrics.record(PipelineStage.DATE_COERCION, type, structureMap, System.nanoTime() - start);
 		return arcadiaResource;
 	}
 
+	/**
+	 * Parses an Arcadia timestamp, see {@link AppConstants#ARCADIA_DATE_FORMAT}.
+	 * All readers of Arcadia dates use this, so an entity compares the same in
+	 * incremental fetches, {@code $lastn} and the rendered resources.
+	 *
+	 * @param value Timestamp, trailing characters are ignored
+	 * @return the instant, reading the timestamp as UTC
+	 * @throws ParseException if the value does not start with a timestamp
+	 */
+	public static Date parseArcadiaDate(String value) throws ParseException {
+		return ARCADIA_DATE_FORMAT.get().parse(value);
+	}
+
+	/**
+	 * @return the instant as Arcadia timestamp in UTC
+	 */
+	public static String formatArcadiaDate(Date date) {
+		return ARCADIA_DATE_FORMAT.get().format(date);
+	}
+
 }
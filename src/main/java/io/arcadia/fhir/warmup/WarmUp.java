@@ -0,0 +1,216 @@
+package io.arcadia.fhir.warmup;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import io.arcadia.fhir.client.ExchangeLog;
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * <p>
+ * Warms the application up before it reports ready, so the first requests
+ * after a deploy are not paying for lazy initialization:
+ * <ul>
+ * <li>the JSON configuration files are read into the config cache,</li>
+ * <li>the {@link FhirContext} scans the definitions of every resource type in
+ * use and its JSON and XML parsers run once,</li>
+ * <li>in {@code live} and {@code record} mode a connection to each downstream
+ * service is opened and pooled, and one synthetic transform per StructureMap
+ * is sent to the transformation service.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * The warm-up runs as {@link ApplicationRunner}, after the web server started.
+ * Spring Boot only changes the readiness state to {@code ACCEPTING_TRAFFIC}
+ * once all runners completed, so {@code /actuator/health/readiness} reports
+ * {@code OUT_OF_SERVICE} until then while liveness is not affected. Failing
+ * downstream calls do not fail the warm-up, they are logged. The downstream
+ * steps bypass the clients, so they neither trip circuit breakers nor end up
+ * in an exchange log.
+ * </p>
+ */
+@Component
+public class WarmUp implements ApplicationRunner {
+
+	private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+
+	/** Resource types the server produces besides the mapped ones. */
+	private static final List<String> SERVER_RESOURCE_TYPES = Arrays.asList("Bundle", "OperationOutcome",
+			"Parameters", "CapabilityStatement", "Provenance", "Group");
+
+	@Autowired
+	FhirContext fhirContext;
+
+	@Autowired
+	WebClient webClient;
+
+	@Value("${app.mode:demo}")
+	private String mode;
+
+	@Value("${warmup.enabled:true}")
+	private boolean enabled;
+
+	@Value("${warmup.transforms:true}")
+	private boolean transforms;
+
+	@Value("${warmup.timeoutSeconds:60}")
+	private long timeoutSeconds;
+
+	@Value("${client.arcadia.baseUrl}")
+	private String arcadiaUrl;
+
+	@Value("${client.arcadia.seachServicePort}")
+	private String searchPort;
+
+	@Value("${client.arcadia.crudServicePort}")
+	private String crudPort;
+
+	@Value("${service.trasformation.url}")
+	private String transformationUrl;
+
+	@Value("${service.validation.url}")
+	private String validationUrl;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (enabled)
+			warmUp();
+	}
+
+	private void warmUp() {
+		long start = System.nanoTime();
+		try {
+			Map<String, Map> transformationConfig = loadConfig();
+			warmUpFhirContext(transformationConfig);
+			if (callsDownstream())
+				warmUpDownstream(transformationConfig);
+		} catch (Exception e) {
+			logger.warn("Warm-up failed, serving anyway: {}", e.getMessage(), e);
+		} finally {
+			logger.info("Warm-up completed in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	private boolean callsDownstream() {
+		return "live".equals(mode) || ExchangeLog.MODE_RECORD.equals(mode);
+	}
+
+	private Map<String, Map> loadConfig() throws Exception {
+		ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE);
+		try {
+			ConfigUtils.getConfig(AppConstants.BULK_GROUPS_FILE);
+		} catch (Exception e) {
+			logger.debug("No {} to warm up", AppConstants.BULK_GROUPS_FILE);
+		}
+		return ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE);
+	}
+
+	private void warmUpFhirContext(Map<String, Map> transformationConfig) {
+		long start = System.nanoTime();
+		Set<String> types = new LinkedHashSet<>(SERVER_RESOURCE_TYPES);
+		types.addAll(((Map<String, ?>) transformationConfig.get(AppConstants.RESOURCES)).keySet());
+		int scanned = 0;
+		for (String type : types) {
+			try {
+				fhirContext.getResourceDefinition(type);
+				scanned++;
+			} catch (Exception e) {
+				logger.warn("Could not scan resource definition of {}: {}", type, e.getMessage());
+			}
+		}
+
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(IssueSeverity.INFORMATION).setCode(IssueType.INFORMATIONAL)
+				.setDiagnostics("warm-up");
+		for (IParser parser : Arrays.asList(fhirContext.newJsonParser(), fhirContext.newXmlParser())) {
+			parser.parseResource(parser.encodeResourceToString(outcome));
+		}
+		logger.info("Scanned {} FHIR resource definitions in {} ms", scanned,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	private void warmUpDownstream(Map<String, Map> transformationConfig) {
+		long start = System.nanoTime();
+		Set<String> origins = new LinkedHashSet<>(Arrays.asList(arcadiaUrl + ":" + crudPort,
+				arcadiaUrl + ":" + searchPort, origin(transformationUrl), origin(validationUrl)));
+		List<Mono<?>> calls = new ArrayList<>();
+		for (String origin : origins) {
+			calls.add(webClient.head().uri(origin).exchangeToMono(response -> response.releaseBody())
+					.doOnError(e -> logger.warn("Could not connect to {}: {}", origin, e.getMessage()))
+					.onErrorResume(e -> Mono.empty()));
+		}
+
+		if (transforms) {
+			for (List<Map> mappings : ((Map<String, List<Map>>) transformationConfig.get(AppConstants.RESOURCES))
+					.values()) {
+				for (Map mapping : mappings) {
+					String structureMap = (String) mapping.get(AppConstants.STRUCTURE_MAP);
+					if (structureMap != null)
+						calls.add(syntheticTransform(structureMap, mapping));
+				}
+			}
+		}
+
+		try {
+			Flux.merge(calls).then().block(Duration.ofSeconds(timeoutSeconds));
+		} catch (RuntimeException e) {
+			logger.warn("Downstream warm-up did not complete within {} s", timeoutSeconds);
+		}
+		logger.info("Warmed up {} downstream connections and {} calls in {} ms", origins.size(), calls.size(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * Transforms an entity with only an id and the date fields of the mapping,
+	 * the response is ignored.
+	 */
+	private Mono<?> syntheticTransform(String structureMap, Map mapping) {
+		Map<String, Object> entity = new LinkedHashMap<>();
+		entity.put("id", "warm-up");
+		List<String> dateFields = (List<String>) mapping.get(AppConstants.DATE_FIELDS);
+		if (dateFields != null) {
+			for (String dateField : dateFields) {
+				entity.put(dateField, "2000-01-01T00:00:00Z");
+			}
+		}
+		return webClient.post().uri(transformationUrl + structureMap)
+				.header(HttpHeaders.CONTENT_TYPE, AppConstants.APPLICATION_FHIR_JSON_TYPE)
+				.header(HttpHeaders.ACCEPT, AppConstants.APPLICATION_FHIR_JSON_TYPE)
+				.bodyValue(entity)
+				.exchangeToMono(response -> response.releaseBody())
+				.doOnError(e -> logger.debug("Synthetic transform with {} failed: {}", structureMap, e.getMessage()))
+				.onErrorResume(e -> Mono.empty());
+	}
+
+	private static String origin(String url) {
+		URI uri = URI.create(url.substring(0, url.indexOf('?') < 0 ? url.length() : url.indexOf('?')));
+		return uri.getScheme() + "://" + uri.getAuthority();
+	}
+}
@@ -0,0 +1,181 @@
+package io.arcadia.fhir.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * <p>
+ * Unit tests of {@link TieredCache}. The values are random bytes, which do not
+ * compress, so a value of {@value #VALUE_BYTES} bytes takes a little more than
+ * that in either tier.
+ * </p>
+ */
+public class TieredCacheTest {
+
+	private static final int VALUE_BYTES = 1000;
+
+	private static final long TTL_MILLIS = 60_000;
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void evictsLeastRecentlyUsedEntryToOffHeap() {
+		TieredCache cache = cache(2500, 100_000, 10_000, TTL_MILLIS);
+		byte[] a = value();
+		byte[] b = value();
+		byte[] c = value();
+		cache.put("a", a);
+		cache.put("b", b);
+		assertEquals(2, cache.heapEntries());
+		assertEquals(0, cache.offHeapEntries());
+
+		cache.put("c", c);
+		assertEquals(2, cache.heapEntries());
+		assertEquals(1, cache.offHeapEntries());
+		assertTrue(cache.heapBytes() <= 2500);
+		assertTrue(cache.offHeapBytes() > VALUE_BYTES);
+
+		assertArrayEquals(b, cache.get("b"));
+		assertArrayEquals(c, cache.get("c"));
+		assertArrayEquals(a, cache.get("a"));
+	}
+
+	@Test
+	public void promotesOffHeapHitToHeap() {
+		TieredCache cache = cache(2500, 100_000, 10_000, TTL_MILLIS);
+		byte[] a = value();
+		cache.put("a", a);
+		cache.put("b", value());
+		cache.put("c", value());
+		assertEquals(1, cache.offHeapEntries());
+
+		// the hit moves a back to the heap, which demotes b, the least recently used
+		assertArrayEquals(a, cache.get("a"));
+		assertEquals(2, cache.heapEntries());
+		assertEquals(2, cache.offHeapEntries());
+
+		cache.put("d", value());
+		assertEquals(3, cache.offHeapEntries());
+		long offHeapBytes = cache.offHeapBytes();
+
+		// a kept its off-heap copy, demoting it again does not append it twice
+		cache.put("e", value());
+		assertEquals(2, cache.heapEntries());
+		assertEquals(3, cache.offHeapEntries());
+		assertEquals(offHeapBytes, cache.offHeapBytes());
+		assertArrayEquals(a, cache.get("a"));
+	}
+
+	@Test
+	public void reusedSegmentDropsItsEntries() {
+		// values larger than the heap tier go straight to the two segments of two values each
+		TieredCache cache = cache(0, 5000, 2500, TTL_MILLIS);
+		byte[][] values = new byte[5][];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = value();
+			cache.put("v" + i, values[i]);
+		}
+		assertEquals(0, cache.heapEntries());
+		assertEquals(3, cache.offHeapEntries());
+		assertTrue(cache.offHeapBytes() < 5000);
+
+		assertNull(cache.get("v0"));
+		assertNull(cache.get("v1"));
+		for (int i = 2; i < values.length; i++) {
+			assertArrayEquals(values[i], cache.get("v" + i));
+		}
+	}
+
+	@Test
+	public void doesNotKeepValuesLargerThanASegment() {
+		TieredCache cache = cache(0, 5000, 500, TTL_MILLIS);
+		cache.put("a", value());
+		assertEquals(0, cache.heapEntries());
+		assertEquals(0, cache.offHeapEntries());
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void expiresEntriesInBothTiers() throws InterruptedException {
+		TieredCache cache = cache(1500, 100_000, 10_000, 50);
+		cache.put("a", value());
+		cache.put("b", value());
+		assertEquals(1, cache.heapEntries());
+		assertEquals(1, cache.offHeapEntries());
+
+		Thread.sleep(100);
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(0, cache.heapEntries());
+		assertEquals(0, cache.offHeapEntries());
+		assertEquals(0, cache.heapBytes());
+		assertEquals(0, cache.offHeapBytes());
+	}
+
+	@Test
+	public void putReplacesOffHeapCopy() {
+		TieredCache cache = cache(1500, 100_000, 10_000, TTL_MILLIS);
+		cache.put("a", value());
+		cache.put("b", value());
+		assertEquals(1, cache.offHeapEntries());
+
+		byte[] a = value();
+		cache.put("a", a);
+		assertArrayEquals(a, cache.get("a"));
+		assertEquals(1, cache.heapEntries());
+		assertEquals(1, cache.offHeapEntries());
+	}
+
+	@Test
+	public void removeReturnsBytesOfBothTiers() {
+		TieredCache cache = cache(2500, 100_000, 10_000, TTL_MILLIS);
+		for (int i = 0; i < 6; i++) {
+			cache.put("v" + i, value());
+		}
+		assertTrue(cache.heapBytes() > 0);
+		assertTrue(cache.offHeapBytes() > 0);
+
+		for (int i = 0; i < 6; i++) {
+			cache.remove("v" + i);
+		}
+		assertEquals(0, cache.heapEntries());
+		assertEquals(0, cache.offHeapEntries());
+		assertEquals(0, cache.heapBytes());
+		assertEquals(0, cache.offHeapBytes());
+	}
+
+	@Test
+	public void clearReturnsBytesOfBothTiers() {
+		TieredCache cache = cache(2500, 5000, 2500, TTL_MILLIS);
+		for (int i = 0; i < 6; i++) {
+			cache.put("v" + i, value());
+		}
+		cache.clear();
+		assertEquals(0, cache.heapEntries());
+		assertEquals(0, cache.offHeapEntries());
+		assertEquals(0, cache.heapBytes());
+		assertEquals(0, cache.offHeapBytes());
+
+		byte[] a = value();
+		cache.put("a", a);
+		assertArrayEquals(a, cache.get("a"));
+	}
+
+	private static TieredCache cache(long heapBytes, long offHeapBytes, int segmentBytes, long ttlMillis) {
+		return new TieredCache("test", heapBytes, offHeapBytes, segmentBytes, ttlMillis, new SimpleMeterRegistry());
+	}
+
+	private byte[] value() {
+		byte[] value = new byte[VALUE_BYTES];
+		random.nextBytes(value);
+		return value;
+	}
+}
@@ -0,0 +1,117 @@
+package io.arcadia.fhir.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * <p>
+ * Unit tests of {@link ArcadiaTokenManager} against a stubbed token endpoint,
+ * which answers the n-th request with the token {@code tn}.
+ * </p>
+ */
+public class ArcadiaTokenManagerTest {
+
+	private static final int CALLERS = 8;
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final CountDownLatch respond = new CountDownLatch(1);
+
+	private final ArcadiaTokenManager tokenManager = new ArcadiaTokenManager();
+
+	@AfterEach
+	public void shutdown() {
+		tokenManager.shutdown();
+	}
+
+	@Test
+	public void concurrentCallersShareOneRefresh() throws Exception {
+		stubTokenEndpoint(3600);
+		CountDownLatch ready = new CountDownLatch(CALLERS);
+		ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+		try {
+			List<Future<String>> tokens = new ArrayList<>();
+			for (int i = 0; i < CALLERS; i++) {
+				tokens.add(callers.submit(() -> {
+					ready.countDown();
+					return tokenManager.getToken();
+				}));
+			}
+			ready.await();
+			respond.countDown();
+			for (Future<String> token : tokens) {
+				assertEquals("t1", token.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(1, requests.get());
+		assertEquals("t1", tokenManager.getToken());
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void refreshesOnceAfterRejection() {
+		stubTokenEndpoint(3600);
+		respond.countDown();
+		assertEquals("t1", tokenManager.getToken());
+
+		assertEquals("t2", tokenManager.refreshAfterRejection("t1"));
+		assertEquals(2, requests.get());
+
+		// a caller which still used the rejected token gets the new one
+		assertEquals("t2", tokenManager.refreshAfterRejection("t1"));
+		assertEquals("t2", tokenManager.getToken());
+		assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void refreshesShortLivedTokensHalfwayThrough() {
+		stubTokenEndpoint(3600);
+		assertEquals(3540, tokenManager.refreshDelaySeconds(3600));
+		assertEquals(60, tokenManager.refreshDelaySeconds(120));
+		assertEquals(30, tokenManager.refreshDelaySeconds(60));
+		assertEquals(15, tokenManager.refreshDelaySeconds(30));
+		assertEquals(1, tokenManager.refreshDelaySeconds(1));
+		assertEquals(1, tokenManager.refreshDelaySeconds(0));
+	}
+
+	private void stubTokenEndpoint(long expiresInSeconds) {
+		WebClient webClient = WebClient.builder().exchangeFunction(request -> Mono.fromCallable(() -> {
+			respond.await();
+			return ClientResponse.create(HttpStatus.OK)
+					.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+					.body("{\"access_token\":\"t" + requests.incrementAndGet() + "\",\"expires_in\":"
+							+ expiresInSeconds + "}")
+					.build();
+		})).build();
+		tokenManager.webClient = webClient;
+		ReflectionTestUtils.setField(tokenManager, "tokenUrl", "http://localhost/oauth/token");
+		ReflectionTestUtils.setField(tokenManager, "clientId", "client");
+		ReflectionTestUtils.setField(tokenManager, "clientSecret", "secret");
+		ReflectionTestUtils.setField(tokenManager, "audience", "");
+		ReflectionTestUtils.setField(tokenManager, "scope", "");
+		ReflectionTestUtils.setField(tokenManager, "refreshBeforeExpirySeconds", 60L);
+		ReflectionTestUtils.setField(tokenManager, "retryIntervalSeconds", 5L);
+		ReflectionTestUtils.setField(tokenManager, "timeoutMs", 5000L);
+	}
+}
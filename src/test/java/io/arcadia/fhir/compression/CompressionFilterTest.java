@@ -0,0 +1,132 @@
+package io.arcadia.fhir.compression;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * <p>
+ * Unit tests of {@link CompressionFilter}: negotiation of the encoding, the
+ * size threshold and responses which are already encoded.
+ * </p>
+ */
+public class CompressionFilterTest {
+
+	private static final int MIN_BYTES = 100;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void negotiatesHighestQuality() {
+		assertEquals(CompressionFilter.GZIP, CompressionFilter.negotiate("gzip, deflate"));
+		assertEquals(CompressionFilter.DEFLATE, CompressionFilter.negotiate("gzip;q=0.1, deflate;q=1"));
+		assertEquals(CompressionFilter.DEFLATE, CompressionFilter.negotiate("deflate, gzip;q=0.5"));
+		assertEquals(CompressionFilter.GZIP, CompressionFilter.negotiate("deflate;q=0.5, gzip;q=0.5"));
+		assertEquals(CompressionFilter.DEFLATE, CompressionFilter.negotiate("br, deflate"));
+	}
+
+	@Test
+	public void negotiatesWildcard() {
+		assertEquals(CompressionFilter.GZIP, CompressionFilter.negotiate("*"));
+		assertEquals(CompressionFilter.DEFLATE, CompressionFilter.negotiate("gzip;q=0, *"));
+		assertEquals(CompressionFilter.GZIP, CompressionFilter.negotiate("*;q=0.2, deflate;q=0.1"));
+		assertEquals(CompressionFilter.IDENTITY, CompressionFilter.negotiate("*;q=0"));
+	}
+
+	@Test
+	public void negotiatesIdentity() {
+		assertEquals(CompressionFilter.IDENTITY, CompressionFilter.negotiate(null));
+		assertEquals(CompressionFilter.IDENTITY, CompressionFilter.negotiate("identity"));
+		assertEquals(CompressionFilter.IDENTITY, CompressionFilter.negotiate("gzip;q=0, deflate;q=0"));
+		assertEquals(CompressionFilter.IDENTITY, CompressionFilter.negotiate("gzip;q=x"));
+	}
+
+	@Test
+	public void compressesFromTheThreshold() throws Exception {
+		byte[] body = body(MIN_BYTES);
+		MockHttpServletResponse response = filter("gzip", body, null);
+		assertEquals(CompressionFilter.GZIP, response.getHeader(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeader(HttpHeaders.VARY));
+		assertArrayEquals(body, gunzip(response.getContentAsByteArray()));
+	}
+
+	@Test
+	public void doesNotCompressBelowTheThreshold() throws Exception {
+		byte[] body = body(MIN_BYTES - 1);
+		MockHttpServletResponse response = filter("gzip", body, null);
+		assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+		assertArrayEquals(body, response.getContentAsByteArray());
+		assertEquals(1, meterRegistry.get(CompressionFilter.UNCOMPRESSED_SUMMARY)
+				.tag("encoding", CompressionFilter.IDENTITY).summary().count());
+	}
+
+	@Test
+	public void keepsExistingContentEncoding() throws Exception {
+		byte[] body = body(MIN_BYTES * 10);
+		MockHttpServletResponse response = filter("gzip", body, "br");
+		assertEquals("br", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+		assertArrayEquals(body, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void hidesAcceptEncodingFromTheChain() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/Patient");
+		request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		String[] seen = new String[1];
+		new CompressionFilter(meterRegistry, MIN_BYTES).doFilter(request, new MockHttpServletResponse(),
+				(req, res) -> seen[0] = ((HttpServletRequest) req).getHeader(HttpHeaders.ACCEPT_ENCODING));
+		assertNull(seen[0]);
+	}
+
+	private MockHttpServletResponse filter(String acceptEncoding, byte[] body, String contentEncoding)
+			throws ServletException, IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/Patient");
+		request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		FilterChain chain = (req, res) -> {
+			if (contentEncoding != null)
+				((HttpServletResponse) res).setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+			res.getOutputStream().write(body);
+		};
+		new CompressionFilter(meterRegistry, MIN_BYTES).doFilter(request, response, chain);
+		return response;
+	}
+
+	private static byte[] body(int length) {
+		StringBuilder body = new StringBuilder(length);
+		while (body.length() < length) {
+			body.append('a');
+		}
+		return body.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			byte[] buffer = new byte[1024];
+			for (int read; (read = in.read(buffer)) > 0;) {
+				bytes.write(buffer, 0, read);
+			}
+		}
+		return bytes.toByteArray();
+	}
+}
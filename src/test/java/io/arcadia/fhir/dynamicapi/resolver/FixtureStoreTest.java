@@ -0,0 +1,113 @@
+package io.arcadia.fhir.dynamicapi.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Unit tests of {@link FixtureStore} with array fixtures. Every test runs
+ * against a store which memory-maps all files, {@code mmapThresholdBytes=0},
+ * and one which parses them, both have to serve the same persons. The byte
+ * range of a mapped person ends with the separator to the next one.
+ * </p>
+ */
+public class FixtureStoreTest {
+
+	private static final String FIXTURE = "[\n"
+			+ "  {\"personId\": \"1\", \"vitals\": [{\"vital_type\": \"HR\", \"values\": [1, 2]}]},\n"
+			+ "  {\"vitals\": [{\"vital_type\": \"orphan\"}]},\n"
+			+ "  {\"personId\": \"2\", \"vitals\": [{\"vital_type\": \"BP\"}], \"result\": [{\"result_code\": \"2345-7\"}]},\n"
+			+ "  \"not a person\",\n"
+			+ "  {\"personId\": \"" + AppConstants.PERSON_ID_PREFIX + "3\", \"vitals\": {\"vital_type\": \"RR\"}}\n"
+			+ "]\n";
+
+	@TempDir
+	Path folder;
+
+	@Test
+	public void readsFirstMiddleAndLastPerson() throws IOException {
+		for (FixtureStore store : stores()) {
+			assertEquals(Collections.singletonList("HR"), vitalTypes(store, "1"));
+			assertEquals(Arrays.asList(1, 2), ((Map) vitals(store.get("vitals", Collections.singleton("1"))).get(0))
+					.get("values"));
+			assertEquals(Collections.singletonList("BP"), vitalTypes(store, "2"));
+			assertEquals("2345-7", ((Map) ((List) store.get("vitals", Collections.singleton("2")).get("result"))
+					.get(0)).get("result_code"));
+			// the last range ends with the closing bracket of the array
+			assertEquals("RR", ((Map) store.get("vitals", Collections.singleton("3")).get("vitals"))
+					.get("vital_type"));
+		}
+	}
+
+	@Test
+	public void skipsPersonsWithoutId() throws IOException {
+		for (FixtureStore store : stores()) {
+			Map all = store.get("vitals", Collections.emptySet());
+			assertEquals(Arrays.asList("HR", "BP", "RR"), vitalTypes(all));
+			assertTrue(store.get("vitals", Collections.singleton("null")).isEmpty());
+			assertTrue(store.get("vitals", Collections.singleton("4")).isEmpty());
+		}
+	}
+
+	@Test
+	public void mergesSeveralPersons() throws IOException {
+		for (FixtureStore store : stores()) {
+			Map merged = store.get("vitals", Arrays.asList("3", "1", "4"));
+			assertEquals(Arrays.asList("RR", "HR"), vitalTypes(merged));
+			assertFalse(merged.containsKey("personId"));
+
+			merged = store.get("vitals", Arrays.asList("1", "2"));
+			assertEquals(Arrays.asList("HR", "BP"), vitalTypes(merged));
+			assertEquals(1, ((List) merged.get("result")).size());
+		}
+	}
+
+	@Test
+	public void returnsCopies() throws IOException {
+		for (FixtureStore store : stores()) {
+			vitals(store.get("vitals", Collections.singleton("1"))).clear();
+			assertEquals(1, vitals(store.get("vitals", Collections.singleton("1"))).size());
+		}
+	}
+
+	private List<FixtureStore> stores() throws IOException {
+		Files.write(folder.resolve("vitals.json"), FIXTURE.getBytes(StandardCharsets.UTF_8));
+		FixtureStore mapped = new FixtureStore(folder, 0, "personId");
+		mapped.start(false);
+		FixtureStore parsed = new FixtureStore(folder, Long.MAX_VALUE, "personId");
+		parsed.start(false);
+		return Arrays.asList(mapped, parsed);
+	}
+
+	private static List<Object> vitalTypes(FixtureStore store, String personId) {
+		return vitalTypes(store.get("vitals", Collections.singleton(personId)));
+	}
+
+	private static List<Object> vitalTypes(Map persons) {
+		List<Object> types = new ArrayList<>();
+		for (Object vital : vitals(persons)) {
+			types.add(((Map) vital).get("vital_type"));
+		}
+		return types;
+	}
+
+	private static List vitals(Map persons) {
+		return (List) persons.get("vitals");
+	}
+}
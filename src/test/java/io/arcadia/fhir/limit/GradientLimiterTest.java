@@ -0,0 +1,108 @@
+package io.arcadia.fhir.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Unit tests of {@link GradientLimiter}: admission up to the limit, growth
+ * while the limiter is in use and the latency is stable, shrinking when the
+ * latency rises or requests are dropped, and the bounds of the limit.
+ * </p>
+ */
+public class GradientLimiterTest {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Test
+	public void admitsUpToTheLimit() {
+		GradientLimiter limiter = new GradientLimiter("test", 2, 1, 10);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertEquals(2, limiter.getInFlight());
+
+		limiter.release(FAST, false);
+		assertEquals(1, limiter.getInFlight());
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void growsWhileInUseWithStableLatency() {
+		GradientLimiter limiter = new GradientLimiter("test", 10, 1, 100);
+		for (int round = 0; round < 20; round++) {
+			saturate(limiter, FAST);
+		}
+		assertTrue(limiter.getLimit() > 10, "limit " + limiter.getLimit());
+	}
+
+	@Test
+	public void doesNotGrowWhileIdle() {
+		GradientLimiter limiter = new GradientLimiter("test", 10, 1, 100);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(FAST, false);
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void growsUpToTheMaximum() {
+		GradientLimiter limiter = new GradientLimiter("test", 10, 1, 20);
+		for (int round = 0; round < 200; round++) {
+			saturate(limiter, FAST);
+		}
+		assertEquals(20, limiter.getLimit());
+	}
+
+	@Test
+	public void shrinksWhenLatencyRises() {
+		GradientLimiter limiter = new GradientLimiter("test", 50, 5, 100);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(FAST, false);
+		}
+		assertEquals(50, limiter.getLimit());
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(SLOW, false);
+		}
+		assertTrue(limiter.getLimit() < 50, "limit " + limiter.getLimit());
+	}
+
+	@Test
+	public void shrinksToTheMinimumOnDrops() {
+		GradientLimiter limiter = new GradientLimiter("test", 50, 5, 100);
+		assertTrue(limiter.tryAcquire());
+		limiter.release(FAST, true);
+		assertEquals(45, limiter.getLimit());
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(FAST, true);
+		}
+		assertEquals(5, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	/**
+	 * Admits as many requests as the limit allows and releases them all.
+	 */
+	private static void saturate(GradientLimiter limiter, long rttNanos) {
+		int admitted = 0;
+		while (limiter.tryAcquire()) {
+			admitted++;
+		}
+		for (int i = 0; i < admitted; i++) {
+			limiter.release(rttNanos, false);
+		}
+	}
+}
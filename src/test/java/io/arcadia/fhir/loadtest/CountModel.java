@@ -0,0 +1,92 @@
+package io.arcadia.fhir.loadtest;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * Distribution of the number of entities of one Arcadia entity type per
+ * patient in a {@link SyntheticDataset}.
+ * </p>
+ *
+ * <p>
+ * Supported syntax:
+ * <ul>
+ * <li>{@code fixed:<count>}</li>
+ * <li>{@code uniform:<min>:<max>}</li>
+ * <li>{@code lognormal:<median>:<sigma>}</li>
+ * <li>{@code pareto:<min>:<alpha>} - long tail, a few patients get very many
+ * entities</li>
+ * </ul>
+ * Every model can be capped with a trailing {@code :max=<count>}.
+ * </p>
+ */
+public abstract class CountModel {
+
+	/**
+	 * @param random source of randomness
+	 * @return next entity count, never negative
+	 */
+	public abstract int nextCount(Random random);
+
+	public static CountModel parse(String spec) {
+		String trimmed = spec.trim();
+		int cap = Integer.MAX_VALUE;
+		int capIndex = trimmed.indexOf(":max=");
+		if (capIndex >= 0) {
+			cap = Integer.parseInt(trimmed.substring(capIndex + ":max=".length()));
+			trimmed = trimmed.substring(0, capIndex);
+		}
+		final CountModel model = parseUncapped(trimmed, spec);
+		final int max = cap;
+		return new CountModel() {
+			@Override
+			public int nextCount(Random random) {
+				return Math.max(0, Math.min(max, model.nextCount(random)));
+			}
+		};
+	}
+
+	private static CountModel parseUncapped(String trimmed, String spec) {
+		String[] parts = trimmed.split(":");
+		switch (parts[0]) {
+		case "fixed":
+			final int fixed = Integer.parseInt(parts[1]);
+			return new CountModel() {
+				@Override
+				public int nextCount(Random random) {
+					return fixed;
+				}
+			};
+		case "uniform":
+			final int min = Integer.parseInt(parts[1]);
+			final int max = Integer.parseInt(parts[2]);
+			return new CountModel() {
+				@Override
+				public int nextCount(Random random) {
+					return min + random.nextInt(max - min + 1);
+				}
+			};
+		case "lognormal":
+			final double mu = Math.log(Double.parseDouble(parts[1]));
+			final double sigma = Double.parseDouble(parts[2]);
+			return new CountModel() {
+				@Override
+				public int nextCount(Random random) {
+					return (int) Math.min(Integer.MAX_VALUE, Math.round(Math.exp(mu + sigma * random.nextGaussian())));
+				}
+			};
+		case "pareto":
+			final double scale = Double.parseDouble(parts[1]);
+			final double alpha = Double.parseDouble(parts[2]);
+			return new CountModel() {
+				@Override
+				public int nextCount(Random random) {
+					double sample = scale / Math.pow(1 - random.nextDouble(), 1 / alpha);
+					return (int) Math.min(Integer.MAX_VALUE, Math.round(sample));
+				}
+			};
+		default:
+			throw new IllegalArgumentException("Unknown count model: " + spec);
+		}
+	}
+}
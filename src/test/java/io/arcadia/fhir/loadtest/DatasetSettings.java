@@ -0,0 +1,67 @@
+package io.arcadia.fhir.loadtest;
+
+/**
+ * <p>
+ * Settings of the {@link SyntheticDataset}. Every value can be overridden with
+ * a {@code -Ddataset.<name>=<value>} system property, e.g.
+ * {@code -Ddataset.patients=5000 -Ddataset.longTailCounts=result=fixed:10000}.
+ * </p>
+ *
+ * <p>
+ * Counts use the syntax understood by {@link CountModel#parse(String)}. Per
+ * entity overrides are written as a comma separated list of
+ * {@code <arcadiaResourceName>=<count model>} entries.
+ * </p>
+ *
+ * @see SyntheticDatasetGenerator
+ */
+public class DatasetSettings {
+
+	/** Number of patients, their ids are {@code 0..patients-1}. */
+	final int patients = intValue("patients", 200);
+
+	/** Seed of the dataset, the same seed always produces the same data. */
+	final long seed = longValue("seed", 42L);
+
+	/** Entities per patient of every entity type without an override. */
+	final String defaultCount = stringValue("defaultCount", "lognormal:5:0.8:max=200");
+
+	/** Per entity type overrides of {@link #defaultCount}. */
+	final String counts = stringValue("counts",
+			"result=lognormal:40:1.0:max=2000,vitals=lognormal:30:0.8:max=1000,encounter=lognormal:12:0.7,"
+					+ "medicationList=lognormal:8:0.7,prescription=lognormal:8:0.7");
+
+	/** Fraction (0..1) of patients with a long tail history. */
+	final double longTailFraction = doubleValue("longTailFraction", 0.01);
+
+	/** Per entity type counts used instead for long tail patients. */
+	final String longTailCounts = stringValue("longTailCounts", "result=fixed:10000,vitals=fixed:5000");
+
+	/** Last day of the generated history, {@code yyyy-MM-dd}. */
+	final String endDate = stringValue("endDate", "2021-03-14");
+
+	/** Days of history before {@link #endDate} the dates are spread over. */
+	final int dateSpreadDays = intValue("dateSpreadDays", 3650);
+
+	/** Folder the generator writes the fixtures to. */
+	final String output = stringValue("output", "target/synthetic-dataset");
+
+	/** Field holding the person id in the fixtures, see {@code arcadia.demo.personIdField}. */
+	final String personIdField = stringValue("personIdField", "personId");
+
+	private static String stringValue(String name, String defaultValue) {
+		return System.getProperty("dataset." + name, defaultValue);
+	}
+
+	private static int intValue(String name, int defaultValue) {
+		return Integer.parseInt(stringValue(name, String.valueOf(defaultValue)));
+	}
+
+	private static long longValue(String name, long defaultValue) {
+		return Long.parseLong(stringValue(name, String.valueOf(defaultValue)));
+	}
+
+	private static double doubleValue(String name, double defaultValue) {
+		return Double.parseDouble(stringValue(name, String.valueOf(defaultValue)));
+	}
+}
@@ -0,0 +1,61 @@
+package io.arcadia.fhir.loadtest;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * Latency distribution of a stubbed downstream service.
+ * </p>
+ *
+ * <p>
+ * Supported syntax:
+ * <ul>
+ * <li>{@code fixed:<ms>}</li>
+ * <li>{@code uniform:<minMs>:<maxMs>}</li>
+ * <li>{@code lognormal:<medianMs>:<sigma>} - heavy tailed, closest to real
+ * service behaviour</li>
+ * </ul>
+ * </p>
+ */
+public abstract class LatencyModel {
+
+	/**
+	 * @param random source of randomness, owned by the calling thread
+	 * @return next latency in milliseconds
+	 */
+	public abstract long nextMillis(Random random);
+
+	public static LatencyModel parse(String spec) {
+		String[] parts = spec.trim().split(":");
+		switch (parts[0]) {
+		case "fixed":
+			final long fixed = Long.parseLong(parts[1]);
+			return new LatencyModel() {
+				@Override
+				public long nextMillis(Random random) {
+					return fixed;
+				}
+			};
+		case "uniform":
+			final long min = Long.parseLong(parts[1]);
+			final long max = Long.parseLong(parts[2]);
+			return new LatencyModel() {
+				@Override
+				public long nextMillis(Random random) {
+					return min + (long) (random.nextDouble() * (max - min));
+				}
+			};
+		case "lognormal":
+			final double mu = Math.log(Double.parseDouble(parts[1]));
+			final double sigma = Double.parseDouble(parts[2]);
+			return new LatencyModel() {
+				@Override
+				public long nextMillis(Random random) {
+					return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+				}
+			};
+		default:
+			throw new IllegalArgumentException("Unknown latency model: " + spec);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package io.arcadia.fhir.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe recorder of request latencies for one label of the report.
+ * Latencies are kept raw so percentiles are exact.
+ */
+public class LatencyStats {
+
+	private long[] latencies = new long[1024];
+	private int size;
+	private long errors;
+
+	public synchronized void record(long nanos, boolean success) {
+		if (size == latencies.length) {
+			latencies = Arrays.copyOf(latencies, size * 2);
+		}
+		latencies[size++] = nanos;
+		if (!success)
+			errors++;
+	}
+
+	public synchronized long count() {
+		return size;
+	}
+
+	public synchronized long errors() {
+		return errors;
+	}
+
+	/**
+	 * @param percentile percentile between 0 and 100
+	 * @return latency in milliseconds at the given percentile
+	 */
+	public synchronized double percentileMillis(double percentile) {
+		if (size == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(latencies, size);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+		return sorted[Math.max(0, Math.min(index, size - 1))] / 1_000_000.0;
+	}
+
+	public synchronized void merge(LatencyStats other) {
+		synchronized (other) {
+			for (int i = 0; i < other.size; i++) {
+				record(other.latencies[i], true);
+			}
+			errors += other.errors;
+		}
+	}
+}
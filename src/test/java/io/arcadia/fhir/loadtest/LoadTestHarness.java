@@ -0,0 +1,152 @@
+package io.arcadia.fhir.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import io.arcadia.fhir.ArcadiaFHIRApplication;
+
+/**
+ * <p>
+ * Self-contained load test of the FHIR API. It starts
+ * {@link StubDownstreamServers}, boots the application in {@code live} mode
+ * against them and drives a {@link TrafficMix} of SMART app requests against
+ * the {@code /fhir/*} providers.
+ * </p>
+ *
+ * <p>
+ * At the end it reports throughput, p50/p99/p99.9 latency per resource type and
+ * the number of downstream calls per resource type. Run it with
+ * </p>
+ *
+ * <pre>
+ * mvn -P load-test verify -Dloadtest.threads=32 -Dloadtest.durationSeconds=120
+ * </pre>
+ *
+ * @see LoadTestSettings
+ */
+public class LoadTestHarness {
+
+	private final LoadTestSettings settings = new LoadTestSettings();
+	private final Map<String, LatencyStats> stats = new ConcurrentHashMap<>();
+	private volatile boolean measuring;
+
+	public static void main(String[] args) throws Exception {
+		new LoadTestHarness().run();
+	}
+
+	public void run() throws Exception {
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		StubDownstreamServers stubs = new StubDownstreamServers(settings);
+		stubs.start();
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(ArcadiaFHIRApplication.class)
+				.properties(stubs.applicationProperties())
+				.properties("server.port=0", "logging.level.root=WARN")
+				.run();
+		try {
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port")
+					+ "/fhir/";
+
+			System.out.println("Warming up for " + settings.warmUpSeconds + "s with " + settings.threads
+					+ " users");
+			drive(baseUrl, settings.warmUpSeconds);
+
+			stats.clear();
+			stubs.resetCounts();
+			measuring = true;
+			System.out.println("Measuring for " + settings.durationSeconds + "s");
+			drive(baseUrl, settings.durationSeconds);
+
+			report(stubs.callCounts());
+		} finally {
+			context.close();
+			stubs.stop();
+		}
+	}
+
+	private void drive(final String baseUrl, int seconds) throws Exception {
+		final TrafficMix mix = TrafficMix.parse(settings.mix);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService users = Executors.newFixedThreadPool(settings.threads);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int user = 0; user < settings.threads; user++) {
+			final Random random = new Random(settings.seed + user);
+			futures.add(users.submit(() -> {
+				while (System.nanoTime() < deadline) {
+					String path = mix.next(random, settings.patients);
+					long start = System.nanoTime();
+					boolean success = get(baseUrl + path);
+					if (measuring)
+						stats.computeIfAbsent(TrafficMix.label(path), k -> new LatencyStats())
+								.record(System.nanoTime() - start, success);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		users.shutdown();
+	}
+
+	private boolean get(String url) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setRequestProperty("Accept", "application/fhir+json");
+			int status = connection.getResponseCode();
+			InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (body != null) {
+				try (InputStream in = body) {
+					byte[] buffer = new byte[8192];
+					while (in.read(buffer) != -1) {
+						// drain so the connection can be reused
+					}
+				}
+			}
+			return status < 400;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void report(Map<String, Long> downstreamCalls) {
+		LatencyStats total = new LatencyStats();
+		System.out.println();
+		System.out.println(String.format("%-30s %9s %7s %9s %9s %9s %9s", "request", "count", "errors", "req/s",
+				"p50 ms", "p99 ms", "p99.9 ms"));
+		for (Map.Entry<String, LatencyStats> entry : new TreeMap<>(stats).entrySet()) {
+			print(entry.getKey(), entry.getValue());
+			total.merge(entry.getValue());
+		}
+		print("TOTAL", total);
+
+		System.out.println();
+		System.out.println(String.format("%-40s %10s %12s", "downstream/resource", "calls", "per request"));
+		for (Map.Entry<String, Long> entry : downstreamCalls.entrySet()) {
+			System.out.println(String.format("%-40s %10d %12.2f", entry.getKey(), entry.getValue(),
+					total.count() == 0 ? 0.0 : entry.getValue() / (double) total.count()));
+		}
+	}
+
+	private void print(String label, LatencyStats stat) {
+		System.out.println(String.format("%-30s %9d %7d %9.1f %9.1f %9.1f %9.1f", label, stat.count(),
+				stat.errors(), stat.count() / (double) settings.durationSeconds, stat.percentileMillis(50),
+				stat.percentileMillis(99), stat.percentileMillis(99.9)));
+	}
+}
@@ -0,0 +1,86 @@
+package io.arcadia.fhir.loadtest;
+
+/**
+ * <p>
+ * Settings of the load-test harness. Every value can be overridden with a
+ * {@code -Dloadtest.<name>=<value>} system property, e.g.
+ * {@code -Dloadtest.threads=32 -Dloadtest.graphqlLatency=lognormal:40:0.6}.
+ * </p>
+ *
+ * <p>
+ * Latency values use the syntax understood by {@link LatencyModel#parse(String)}.
+ * </p>
+ *
+ * @see LoadTestHarness
+ */
+public class LoadTestSettings {
+
+	/** Number of concurrent virtual SMART app users. */
+	final int threads = intValue("threads", 16);
+
+	/** Seconds of traffic that are not measured. */
+	final int warmUpSeconds = intValue("warmUpSeconds", 10);
+
+	/** Seconds of measured traffic. */
+	final int durationSeconds = intValue("durationSeconds", 60);
+
+	/** Number of distinct patients the traffic is spread over. */
+	final int patients = intValue("patients", 200);
+
+	/** Arcadia entities returned per arcadia resource name and patient. */
+	final int entitiesPerResource = intValue("entitiesPerResource", 5);
+
+	/**
+	 * Serve a {@link SyntheticDataset} configured by the {@code dataset.*}
+	 * properties instead of {@link #entitiesPerResource} identical entities.
+	 */
+	final boolean syntheticDataset = Boolean.parseBoolean(stringValue("syntheticDataset", "false"));
+
+	/** Patient records returned by the Arcadia search stub. */
+	final int searchRecords = intValue("searchRecords", 1);
+
+	/** Extra bytes added to every transformed FHIR resource. */
+	final int transformPayloadBytes = intValue("transformPayloadBytes", 512);
+
+	/** Lifetime of the access tokens issued by the stub token endpoint. */
+	final int tokenTtlSeconds = intValue("tokenTtlSeconds", 300);
+
+	final LatencyModel graphqlLatency = LatencyModel.parse(stringValue("graphqlLatency", "lognormal:40:0.5"));
+
+	final LatencyModel searchLatency = LatencyModel.parse(stringValue("searchLatency", "lognormal:60:0.5"));
+
+	final LatencyModel transformLatency = LatencyModel.parse(stringValue("transformLatency", "lognormal:8:0.4"));
+
+	final LatencyModel validateLatency = LatencyModel.parse(stringValue("validateLatency", "lognormal:12:0.4"));
+
+	/** Fraction (0..1) of downstream calls answered with an error. */
+	final double graphqlErrorRate = doubleValue("graphqlErrorRate", 0.0);
+
+	final double searchErrorRate = doubleValue("searchErrorRate", 0.0);
+
+	final double transformErrorRate = doubleValue("transformErrorRate", 0.0);
+
+	final double validateErrorRate = doubleValue("validateErrorRate", 0.0);
+
+	/** Traffic mix, see {@link TrafficMix#parse(String)}. */
+	final String mix = stringValue("mix", TrafficMix.SMART_APP_MIX);
+
+	/** Seed used for patient selection and latency sampling. */
+	final long seed = longValue("seed", 42L);
+
+	private static String stringValue(String name, String defaultValue) {
+		return System.getProperty("loadtest." + name, defaultValue);
+	}
+
+	private static int intValue(String name, int defaultValue) {
+		return Integer.parseInt(stringValue(name, String.valueOf(defaultValue)));
+	}
+
+	private static long longValue(String name, long defaultValue) {
+		return Long.parseLong(stringValue(name, String.valueOf(defaultValue)));
+	}
+
+	private static double doubleValue(String name, double defaultValue) {
+		return Double.parseDouble(stringValue(name, String.valueOf(defaultValue)));
+	}
+}
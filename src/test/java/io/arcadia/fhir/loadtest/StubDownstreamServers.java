@@ -0,0 +1,386 @@
+package io.arcadia.fhir.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+
+/**
+ * <p>
+ * Embedded stand-ins for the four downstream services used by the FHIR API:
+ * Arcadia GraphQL ({@code /graphql}), Arcadia search ({@code /search/person}),
+ * the transformation service ({@code $transform}) and the validation service
+ * ({@code validate}).
+ * </p>
+ *
+ * <p>
+ * Every stub listens on its own ephemeral port, answers after a latency drawn
+ * from its {@link LatencyModel}, fails with the configured error rate and
+ * counts the calls it receives per FHIR resource type.
+ * </p>
+ *
+ * <p>
+ * With {@code -Dloadtest.syntheticDataset=true} GraphQL and search answer
+ * with the entities of a {@link SyntheticDataset}, the same data
+ * {@link SyntheticDatasetGenerator} writes as demo mode fixtures.
+ * </p>
+ */
+public class StubDownstreamServers {
+
+	private static final Pattern PERSON_SELECTION = Pattern
+			.compile("(?:(\\w+)\\s*:\\s*)?person\\s*\\(\\s*id\\s*:\\s*\"([^\"]*)\"\\s*\\)\\s*\\{([^}]*)\\}");
+
+	private static final String ARCADIA_DATE = "2021-03-14 09:26:53";
+
+	private final LoadTestSettings settings;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final List<HttpServer> servers = new ArrayList<>();
+	private final Map<String, LongAdder> callCounts = new ConcurrentHashMap<>();
+	private final AtomicLong resourceSequence = new AtomicLong();
+	private final String padding;
+	private final SyntheticDataset dataset;
+
+	private final Map<String, String> selectionToType = new HashMap<>();
+	private final Map<String, String> structureMapToType = new HashMap<>();
+	private final Map<String, String> profileToType = new HashMap<>();
+	private final Map<String, List<String>> dateFieldsByEntity = new HashMap<>();
+
+	private HttpServer graphql;
+	private HttpServer search;
+	private HttpServer transform;
+	private HttpServer validate;
+	private HttpServer token;
+
+	public StubDownstreamServers(LoadTestSettings settings) throws IOException {
+		this.settings = settings;
+		char[] chars = new char[settings.transformPayloadBytes];
+		Arrays.fill(chars, 'x');
+		this.padding = new String(chars);
+		this.dataset = settings.syntheticDataset ? new SyntheticDataset(new DatasetSettings()) : null;
+		readMappings();
+	}
+
+	/**
+	 * Starts all stubs, including an OAuth token endpoint, on ephemeral ports.
+	 */
+	public void start() throws IOException {
+		graphql = startServer("/graphql", this::handleGraphQl);
+		search = startServer("/search/person", this::handleSearch);
+		transform = startServer("/r4/StructureMap", this::handleTransform);
+		validate = startServer("/r4/resource/validate", this::handleValidate);
+		token = startServer("/oauth/token", this::handleToken);
+	}
+
+	public void stop() {
+		for (HttpServer server : servers) {
+			server.stop(0);
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return application properties pointing the FHIR API at the stubs
+	 */
+	public Map<String, Object> applicationProperties() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("app.mode", "live");
+		properties.put("client.arcadia.baseUrl", "http://localhost");
+		properties.put("client.arcadia.crudServicePort", graphql.getAddress().getPort());
+		properties.put("client.arcadia.seachServicePort", search.getAddress().getPort());
+		properties.put("service.trasformation.url", "http://localhost:" + transform.getAddress().getPort()
+				+ "/r4/StructureMap/$transform?source=http://hl7.org/fhir/StructureMap/");
+		properties.put("service.validation.url",
+				"http://localhost:" + validate.getAddress().getPort() + "/r4/resource/validate?profile=");
+		properties.put("client.arcadia.auth.tokenUrl",
+				"http://localhost:" + token.getAddress().getPort() + "/oauth/token");
+		properties.put("client.arcadia.auth.clientId", "load-test");
+		properties.put("client.arcadia.auth.clientSecret", "load-test");
+		return properties;
+	}
+
+	/**
+	 * @return number of calls per {@code <downstream>/<ResourceType>}, sorted
+	 */
+	public Map<String, Long> callCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : callCounts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	public void resetCounts() {
+		callCounts.clear();
+	}
+
+	private void handleToken(HttpExchange exchange) throws IOException {
+		count("token", "oauth");
+		Map<String, Object> token = new LinkedHashMap<>();
+		token.put("access_token", "stub-" + resourceSequence.incrementAndGet());
+		token.put("token_type", "Bearer");
+		token.put("expires_in", settings.tokenTtlSeconds);
+		respond(exchange, 200, token);
+	}
+
+	private void handleGraphQl(HttpExchange exchange) throws IOException {
+		Map request = mapper.readValue(readBody(exchange), Map.class);
+		String query = String.valueOf(request.get(AppConstants.QUERY));
+
+		Map<String, Object> data = new LinkedHashMap<>();
+		Matcher matcher = PERSON_SELECTION.matcher(query);
+		while (matcher.find()) {
+			String alias = matcher.group(1) != null ? matcher.group(1) : AppConstants.PERSON;
+			String personId = matcher.group(2);
+			String selection = matcher.group(3).trim();
+			count("graphql", typeOf(selectionToType, selection));
+
+			Map<String, Object> person = new LinkedHashMap<>();
+			for (String entityName : selection.split("\\s+")) {
+				person.put(entityName, entities(entityName, personId));
+			}
+			data.put(alias, person);
+		}
+
+		pause(settings.graphqlLatency);
+		if (fails(settings.graphqlErrorRate)) {
+			Map<String, Object> error = Collections.singletonMap("message", (Object) "Injected GraphQL failure");
+			respond(exchange, 200, Collections.singletonMap(AppConstants.ERRORS, Collections.singletonList(error)));
+			return;
+		}
+		respond(exchange, 200, Collections.singletonMap(AppConstants.DATA, data));
+	}
+
+	private void handleSearch(HttpExchange exchange) throws IOException {
+		count("search", "Patient");
+		String query = URLDecoder.decode(String.valueOf(exchange.getRequestURI().getRawQuery()), "UTF-8");
+		String requestedId = null;
+		int offset = 0;
+		int size = settings.searchRecords;
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith("id=")) {
+				requestedId = parameter.substring("id=".length());
+			} else if (parameter.startsWith("offset=")) {
+				offset = Integer.parseInt(parameter.substring("offset=".length()));
+			} else if (parameter.startsWith("size=")) {
+				size = Integer.parseInt(parameter.substring("size=".length()));
+			}
+		}
+
+		List<Map<String, Object>> records = new ArrayList<>();
+		for (int i = offset; i < Math.min(settings.searchRecords, offset + size); i++) {
+			String personId = requestedId != null ? requestedId
+					: AppConstants.PERSON_ID_PREFIX + ThreadLocalRandom.current().nextInt(settings.patients);
+			if (dataset != null) {
+				records.add(dataset.patientRecord(SyntheticDataset.patientNumber(personId)));
+				continue;
+			}
+			Map<String, Object> record = new LinkedHashMap<>();
+			record.put("id", personId);
+			record.put("givenName", "Given" + i);
+			record.put("familyName", "Family" + i);
+			record.put("sex", i % 2 == 0 ? "f" : "m");
+			record.put("birthDate", "1970-01-01 00:00:00");
+			record.put("modifyTimestamp", ARCADIA_DATE);
+			records.add(record);
+		}
+
+		pause(settings.searchLatency);
+		if (fails(settings.searchErrorRate)) {
+			respond(exchange, 500, operationOutcome("error", "exception", "Injected search failure"));
+			return;
+		}
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put(AppConstants.RECORDS, records);
+		response.put("total", settings.searchRecords);
+		respond(exchange, 200, response);
+	}
+
+	private void handleTransform(HttpExchange exchange) throws IOException {
+		Map entity = mapper.readValue(readBody(exchange), Map.class);
+		String rawQuery = String.valueOf(exchange.getRequestURI().getRawQuery());
+		String structureMap = rawQuery.substring(rawQuery.lastIndexOf('/') + 1);
+		String type = typeOf(structureMapToType, structureMap);
+		count("transform", type);
+
+		Map<String, Object> resource = new LinkedHashMap<>();
+		resource.put("resourceType", type);
+		Object id = entity.get("id");
+		resource.put("id", id != null ? String.valueOf(id).replaceAll("[^A-Za-z0-9\\-.]", "-")
+				: "stub-" + resourceSequence.incrementAndGet());
+		Map<String, Object> text = new LinkedHashMap<>();
+		text.put("status", "generated");
+		text.put("div", "<div xmlns=\"http://www.w3.org/1999/xhtml\">" + padding + "</div>");
+		resource.put("text", text);
+
+		pause(settings.transformLatency);
+		if (fails(settings.transformErrorRate)) {
+			respond(exchange, 500, operationOutcome("error", "exception", "Injected transform failure"));
+			return;
+		}
+		respond(exchange, 200, resource);
+	}
+
+	private void handleValidate(HttpExchange exchange) throws IOException {
+		readBody(exchange);
+		String query = URLDecoder.decode(String.valueOf(exchange.getRequestURI().getRawQuery()), "UTF-8");
+		count("validate", typeOf(profileToType, query.substring(query.indexOf('=') + 1)));
+
+		pause(settings.validateLatency);
+		if (fails(settings.validateErrorRate)) {
+			respond(exchange, 500, operationOutcome("error", "exception", "Injected validation failure"));
+			return;
+		}
+		respond(exchange, 200, operationOutcome("information", "informational", "All OK"));
+	}
+
+	private List<Map<String, Object>> entities(String entityName, String personId) {
+		if (dataset != null)
+			return dataset.entities(entityName, SyntheticDataset.patientNumber(personId));
+
+		String shortId = personId.substring(personId.indexOf('!') + 1);
+		List<String> dateFields = dateFieldsByEntity.getOrDefault(entityName, Collections.<String>emptyList());
+		List<Map<String, Object>> entities = new ArrayList<>();
+		for (int i = 0; i < settings.entitiesPerResource; i++) {
+			Map<String, Object> entity = new LinkedHashMap<>();
+			entity.put("id", entityName + "-" + shortId + "-" + i);
+			entity.put("person_id", shortId);
+			entity.put("description", entityName + " " + i);
+			for (String dateField : dateFields) {
+				entity.put(dateField, ARCADIA_DATE);
+			}
+			entities.add(entity);
+		}
+		return entities;
+	}
+
+	private Map<String, Object> operationOutcome(String severity, String code, String diagnostics) {
+		Map<String, Object> issue = new LinkedHashMap<>();
+		issue.put("severity", severity);
+		issue.put("code", code);
+		issue.put("diagnostics", diagnostics);
+		Map<String, Object> outcome = new LinkedHashMap<>();
+		outcome.put("resourceType", "OperationOutcome");
+		outcome.put("issue", Collections.singletonList(issue));
+		return outcome;
+	}
+
+	private HttpServer startServer(String context, final StubHandler handler) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 512);
+		server.createContext(context, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handler.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+		servers.add(server);
+		return server;
+	}
+
+	private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+		byte[] bytes = mapper.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private byte[] readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private void pause(LatencyModel latency) {
+		long millis = latency.nextMillis(ThreadLocalRandom.current());
+		if (millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean fails(double errorRate) {
+		return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+	}
+
+	private void count(String downstream, String type) {
+		callCounts.computeIfAbsent(downstream + "/" + type, k -> new LongAdder()).increment();
+	}
+
+	private String typeOf(Map<String, String> index, String key) {
+		String type = index.get(key);
+		return type != null ? type : "Unknown";
+	}
+
+	private void readMappings() throws IOException {
+		Map<String, Map> resourceMapping = ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE);
+		Map<String, Map> resources = (Map<String, Map>) resourceMapping.get(AppConstants.RESOURCES);
+		for (Map.Entry<String, Map> resource : resources.entrySet()) {
+			selectionToType.put(String.valueOf(resource.getValue().get(AppConstants.ARCADIA_RESOURCE_NAME)).trim(),
+					resource.getKey());
+		}
+
+		Map<String, Map> transformationConfig = ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE);
+		Map<String, List<Map>> mappings = (Map<String, List<Map>>) transformationConfig
+				.get(AppConstants.RESOURCES);
+		for (Map.Entry<String, List<Map>> resource : mappings.entrySet()) {
+			for (Map mapping : resource.getValue()) {
+				structureMapToType.put((String) mapping.get(AppConstants.STRUCTURE_MAP), resource.getKey());
+				structureMapToType.put((String) mapping.get(AppConstants.PROVENANCE_STRUCTURE_MAP), "Provenance");
+				profileToType.put((String) mapping.get(AppConstants.RESOURCE_PROFILE_URL), resource.getKey());
+				List<String> dateFields = (List<String>) mapping.get(AppConstants.DATE_FIELDS);
+				if (dateFields != null)
+					dateFieldsByEntity.put((String) mapping.get(AppConstants.ARCADIA_RESOURCE_NAME), dateFields);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link HttpHandler}, declared so handlers can be method references.
+	 */
+	private interface StubHandler {
+		void handle(HttpExchange exchange) throws IOException;
+	}
+}
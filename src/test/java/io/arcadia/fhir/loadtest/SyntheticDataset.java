@@ -0,0 +1,235 @@
+package io.arcadia.fhir.loadtest;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import io.arcadia.fhir.util.AppConstants;
+import io.arcadia.fhir.util.ConfigUtils;
+
+/**
+ * <p>
+ * Reproducible, Arcadia shaped entity data for every
+ * {@code arcadiaResourceName} of {@code ResourceMapping.json}, for load tests
+ * and benchmarks against controlled data sizes.
+ * </p>
+ *
+ * <p>
+ * The entities of one patient and entity type only depend on the seed, the
+ * patient and the entity type, so they can be generated on demand by
+ * {@link StubDownstreamServers} or written once as fixtures by
+ * {@link SyntheticDatasetGenerator}, with identical results. The number of
+ * entities per patient follows the {@link CountModel}s of the
+ * {@link DatasetSettings}, a fraction of long tail patients gets the long tail
+ * counts instead. Date fields of {@code TransformationConfig.json} are spread
+ * over {@code dateSpreadDays} before {@code endDate}.
+ * </p>
+ */
+public class SyntheticDataset {
+
+	private static final long MAX_MODIFICATION_DELAY = TimeUnit.DAYS.toMillis(30);
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private static final int CODES_PER_ENTITY = 20;
+
+	private final DatasetSettings settings;
+	private final Map<String, List<String>> entityNamesByType = new LinkedHashMap<>();
+	private final Map<String, List<String>> dateFieldsByEntity = new HashMap<>();
+	private final Map<String, String> idFieldByEntity = new HashMap<>();
+	private final Map<String, String> codeFieldByEntity = new HashMap<>();
+	private final CountModel defaultCount;
+	private final Map<String, CountModel> counts;
+	private final Map<String, CountModel> longTailCounts;
+	private final long endMillis;
+	private final long spreadMillis;
+
+	public SyntheticDataset(DatasetSettings settings) throws IOException {
+		this.settings = settings;
+		this.defaultCount = CountModel.parse(settings.defaultCount);
+		this.counts = parseCounts(settings.counts);
+		this.longTailCounts = parseCounts(settings.longTailCounts);
+		try {
+			this.endMillis = format().parse(settings.endDate + " 23:59:59").getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("dataset.endDate must be yyyy-MM-dd: " + settings.endDate);
+		}
+		this.spreadMillis = TimeUnit.DAYS.toMillis(settings.dateSpreadDays);
+		readMappings();
+	}
+
+	public DatasetSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return Arcadia entity names per FHIR resource type, without
+	 *         {@code Patient} which is served by the search API
+	 */
+	public Map<String, List<String>> getEntityNamesByType() {
+		return Collections.unmodifiableMap(entityNamesByType);
+	}
+
+	/**
+	 * @param patient Patient number
+	 * @return Arcadia person id of the patient
+	 */
+	public String personId(int patient) {
+		return AppConstants.PERSON_ID_PREFIX + patient;
+	}
+
+	/**
+	 * @param personId Arcadia person id, with or without prefix
+	 * @return patient number of the person id, non numeric ids are hashed
+	 */
+	public static int patientNumber(String personId) {
+		String shortId = personId.substring(personId.indexOf('!') + 1);
+		try {
+			return Integer.parseInt(shortId);
+		} catch (NumberFormatException e) {
+			return shortId.hashCode() & Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * @return whether the patient has a long tail history
+	 */
+	public boolean isLongTail(int patient) {
+		return random(patient, "longTail").nextDouble() < settings.longTailFraction;
+	}
+
+	/**
+	 * @param entityName Arcadia entity name, e.g. {@code result}
+	 * @param patient    Patient number
+	 * @return entities of the patient, always the same for the same seed
+	 */
+	public List<Map<String, Object>> entities(String entityName, int patient) {
+		Random random = random(patient, entityName);
+		CountModel model = isLongTail(patient) && longTailCounts.containsKey(entityName)
+				? longTailCounts.get(entityName)
+				: counts.getOrDefault(entityName, defaultCount);
+		int count = model.nextCount(random);
+
+		SimpleDateFormat format = format();
+		String idField = idFieldByEntity.getOrDefault(entityName, "id");
+		String codeField = codeFieldByEntity.get(entityName);
+		List<String> dateFields = dateFieldsByEntity.getOrDefault(entityName, Collections.<String>emptyList());
+		List<Map<String, Object>> entities = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> entity = new LinkedHashMap<>();
+			entity.put(idField, entityName + "-" + patient + "-" + i);
+			entity.put("person_id", String.valueOf(patient));
+			entity.put("description", entityName + " " + i);
+
+			long created = endMillis - (long) (random.nextDouble() * spreadMillis);
+			long modified = Math.min(endMillis, created + (long) (random.nextDouble() * MAX_MODIFICATION_DELAY));
+			for (String dateField : dateFields) {
+				boolean modification = dateField.startsWith("modify");
+				entity.put(dateField, format.format(new Date(modification ? modified : created)));
+			}
+			if (codeField != null)
+				entity.put(codeField, entityName + "-" + random.nextInt(CODES_PER_ENTITY));
+			entities.add(entity);
+		}
+		return entities;
+	}
+
+	/**
+	 * @param patient Patient number
+	 * @return record of the patient as returned by the Arcadia search API
+	 */
+	public Map<String, Object> patientRecord(int patient) {
+		Random random = random(patient, AppConstants.PATIENT);
+		SimpleDateFormat format = format();
+		Map<String, Object> record = new LinkedHashMap<>();
+		record.put("id", personId(patient));
+		record.put("givenName", "Given" + patient);
+		record.put("familyName", "Family" + patient);
+		record.put("sex", random.nextBoolean() ? "f" : "m");
+		record.put("birthDate",
+				format.format(new Date(endMillis - TimeUnit.DAYS.toMillis(365L * (1 + random.nextInt(90))))));
+		record.put("modifyTimestamp",
+				format.format(new Date(endMillis - (long) (random.nextDouble() * spreadMillis))));
+		return record;
+	}
+
+	private Random random(int patient, String stream) {
+		long seed = settings.seed;
+		seed = seed * GOLDEN_GAMMA + patient;
+		seed = seed * GOLDEN_GAMMA + stream.hashCode();
+		return new Random(seed);
+	}
+
+	private static SimpleDateFormat format() {
+		SimpleDateFormat format = new SimpleDateFormat(AppConstants.ARCADIA_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	private static Map<String, CountModel> parseCounts(String spec) {
+		Map<String, CountModel> models = new HashMap<>();
+		if (spec == null || spec.trim().isEmpty())
+			return models;
+		for (String entry : spec.split(",")) {
+			String[] parts = entry.trim().split("=", 2);
+			models.put(parts[0].trim(), CountModel.parse(parts[1]));
+		}
+		return models;
+	}
+
+	private void readMappings() throws IOException {
+		Map<String, Map> resourceMapping = ConfigUtils.getConfig(AppConstants.RESOURCE_MAPPING_FILE);
+		Map<String, Map> resources = (Map<String, Map>) resourceMapping.get(AppConstants.RESOURCES);
+		for (Map.Entry<String, Map> resource : resources.entrySet()) {
+			if ("Patient".equals(resource.getKey()))
+				continue;
+			String names = String.valueOf(resource.getValue().get(AppConstants.ARCADIA_RESOURCE_NAME)).trim();
+			entityNamesByType.put(resource.getKey(), Arrays.asList(names.split("\\s+")));
+		}
+
+		Map<String, Map> transformationConfig = ConfigUtils.getConfig(AppConstants.TRANSFORMATION_CONFIG_FILE);
+		Map<String, List<Map>> mappings = (Map<String, List<Map>>) transformationConfig
+				.get(AppConstants.RESOURCES);
+		for (List<Map> resource : mappings.values()) {
+			for (Map mapping : resource) {
+				String entityName = (String) mapping.get(AppConstants.ARCADIA_RESOURCE_NAME);
+				List<String> dateFields = (List<String>) mapping.get(AppConstants.DATE_FIELDS);
+				if (dateFields != null)
+					dateFieldsByEntity.put(entityName, dateFields);
+				if (mapping.get(AppConstants.ID_FIELD) != null)
+					idFieldByEntity.put(entityName, (String) mapping.get(AppConstants.ID_FIELD));
+				Map<String, List<String>> lastN = (Map<String, List<String>>) mapping.get(AppConstants.LAST_N);
+				if (lastN != null)
+					readLastN(entityName, lastN);
+			}
+		}
+	}
+
+	/**
+	 * Gives the entities of {@code Observation/$lastn} a code and an effective
+	 * date, in the fields {@link io.arcadia.fhir.query.LastNSelector} reads.
+	 */
+	private void readLastN(String entityName, Map<String, List<String>> lastN) {
+		List<String> codeFields = lastN.get(AppConstants.CODE_FIELDS);
+		if (codeFields != null && !codeFields.isEmpty())
+			codeFieldByEntity.put(entityName, codeFields.get(0));
+		List<String> effectiveDateFields = lastN.get(AppConstants.EFFECTIVE_DATE_FIELDS);
+		if (effectiveDateFields != null && !effectiveDateFields.isEmpty()) {
+			List<String> dateFields = new ArrayList<>(
+					dateFieldsByEntity.getOrDefault(entityName, Collections.<String>emptyList()));
+			if (!dateFields.contains(effectiveDateFields.get(0)))
+				dateFields.add(effectiveDateFields.get(0));
+			dateFieldsByEntity.put(entityName, dateFields);
+		}
+	}
+}
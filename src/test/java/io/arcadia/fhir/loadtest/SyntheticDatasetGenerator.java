@@ -0,0 +1,79 @@
+package io.arcadia.fhir.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ResourceType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Writes a {@link SyntheticDataset} as demo mode fixtures: one
+ * {@code <type>.json} file per FHIR resource type holding an array of persons,
+ * each with its person id in {@code personIdField} and its entities per
+ * Arcadia entity type. Point {@code arcadia.resourceFolderPath} at the output
+ * folder to serve it with {@code app.mode=demo}. Run it with
+ * </p>
+ *
+ * <pre>
+ * mvn -P synthetic-dataset test-compile exec:java -Ddataset.patients=5000 -Ddataset.output=/tmp/fixtures
+ * </pre>
+ *
+ * <p>
+ * The persons are streamed to the files, so long tail patients with tens of
+ * thousands of entities do not need to fit in memory at once.
+ * </p>
+ *
+ * @see DatasetSettings
+ */
+public class SyntheticDatasetGenerator {
+
+	public static void main(String[] args) throws Exception {
+		SyntheticDataset dataset = new SyntheticDataset(new DatasetSettings());
+		new SyntheticDatasetGenerator().write(dataset, Paths.get(dataset.getSettings().output));
+	}
+
+	public void write(SyntheticDataset dataset, Path folder) throws IOException {
+		DatasetSettings settings = dataset.getSettings();
+		Files.createDirectories(folder);
+		ObjectMapper mapper = new ObjectMapper();
+
+		int longTailPatients = 0;
+		for (int patient = 0; patient < settings.patients; patient++) {
+			if (dataset.isLongTail(patient))
+				longTailPatients++;
+		}
+		System.out.println("Writing " + settings.patients + " patients (" + longTailPatients
+				+ " long tail) with seed " + settings.seed + " to " + folder.toAbsolutePath());
+
+		for (Map.Entry<String, List<String>> type : dataset.getEntityNamesByType().entrySet()) {
+			File file = folder.resolve(ResourceType.fromCode(type.getKey()).getPath() + ".json").toFile();
+			long entities = 0;
+			try (JsonGenerator json = mapper.getFactory().createGenerator(file, JsonEncoding.UTF8)) {
+				json.writeStartArray();
+				for (int patient = 0; patient < settings.patients; patient++) {
+					json.writeStartObject();
+					json.writeStringField(settings.personIdField, dataset.personId(patient));
+					for (String entityName : type.getValue()) {
+						List<Map<String, Object>> values = dataset.entities(entityName, patient);
+						entities += values.size();
+						json.writeFieldName(entityName);
+						mapper.writeValue(json, values);
+					}
+					json.writeEndObject();
+				}
+				json.writeEndArray();
+			}
+			System.out.println(String.format("%-25s %10d entities %10d KB", file.getName(), entities,
+					file.length() / 1024));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package io.arcadia.fhir.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>
+ * Weighted mix of FHIR requests sent by the virtual users of the load test.
+ * </p>
+ *
+ * <p>
+ * A mix is written as a comma separated list of {@code <weight>|<path>}
+ * entries. The path is relative to {@code /fhir/} and may contain the
+ * {@code {patient}} placeholder which is replaced with a random patient id for
+ * every request, e.g. {@code 5|Observation?patient={patient}}.
+ * </p>
+ */
+public class TrafficMix {
+
+	/**
+	 * Approximates the request pattern of a SMART app launch followed by chart
+	 * review: a metadata and patient lookup, then the clinical compartments with
+	 * vitals and labs dominating.
+	 */
+	public static final String SMART_APP_MIX = "1|metadata,"
+			+ "4|Patient?_id={patient},"
+			+ "8|Observation?patient={patient},"
+			+ "4|Condition?patient={patient},"
+			+ "3|AllergyIntolerance?patient={patient},"
+			+ "3|MedicationRequest?patient={patient},"
+			+ "2|Immunization?patient={patient},"
+			+ "2|Encounter?patient={patient},"
+			+ "2|Procedure?patient={patient},"
+			+ "2|DiagnosticReport?patient={patient},"
+			+ "1|Observation?patient={patient}&_revinclude=Provenance:target";
+
+	private final List<String> paths = new ArrayList<>();
+	private final List<Integer> cumulativeWeights = new ArrayList<>();
+	private int totalWeight;
+
+	private TrafficMix() {
+	}
+
+	public static TrafficMix parse(String spec) {
+		TrafficMix mix = new TrafficMix();
+		for (String entry : spec.split(",")) {
+			String[] parts = entry.trim().split("\\|", 2);
+			mix.totalWeight += Integer.parseInt(parts[0]);
+			mix.cumulativeWeights.add(mix.totalWeight);
+			mix.paths.add(parts[1]);
+		}
+		return mix;
+	}
+
+	/**
+	 * @return the next request path relative to {@code /fhir/}
+	 */
+	public String next(Random random, int patients) {
+		int pick = random.nextInt(totalWeight);
+		for (int i = 0; i < paths.size(); i++) {
+			if (pick < cumulativeWeights.get(i)) {
+				return paths.get(i).replace("{patient}", String.valueOf(random.nextInt(patients)));
+			}
+		}
+		throw new IllegalStateException("Weights are inconsistent");
+	}
+
+	/**
+	 * @return the label used in the report, which is the resource type or
+	 *         operation of the path
+	 */
+	public static String label(String path) {
+		int end = path.indexOf('?');
+		String label = end < 0 ? path : path.substring(0, end);
+		return path.contains("_revinclude") ? label + "+Provenance" : label;
+	}
+}
@@ -0,0 +1,68 @@
+package io.arcadia.fhir.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * <p>
+ * Unit tests of the redaction of {@link PayloadLogger}.
+ * </p>
+ */
+public class PayloadLoggerTest {
+
+	@Test
+	public void redactsSnakeCaseFields() {
+		PayloadLogger payloadLogger = payloadLogger("firstName,dateOfBirth,medicareId");
+		Map<String, Object> entity = new LinkedHashMap<>();
+		entity.put("person_id", "123");
+		entity.put("first_name", "Jane");
+		entity.put("date_of_birth", "1970-01-01");
+		entity.put("medicare-id", "1EG4TE5MK73");
+		entity.put("result_code", "2345-7");
+
+		Map<?, ?> redacted = (Map<?, ?>) payloadLogger.redact(entity);
+		assertEquals("123", redacted.get("person_id"));
+		assertEquals("***", redacted.get("first_name"));
+		assertEquals("***", redacted.get("date_of_birth"));
+		assertEquals("***", redacted.get("medicare-id"));
+		assertEquals("2345-7", redacted.get("result_code"));
+	}
+
+	@Test
+	public void redactsAtAnyDepthIgnoringCase() {
+		PayloadLogger payloadLogger = payloadLogger("first_name");
+		Map<String, Object> person = new LinkedHashMap<>();
+		person.put("FirstName", "Jane");
+		person.put("sex", "f");
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put("records", Collections.singletonList(person));
+
+		List<?> records = (List<?>) ((Map<?, ?>) payloadLogger.redact(payload)).get("records");
+		Map<?, ?> redacted = (Map<?, ?>) records.get(0);
+		assertEquals("***", redacted.get("FirstName"));
+		assertEquals("f", redacted.get("sex"));
+		assertEquals("Jane", person.get("FirstName"));
+	}
+
+	@Test
+	public void keepsValuesWithoutRedactFields() {
+		PayloadLogger payloadLogger = payloadLogger("");
+		List<String> values = Arrays.asList("a", "b");
+		assertEquals(values, payloadLogger.redact(values));
+	}
+
+	private static PayloadLogger payloadLogger(String redactFields) {
+		PayloadLogger payloadLogger = new PayloadLogger();
+		ReflectionTestUtils.setField(payloadLogger, "redactFieldList", redactFields);
+		payloadLogger.init();
+		return payloadLogger;
+	}
+}
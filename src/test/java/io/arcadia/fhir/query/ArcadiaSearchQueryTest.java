@@ -0,0 +1,88 @@
+package io.arcadia.fhir.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Unit tests of {@link ArcadiaSearchQuery}, mainly of
+ * {@link ArcadiaSearchQuery#toNormalizedString()}, the key of the patient
+ * search cache: equivalent searches have to share a key, searches for
+ * different persons must not.
+ * </p>
+ */
+public class ArcadiaSearchQueryTest {
+
+	@Test
+	public void keyDoesNotDependOnParameterOrder() {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().familyName("smith").birthDate("1970-01-01").sex("f");
+		ArcadiaSearchQuery reordered = new ArcadiaSearchQuery().sex("f").birthDate("1970-01-01").familyName("smith");
+		assertEquals(query.toNormalizedString(), reordered.toNormalizedString());
+	}
+
+	@Test
+	public void keyDoesNotDependOnNameOrder() {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().anyName(Arrays.asList("jo", "ann"));
+		ArcadiaSearchQuery reordered = new ArcadiaSearchQuery().anyName(Arrays.asList("ann", "jo"));
+		assertEquals(query.toNormalizedString(), reordered.toNormalizedString());
+	}
+
+	@Test
+	public void keyIgnoresCaseOfNamesAndSex() {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().anyName(Collections.singletonList("Jo")).sex("F");
+		ArcadiaSearchQuery lowerCase = new ArcadiaSearchQuery().anyName(Collections.singletonList("jo")).sex("f");
+		assertEquals(query.toNormalizedString(), lowerCase.toNormalizedString());
+	}
+
+	@Test
+	public void keyCollapsesWhitespace() {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().familyName("van  der\tBerg ");
+		ArcadiaSearchQuery collapsed = new ArcadiaSearchQuery().familyName("van der Berg");
+		assertEquals(query.toNormalizedString(), collapsed.toNormalizedString());
+	}
+
+	@Test
+	public void keyKeepsCaseOfIdentifiers() {
+		assertNotEquals(new ArcadiaSearchQuery().mrn("Ab12").toNormalizedString(),
+				new ArcadiaSearchQuery().mrn("ab12").toNormalizedString());
+		assertNotEquals(new ArcadiaSearchQuery().medicareId("1EG4TE5MK73").toNormalizedString(),
+				new ArcadiaSearchQuery().medicareId("1eg4te5mk73").toNormalizedString());
+		assertNotEquals(new ArcadiaSearchQuery().personId("Abc").toNormalizedString(),
+				new ArcadiaSearchQuery().personId("abc").toNormalizedString());
+	}
+
+	@Test
+	public void keyDistinguishesPages() {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().familyName("smith").matchAll();
+		assertNotEquals(query.page(0, 20).toNormalizedString(), query.page(20, 20).toNormalizedString());
+		assertNotEquals(query.page(0, 20).toNormalizedString(), query.page(0, 10).toNormalizedString());
+		assertEquals(query.page(20, 20).toNormalizedString(), query.page(20, 20).toNormalizedString());
+	}
+
+	@Test
+	public void matchAllOnlyWithoutNameClause() {
+		assertEquals("query=*&sex=m", new ArcadiaSearchQuery().sex("m").matchAll().toNormalizedString());
+		assertEquals("query=familyname:smith",
+				new ArcadiaSearchQuery().familyName("Smith").matchAll().toNormalizedString());
+	}
+
+	@Test
+	public void personIdIsPrefixedOnce() {
+		assertEquals(new ArcadiaSearchQuery().personId("123").toNormalizedString(),
+				new ArcadiaSearchQuery().personId(AppConstants.PERSON_ID_PREFIX + "123").toNormalizedString());
+	}
+
+	@Test
+	public void queryStringIsEncoded() {
+		ArcadiaSearchQuery query = new ArcadiaSearchQuery().anyName(Collections.singletonList("jo")).sex("f")
+				.page(0, 20);
+		assertEquals("query=givenName%3Ajo%20OR%20familyName%3Ajo&sex=f&offset=0&size=20", query.toQueryString());
+	}
+}
@@ -0,0 +1,135 @@
+package io.arcadia.fhir.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.arcadia.fhir.util.AppConstants;
+
+/**
+ * <p>
+ * Unit tests of the per code top-N selection of {@link LastNSelector}. The
+ * rows are {@code vitals} entities identified by their {@code id}.
+ * </p>
+ */
+public class LastNSelectorTest {
+
+	private static final String VITALS = "vitals";
+
+	@Test
+	public void keepsNewestRowsPerCode() {
+		List<Map> vitals = Arrays.asList(
+				vital("1", "HR", "2020-01-01 08:00:00"),
+				vital("2", "BP", "2020-01-02 08:00:00"),
+				vital("3", "HR", "2020-01-03 08:00:00"),
+				vital("4", "HR", "2020-01-02 08:00:00"),
+				vital("5", "BP", "2020-01-01 08:00:00"));
+		assertEquals(Arrays.asList("3", "4", "2", "5"), select(2, vitals));
+		assertEquals(Arrays.asList("3", "2"), select(1, vitals));
+	}
+
+	@Test
+	public void keepsWholeGroupSmallerThanMax() {
+		List<Map> vitals = Arrays.asList(
+				vital("1", "HR", "2020-01-01 08:00:00"),
+				vital("2", "HR", "2020-01-03 08:00:00"),
+				vital("3", "HR", "2020-01-02 08:00:00"));
+		assertEquals(Arrays.asList("2", "3", "1"), select(10, vitals));
+	}
+
+	@Test
+	public void laterRowWinsTies() {
+		List<Map> vitals = Arrays.asList(
+				vital("1", "HR", "2020-01-01 08:00:00"),
+				vital("2", "HR", "2020-01-01 08:00:00"),
+				vital("3", "HR", "2020-01-01 08:00:00"));
+		assertEquals(Collections.singletonList("3"), select(1, vitals));
+		assertEquals(Arrays.asList("3", "2", "1"), select(5, vitals));
+	}
+
+	@Test
+	public void rowsWithoutDateRankOldest() {
+		List<Map> vitals = Arrays.asList(
+				vital("1", "HR", null),
+				vital("2", "HR", "2020-01-01 08:00:00"),
+				vital("3", "HR", "not a date"),
+				vital("4", "HR", "2019-12-31"));
+		assertEquals(Arrays.asList("2", "4"), select(2, vitals));
+		assertEquals(Arrays.asList("2", "4", "3", "1"), select(4, vitals));
+	}
+
+	@Test
+	public void fallsBackToCreateTimestamp() {
+		Map created = vital("1", "HR", null);
+		created.put("create_timestamp", "2020-01-02 08:00:00");
+		List<Map> vitals = Arrays.asList(created, vital("2", "HR", "2020-01-01 08:00:00"));
+		assertEquals(Collections.singletonList("1"), select(1, vitals));
+	}
+
+	@Test
+	public void skipsRowsWithoutCode() {
+		List<Map> vitals = Arrays.asList(
+				vital("1", null, "2020-01-03 08:00:00"),
+				vital("2", "HR", "2020-01-01 08:00:00"));
+		assertEquals(Collections.singletonList("2"), select(5, vitals));
+	}
+
+	@Test
+	public void filtersCodesAndCategories() {
+		List<Map> vitals = Arrays.asList(
+				vital("1", "HR", "2020-01-01 08:00:00"),
+				vital("2", "BP", "2020-01-01 08:00:00"));
+		assertEquals(Collections.singletonList("2"),
+				ids(new LastNSelector(1, Collections.emptySet(), Collections.singleton("BP")).select(data(vitals),
+						resourceList())));
+		assertTrue(new LastNSelector(1, Collections.singleton("laboratory"), Collections.emptySet())
+				.select(data(vitals), resourceList()).isEmpty());
+	}
+
+	private static List<String> select(int max, List<Map> vitals) {
+		return ids(new LastNSelector(max, Collections.emptySet(), Collections.emptySet()).select(data(vitals),
+				resourceList()));
+	}
+
+	private static List<String> ids(Map<String, List<Map>> selected) {
+		List<String> ids = new ArrayList<>();
+		for (Map row : selected.get(VITALS)) {
+			ids.add((String) row.get("id"));
+		}
+		return ids;
+	}
+
+	private static Map<String, Object> data(List<Map> vitals) {
+		return Collections.singletonMap(VITALS, vitals);
+	}
+
+	private static List<Map> resourceList() {
+		Map<String, Object> lastN = new LinkedHashMap<>();
+		lastN.put(AppConstants.CATEGORY, "vital-signs");
+		lastN.put(AppConstants.CODE_FIELDS, Collections.singletonList("vital_type"));
+		lastN.put(AppConstants.EFFECTIVE_DATE_FIELDS, Arrays.asList("vital_date", "create_timestamp"));
+		Map<String, Object> resourceInfo = new LinkedHashMap<>();
+		resourceInfo.put(AppConstants.ARCADIA_RESOURCE_NAME, VITALS);
+		resourceInfo.put(AppConstants.LAST_N, lastN);
+		return Collections.singletonList(resourceInfo);
+	}
+
+	private static Map<String, Object> vital(String id, String code, String date) {
+		Map<String, Object> vital = new LinkedHashMap<>();
+		vital.put("id", id);
+		if (code != null)
+			vital.put("vital_type", code);
+		if (date != null)
+			vital.put("vital_date", date);
+		return vital;
+	}
+}
@@ -0,0 +1,192 @@
+package io.arcadia.fhir.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * <p>
+ * Unit tests of {@link HedgedCalls} in virtual time. {@code transformation} is
+ * hedged after {@value #HEDGE_DELAY_MS} ms, {@code validation} is not hedged.
+ * </p>
+ */
+public class HedgedCallsTest {
+
+	private static final long HEDGE_DELAY_MS = 100;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final Bulkhead bulkhead = Bulkhead.ofDefaults("test");
+
+	@Test
+	public void primaryWins() {
+		HedgedCalls hedgedCalls = hedgedCalls(100);
+		Attempts attempts = new Attempts(() -> Mono.just("primary").delayElement(Duration.ofMillis(50)));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.TRANSFORMATION, bulkhead, attempts))
+				.thenAwait(Duration.ofMillis(50))
+				.expectNext("primary")
+				.verifyComplete();
+		assertEquals(1, attempts.count());
+		assertNull(meterRegistry.find(HedgedCalls.HEDGE_COUNTER).counter());
+	}
+
+	@Test
+	public void hedgeWins() {
+		HedgedCalls hedgedCalls = hedgedCalls(100);
+		AtomicBoolean primaryCancelled = new AtomicBoolean();
+		Attempts attempts = new Attempts(
+				() -> Mono.just("primary").delayElement(Duration.ofSeconds(1))
+						.doOnCancel(() -> primaryCancelled.set(true)),
+				() -> Mono.just("hedge").delayElement(Duration.ofMillis(10)));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.TRANSFORMATION, bulkhead, attempts))
+				.thenAwait(Duration.ofMillis(HEDGE_DELAY_MS + 10))
+				.expectNext("hedge")
+				.verifyComplete();
+		assertEquals(2, attempts.count());
+		assertTrue(primaryCancelled.get());
+		assertEquals(1, meterRegistry.get(HedgedCalls.HEDGE_COUNTER).tag("winner", "hedge").counter().count());
+		assertEquals(bulkhead.getBulkheadConfig().getMaxConcurrentCalls(),
+				bulkhead.getMetrics().getAvailableConcurrentCalls());
+	}
+
+	@Test
+	public void primaryErrorIsFinal() {
+		HedgedCalls hedgedCalls = hedgedCalls(100);
+		Attempts attempts = new Attempts(
+				() -> Mono.delay(Duration.ofMillis(10)).then(Mono.<String>error(responseException(500))));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.TRANSFORMATION, bulkhead, attempts))
+				.thenAwait(Duration.ofMillis(10))
+				.expectError(WebClientResponseException.class)
+				.verify();
+		assertEquals(1, attempts.count());
+	}
+
+	@Test
+	public void emptyPrimaryIsFinal() {
+		HedgedCalls hedgedCalls = hedgedCalls(100);
+		Attempts attempts = new Attempts(() -> Mono.delay(Duration.ofMillis(10)).then(Mono.<String>empty()));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.TRANSFORMATION, bulkhead, attempts))
+				.thenAwait(Duration.ofMillis(10))
+				.verifyComplete();
+		assertEquals(1, attempts.count());
+	}
+
+	@Test
+	public void noHedgeWhenBudgetIsExhausted() {
+		HedgedCalls hedgedCalls = hedgedCalls(0);
+		Attempts attempts = new Attempts(() -> Mono.just("primary").delayElement(Duration.ofSeconds(1)),
+				() -> Mono.just("hedge"));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.TRANSFORMATION, bulkhead, attempts))
+				.thenAwait(Duration.ofSeconds(1))
+				.expectNext("primary")
+				.verifyComplete();
+		assertEquals(1, attempts.count());
+		assertNull(meterRegistry.find(HedgedCalls.HEDGE_COUNTER).counter());
+	}
+
+	@Test
+	public void retriesConnectionErrors() {
+		HedgedCalls hedgedCalls = hedgedCalls(100);
+		Attempts attempts = new Attempts(() -> Mono.<String>error(requestException()),
+				() -> Mono.just("retried"));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.VALIDATION, bulkhead, attempts))
+				.thenAwait(Duration.ofSeconds(1))
+				.expectNext("retried")
+				.verifyComplete();
+		assertEquals(2, attempts.count());
+	}
+
+	@Test
+	public void doesNotRetryErrorResponses() {
+		HedgedCalls hedgedCalls = hedgedCalls(100);
+		Attempts attempts = new Attempts(() -> Mono.<String>error(responseException(503)),
+				() -> Mono.just("retried"));
+
+		StepVerifier.withVirtualTime(() -> hedgedCalls.hedged(Downstream.VALIDATION, bulkhead, attempts))
+				.thenAwait(Duration.ofSeconds(1))
+				.expectError(WebClientResponseException.class)
+				.verify();
+		assertEquals(1, attempts.count());
+	}
+
+	private HedgedCalls hedgedCalls(double budgetMaxTokens) {
+		HedgedCalls hedgedCalls = new HedgedCalls();
+		hedgedCalls.environment = new MockEnvironment()
+				.withProperty("hedging.transformation.enabled", "true")
+				.withProperty("hedging.transformation.delayMs", String.valueOf(HEDGE_DELAY_MS));
+		hedgedCalls.meterRegistry = meterRegistry;
+		ReflectionTestUtils.setField(hedgedCalls, "latencyWindow", 1000);
+		ReflectionTestUtils.setField(hedgedCalls, "percentile", 95.0);
+		ReflectionTestUtils.setField(hedgedCalls, "minSamples", 100);
+		ReflectionTestUtils.setField(hedgedCalls, "minDelayMs", 20L);
+		ReflectionTestUtils.setField(hedgedCalls, "maxRetries", 2);
+		ReflectionTestUtils.setField(hedgedCalls, "backoffMs", 50L);
+		ReflectionTestUtils.setField(hedgedCalls, "jitter", 0.5);
+		ReflectionTestUtils.setField(hedgedCalls, "budgetRatio", 0.0);
+		ReflectionTestUtils.setField(hedgedCalls, "budgetMinPerSecond", 0.0);
+		ReflectionTestUtils.setField(hedgedCalls, "budgetMaxTokens", budgetMaxTokens);
+		hedgedCalls.init();
+		return hedgedCalls;
+	}
+
+	private static WebClientRequestException requestException() {
+		return new WebClientRequestException(new ConnectException("Connection refused"), HttpMethod.POST,
+				URI.create("http://localhost/transform"), HttpHeaders.EMPTY);
+	}
+
+	private static WebClientResponseException responseException(int status) {
+		return WebClientResponseException.create(status, "Error", HttpHeaders.EMPTY, new byte[0], null);
+	}
+
+	/**
+	 * Answers the n-th attempt with the n-th response. The responses are only
+	 * created when the attempt is made, so their delays run in virtual time.
+	 */
+	private static class Attempts implements Supplier<Mono<String>> {
+
+		private final List<Supplier<Mono<String>>> responses;
+		private final AtomicInteger count = new AtomicInteger();
+
+		@SafeVarargs
+		Attempts(Supplier<Mono<String>>... responses) {
+			this.responses = Arrays.asList(responses);
+		}
+
+		@Override
+		public Mono<String> get() {
+			return responses.get(count.getAndIncrement()).get();
+		}
+
+		int count() {
+			return count.get();
+		}
+	}
+}